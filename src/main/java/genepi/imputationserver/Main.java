@@ -6,6 +6,7 @@ import genepi.base.Toolbox;
 import genepi.imputationserver.steps.imputation.ImputationPipeline;
 import genepi.imputationserver.tools.LegendFileLiftOverTool;
 import genepi.imputationserver.tools.LegendFileTool;
+import genepi.imputationserver.tools.LegendIndexTool;
 import genepi.imputationserver.tools.VcfLiftOverTool;
 import genepi.imputationserver.tools.VersionTool;
 
@@ -28,6 +29,7 @@ public class Main extends Toolbox {
 		main.addTool("version", VersionTool.class);
 		main.addTool("legend", LegendFileTool.class);
 		main.addTool("legend-liftover", LegendFileLiftOverTool.class);
+		main.addTool("legend-index", LegendIndexTool.class);
 		main.addTool("vcf-liftover", VcfLiftOverTool.class);
 
 		main.start();
@@ -7,17 +7,20 @@ import java.io.StringWriter;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Locale;
 
 import cloudgene.sdk.internal.WorkflowContext;
 import cloudgene.sdk.internal.WorkflowStep;
+import genepi.imputationserver.steps.fastqc.ChunkPlanner;
 import genepi.imputationserver.steps.fastqc.ITask;
 import genepi.imputationserver.steps.fastqc.ITaskProgressListener;
 import genepi.imputationserver.steps.fastqc.LiftOverTask;
-import genepi.imputationserver.steps.fastqc.RangeEntry;
+import genepi.imputationserver.steps.fastqc.QcLimits;
+import genepi.imputationserver.steps.fastqc.RangeIndex;
 import genepi.imputationserver.steps.fastqc.StatisticsTask;
 import genepi.imputationserver.steps.fastqc.TaskResults;
+import genepi.imputationserver.steps.fastqc.legend.LegendCache;
+import genepi.imputationserver.steps.vcf.ParallelBGzipOutputStream;
 import genepi.imputationserver.steps.vcf.VcfFileUtil;
 import genepi.imputationserver.util.DefaultPreferenceStore;
 import genepi.imputationserver.util.RefPanel;
@@ -90,7 +93,7 @@ public class FastQualityControl extends WorkflowStep {
 			return false;
 		}
 
-		String[] vcfFilenames = FileUtil.getFiles(inputFiles, "*.vcf.gz$|*.vcf$");
+		String[] vcfFilenames = FileUtil.getFiles(inputFiles, "*.vcf.gz$|*.vcf$|*.bcf$");
 
 		if (vcfFilenames.length == 0) {
 			context.error("No input files found.");
@@ -131,6 +134,12 @@ public class FastQualityControl extends WorkflowStep {
 			task.setChainFile(fullPathChainFile);
 			task.setChunksDir(chunksDir);
 			task.setExcludedSnpsWriter(excludedSnpsWriter);
+			if (store.getString("qc.liftover.threads") != null) {
+				task.setThreads(Integer.parseInt(store.getString("qc.liftover.threads")));
+			}
+			if (store.getString("qc.liftover.file.threads") != null) {
+				task.setFileThreads(Integer.parseInt(store.getString("qc.liftover.file.threads")));
+			}
 
 			TaskResults results = runTask(context, task);
 
@@ -149,6 +158,26 @@ public class FastQualityControl extends WorkflowStep {
 		task.setChunkSize(chunkSize);
 		task.setPhasingWindow(phasingWindow);
 		task.setPopulation(population);
+		if (store.getString("qc.threads") != null) {
+			task.setThreads(Integer.parseInt(store.getString("qc.threads")));
+		}
+		if (store.getString("qc.file.threads") != null) {
+			task.setFileThreads(Integer.parseInt(store.getString("qc.file.threads")));
+		}
+		if (store.getString("qc.chunks.shared") != null) {
+			task.setSharedChunks(store.getString("qc.chunks.shared").equals("true"));
+		}
+		if (store.getString("bgzip.threads") != null) {
+			ParallelBGzipOutputStream.configure(Integer.parseInt(store.getString("bgzip.threads")));
+		}
+		if (store.getString("bgzip.level") != null) {
+			task.setCompressionLevel(Integer.parseInt(store.getString("bgzip.level")));
+		}
+		if (store.getString("qc.legend.cache") != null) {
+			// memory budget in MB, shared by all jobs of this process
+			long maxMemory = Long.parseLong(store.getString("qc.legend.cache")) * 1024 * 1024;
+			LegendCache.getInstance().configure(task.getThreads(), maxMemory);
+		}
 		// support relative path
 		String legend = panel.getLegend();
 		if (!legend.startsWith("/")) {
@@ -193,31 +222,43 @@ public class FastQualityControl extends WorkflowStep {
 		String ranges = panel.getRange();
 
 		if (ranges != null) {
-			HashSet<RangeEntry> rangeEntries = new HashSet<RangeEntry>();
-
-			for (String range : panel.getRange().split(",")) {
-				String chromosome = range.split(":")[0].trim();
-				String region = range.split(":")[1].trim();
-				int start = Integer.valueOf(region.split("-")[0].trim());
-				int end = Integer.valueOf(region.split("-")[1].trim());
-				RangeEntry entry = new RangeEntry();
-				entry.setChromosome(chromosome);
-				entry.setStart(start);
-				entry.setEnd(end);
-				rangeEntries.add(entry);
-			}
-
-			task.setRanges(rangeEntries);
-			context.log("Reference Panel Ranges: " + rangeEntries);
+			RangeIndex rangeIndex = RangeIndex.parse(ranges);
+			task.setRanges(rangeIndex);
+			context.log("Reference Panel Ranges: " + rangeIndex);
 		} else {
 			context.log("Reference Panel Ranges: genome-wide");
 		}
 
 		task.setReferenceOverlap(referenceOverlap);
 		task.setMinSnps(minSnps);
+
+		if (store.getString("qc.chunks.adaptive") != null && store.getString("qc.chunks.adaptive").equals("true")) {
+			ChunkPlanner planner = new ChunkPlanner(chunkSize);
+			planner.setMinSnps(minSnps);
+			if (store.getString("qc.chunks.work") != null) {
+				// genotypes (variants x samples) per chunk
+				planner.setWork(Long.parseLong(store.getString("qc.chunks.work")));
+			}
+			if (store.getString("qc.chunks.span.min") != null) {
+				planner.setMinSpan(Integer.parseInt(store.getString("qc.chunks.span.min")));
+			}
+			if (store.getString("qc.chunks.span.max") != null) {
+				planner.setMaxSpan(Integer.parseInt(store.getString("qc.chunks.span.max")));
+			}
+			task.setChunkPlanner(planner);
+			context.log("Chunks: adaptive");
+		}
 		task.setSampleCallrate(sampleCallrate);
 		task.setMixedGenotypeschrX(mixedGenotypesChrX);
 
+		// stop quality control as soon as a hard limit is exceeded
+		if (store.getString("qc.failfast") != null && store.getString("qc.failfast").equals("true")) {
+			QcLimits limits = new QcLimits();
+			limits.setStrandFlips(strandFlips);
+			limits.setAlleleSwitches(alleleSwitches);
+			task.setLimits(limits);
+		}
+
 		TaskResults results = runTask(context, task);
 
 		if (!results.isSuccess()) {
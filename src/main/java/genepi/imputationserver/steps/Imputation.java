@@ -3,7 +3,9 @@ package genepi.imputationserver.steps;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import cloudgene.sdk.internal.WorkflowContext;
 import genepi.hadoop.HadoopJob;
@@ -500,6 +502,9 @@ public class Imputation extends ParallelHadoopJobStep {
 
 		boolean phased = true;
 
+		// shared region files are uploaded only once
+		Set<String> uploaded = new HashSet<String>();
+
 		while (reader.next()) {
 			VcfChunk chunk = new VcfChunk(reader.get());
 
@@ -508,7 +513,13 @@ public class Imputation extends ParallelHadoopJobStep {
 			// put vcf file
 			String sourceVcf = chunk.getVcfFilename();
 			String targetVcf = HdfsUtil.path(output, FileUtil.getFilename(sourceVcf));
-			HdfsUtil.put(sourceVcf, targetVcf);
+			if (uploaded.add(sourceVcf)) {
+				HdfsUtil.put(sourceVcf, targetVcf);
+				// chunks are indexed during quality control
+				if (new File(sourceVcf + ".tbi").exists()) {
+					HdfsUtil.put(sourceVcf + ".tbi", targetVcf + ".tbi");
+				}
+			}
 			chunk.setVcfFilename(targetVcf);
 
 			writer.write(chunk.serialize());
@@ -3,8 +3,16 @@ package genepi.imputationserver.steps;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringEscapeUtils;
 
@@ -13,6 +21,7 @@ import cloudgene.sdk.internal.WorkflowStep;
 import genepi.hadoop.importer.ImporterFactory;
 import genepi.imputationserver.steps.imputation.ImputationPipeline;
 import genepi.imputationserver.steps.vcf.VcfFile;
+import genepi.imputationserver.steps.vcf.VcfFileProfile;
 import genepi.imputationserver.steps.vcf.VcfFileUtil;
 import genepi.imputationserver.util.DefaultPreferenceStore;
 import genepi.imputationserver.util.PgsPanel;
@@ -22,6 +31,9 @@ import genepi.io.FileUtil;
 
 public class InputValidation extends WorkflowStep {
 
+	// loads the input files of a run
+	private ExecutorService executor;
+
 	@Override
 	public boolean run(WorkflowContext context) {
 
@@ -38,7 +50,11 @@ public class InputValidation extends WorkflowStep {
 			return false;
 		}
 
-		return checkVcfFiles(context);
+		try {
+			return checkVcfFiles(context);
+		} finally {
+			shutdownExecutor();
+		}
 
 	}
 
@@ -82,6 +98,11 @@ public class InputValidation extends WorkflowStep {
 			maxSamples = Integer.parseInt(store.getString("samples.max"));
 		}
 
+		int threads = 1;
+		if (store.getString("validation.threads") != null) {
+			threads = Integer.parseInt(store.getString("validation.threads"));
+		}
+
 		List<VcfFile> validVcfFiles = new Vector<VcfFile>();
 
 		context.beginTask("Analyze files ");
@@ -98,7 +119,7 @@ public class InputValidation extends WorkflowStep {
 			return false;
 		}
 		
-		String[] vcfFiles = FileUtil.getFiles(files, "*.vcf.gz$|*.vcf$");
+		String[] vcfFiles = FileUtil.getFiles(files, "*.vcf.gz$|*.vcf$|*.bcf$");
 
 		if (vcfFiles.length == 0) {
 			context.endTask("The provided files are not VCF files (see <a href=\"/start.html#!pages/help\">Help</a>).",
@@ -124,6 +145,22 @@ public class InputValidation extends WorkflowStep {
 			return false;
 		}
 
+		// load files in parallel, results are checked in sorted order
+		executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, vcfFiles.length)));
+		Map<String, Future<VcfFile>> results = new HashMap<String, Future<VcfFile>>();
+		final int fileChunkSize = chunkSize;
+		for (final String filename : vcfFiles) {
+			results.put(filename, executor.submit(new Callable<VcfFile>() {
+				@Override
+				public VcfFile call() throws Exception {
+					VcfFile vcfFile = VcfFileUtil.load(filename, fileChunkSize, true);
+					// reused by quality control, no need to scan the file again
+					VcfFileProfile.write(vcfFile);
+					return vcfFile;
+				}
+			}));
+		}
+
 		for (String filename : vcfFiles) {
 
 			if (infos == null) {
@@ -137,7 +174,7 @@ public class InputValidation extends WorkflowStep {
 
 			try {
 
-				VcfFile vcfFile = VcfFileUtil.load(filename, chunkSize, true);
+				VcfFile vcfFile = getResult(results.get(filename));
 
 				if (VcfFileUtil.isChrMT(vcfFile.getChromosome())) {
 					vcfFile.setPhased(true);
@@ -282,6 +319,33 @@ public class InputValidation extends WorkflowStep {
 		}
 	}
 
+	// stops loading files that are not checked anymore
+	private void shutdownExecutor() {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor = null;
+	}
+
+	private VcfFile getResult(Future<VcfFile> result) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Validation was interrupted.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			String message = cause.getMessage();
+			throw new IOException(message != null ? message : cause.toString(), cause);
+		}
+	}
+
 	private boolean checkParameters(WorkflowContext context) {
 
 		String folder = getFolder(InputValidation.class);
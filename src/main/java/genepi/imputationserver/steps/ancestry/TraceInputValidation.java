@@ -9,6 +9,7 @@ import java.util.Map;
 import java.util.regex.Pattern;
 
 import genepi.imputationserver.steps.vcf.BGzipLineWriter;
+import genepi.imputationserver.steps.vcf.VcfFileUtil;
 import genepi.io.text.LineReader;
 
 public class TraceInputValidation {
@@ -26,7 +27,7 @@ public class TraceInputValidation {
 		boolean firstFile = true;
 		TraceInputValidationResult result = new TraceInputValidationResult();
 		for (String filename : files) {
-			LineReader reader = new LineReader(filename);
+			LineReader reader = VcfFileUtil.openLineReader(filename);
 			while (reader.next()) {
 				String line = reader.get();
 				if (line.startsWith("#")) {
@@ -52,7 +52,7 @@ public class TracePipeline {
 
 		List<String> files = HdfsUtil.getFiles(vcfFolder);
 		// TODO: need sort?
-		BGzipLineWriter writer = new BGzipLineWriter(output);
+		BGzipLineWriter writer = new BGzipLineWriter(output, true);
 		boolean firstFile = true;
 		for (String filename : files) {
 			LineReader reader = new LineReader(HdfsUtil.open(filename));
@@ -78,14 +78,6 @@ public class TracePipeline {
 		}
 		writer.close();
 
-		Command tabix = new Command((new File("tabix")).getAbsolutePath());
-		tabix.setSilent(false);
-		tabix.setParams(output);
-		System.out.println("Command: " + tabix.getExecutedCommand());
-		if (tabix.execute() != 0) {
-			throw new IOException("Error during index creation: " + tabix.getStdOut());
-		}
-
 		return true;
 	}
 
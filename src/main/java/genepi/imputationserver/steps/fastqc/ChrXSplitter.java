@@ -0,0 +1,396 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
+import genepi.imputationserver.steps.vcf.BGzipLineWriter;
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.imputationserver.util.GenomicTools;
+import genepi.io.text.LineWriter;
+
+/**
+ * Splits a chrX file into PAR1, nonPAR and PAR2 files. Records are routed by
+ * position as raw lines and are not decoded. For nonPAR records, ploidy and
+ * mixed genotypes (e.g. ./1) of every sample are read directly from the GT
+ * bytes. Haploid samples are kept in a bitset indexed by sample.
+ */
+public class ChrXSplitter {
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	// CHROM, POS, ID, REF, ALT, QUAL, FILTER, INFO, FORMAT
+	private static final int FIXED_FIELDS = 9;
+
+	private int nonParStart = 2699520;
+
+	private int nonParEnd = 154931044;
+
+	private int invalidAlleles = 0;
+
+	private int nonParRecords = 0;
+
+	private int[] mixedGenotypes;
+
+	private boolean ploidyError = false;
+
+	private int[] fieldStarts = new int[FIXED_FIELDS + 1];
+
+	private int[] fieldEnds = new int[FIXED_FIELDS];
+
+	private MinimalVariantContext record = new MinimalVariantContext(0);
+
+	public ChrXSplitter(String build) {
+		if (build.equals("hg38")) {
+			nonParStart = 2781479;
+			nonParEnd = 155701383;
+		}
+	}
+
+	/**
+	 * Writes the records into the three (indexed) files and returns the files
+	 * that contain records, in order of their first record. Haploid samples
+	 * are added to hapSamples, samples that are haploid in an earlier record
+	 * but not in the current one are written to chrXInfoWriter.
+	 */
+	public List<String> split(String filename, String par1, String nonPar, String par2,
+			LineWriter excludedSnpsWriter, LineWriter chrXInfoWriter, Set<String> hapSamples) throws IOException {
+
+		List<String> paths = new Vector<String>();
+
+		BGzipLineWriter writerPar1 = new BGzipLineWriter(par1, true);
+		BGzipLineWriter writerNonPar = new BGzipLineWriter(nonPar, true);
+		BGzipLineWriter writerPar2 = new BGzipLineWriter(par2, true);
+
+		InputStream in = VcfFileUtil.openInputStream(filename);
+
+		List<String> samples = null;
+		BitSet haploid = new BitSet();
+
+		try {
+
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int position = 0;
+			int limit = 0;
+			int scan = 0;
+			boolean eof = false;
+			int lineNumber = 0;
+
+			while (true) {
+
+				// find next line break
+				int lineEnd = -1;
+				for (; scan < limit; scan++) {
+					if (buffer[scan] == '\n') {
+						lineEnd = scan;
+						break;
+					}
+				}
+
+				if (lineEnd == -1) {
+					if (eof) {
+						if (position == limit) {
+							break;
+						}
+						// last line without line break
+						lineEnd = limit;
+					} else {
+						// move the incomplete line to the beginning of the buffer
+						int remaining = limit - position;
+						System.arraycopy(buffer, position, buffer, 0, remaining);
+						scan -= position;
+						position = 0;
+						limit = remaining;
+						if (limit == buffer.length) {
+							byte[] newBuffer = new byte[buffer.length * 2];
+							System.arraycopy(buffer, 0, newBuffer, 0, limit);
+							buffer = newBuffer;
+						}
+						int read = in.read(buffer, limit, buffer.length - limit);
+						if (read == -1) {
+							eof = true;
+						} else {
+							limit += read;
+						}
+						continue;
+					}
+				}
+
+				int lineStart = position;
+				position = Math.min(lineEnd + 1, limit);
+				scan = position;
+				lineNumber++;
+
+				int length = lineEnd - lineStart;
+				if (length > 0 && buffer[lineEnd - 1] == '\r') {
+					length--;
+				}
+
+				if (length == 0) {
+					continue;
+				}
+
+				if (buffer[lineStart] == '#') {
+					String line = new String(buffer, lineStart, length, StandardCharsets.UTF_8);
+					writerPar1.write(line);
+					writerNonPar.write(line);
+					writerPar2.write(line);
+					if (line.startsWith("#CHROM")) {
+						samples = new Vector<String>();
+						String[] tiles = line.split("\t");
+						for (int i = FIXED_FIELDS; i < tiles.length; i++) {
+							samples.add(tiles[i]);
+							if (hapSamples.contains(tiles[i])) {
+								haploid.set(i - FIXED_FIELDS);
+							}
+						}
+					}
+					continue;
+				}
+
+				if (samples == null) {
+					throw new IOException("The provided VCF file '" + filename + "' contains no #CHROM header line.");
+				}
+
+				int fields = findFields(buffer, lineStart, lineStart + length, lineNumber);
+
+				String ref = field(buffer, 3);
+				String alt = field(buffer, 4);
+
+				// filter invalid alleles
+				if (!GenomicTools.isValid(ref) || !GenomicTools.isValid(alt)) {
+					excludedSnpsWriter.write(field(buffer, 0) + ":" + field(buffer, 1) + ":" + ref + ":" + alt);
+					invalidAlleles++;
+					continue;
+				}
+
+				MinimalVariantContext snp = createRecord(buffer, lineStart, length);
+
+				if (snp.getStart() < nonParStart) {
+
+					writerPar1.write(snp);
+
+					if (!paths.contains(par1)) {
+						paths.add(par1);
+					}
+
+				} else if (snp.getStart() >= nonParStart && snp.getStart() <= nonParEnd) {
+
+					nonParRecords++;
+
+					if (mixedGenotypes == null) {
+						mixedGenotypes = new int[samples.size()];
+					}
+
+					if (!samples.isEmpty()) {
+						if (fields < FIXED_FIELDS + 1) {
+							throw new IOException("Line " + lineNumber + ": different number of samples.");
+						}
+						checkGenotypes(buffer, lineStart + length, samples, haploid, snp, chrXInfoWriter,
+								lineNumber);
+					}
+
+					writerNonPar.write(snp);
+
+					if (!paths.contains(nonPar)) {
+						paths.add(nonPar);
+					}
+
+				} else {
+
+					writerPar2.write(snp);
+
+					if (!paths.contains(par2)) {
+						paths.add(par2);
+					}
+
+				}
+
+			}
+
+		} finally {
+			in.close();
+			writerPar1.close();
+			writerNonPar.close();
+			writerPar2.close();
+		}
+
+		if (samples != null) {
+			for (int i = haploid.nextSetBit(0); i >= 0; i = haploid.nextSetBit(i + 1)) {
+				hapSamples.add(samples.get(i));
+			}
+		}
+
+		return paths;
+
+	}
+
+	// ploidy is the number of alleles in GT, a genotype is mixed if it has
+	// called and missing alleles
+	private void checkGenotypes(byte[] buffer, int end, List<String> samples, BitSet haploid,
+			MinimalVariantContext snp, LineWriter chrXInfoWriter, int lineNumber) throws IOException {
+
+		int gtTile = indexOfGT(buffer, fieldStarts[8], fieldEnds[8]);
+
+		int sample = 0;
+		int i = fieldStarts[9];
+
+		while (i <= end && sample < samples.size()) {
+
+			int tile = 0;
+			int alleles = 0;
+			boolean called = false;
+			boolean missing = false;
+			boolean alleleStart = true;
+
+			while (i < end && buffer[i] != '\t') {
+				byte value = buffer[i];
+				if (value == ':') {
+					tile++;
+				} else if (tile == gtTile) {
+					if (value == '/' || value == '|') {
+						alleleStart = true;
+					} else if (alleleStart) {
+						alleles++;
+						if (value == '.') {
+							missing = true;
+						} else {
+							called = true;
+						}
+						alleleStart = false;
+					}
+				}
+				i++;
+			}
+
+			if (missing && called) {
+				mixedGenotypes[sample]++;
+			}
+
+			if (haploid.get(sample) && alleles != 1) {
+				chrXInfoWriter.write(samples.get(sample) + "\t" + snp.getContig() + ":" + snp.getStart());
+				ploidyError = true;
+			}
+
+			if (alleles == 1) {
+				haploid.set(sample);
+			}
+
+			sample++;
+			i++;
+
+		}
+
+		if (sample != samples.size()) {
+			throw new IOException("Line " + lineNumber + ": different number of samples.");
+		}
+
+	}
+
+	// index of the GT value in FORMAT, -1 if there is no GT
+	private int indexOfGT(byte[] buffer, int start, int end) {
+		int tile = 0;
+		int tileStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || buffer[i] == ':') {
+				if (i - tileStart == 2 && buffer[tileStart] == 'G' && buffer[tileStart + 1] == 'T') {
+					return tile;
+				}
+				tile++;
+				tileStart = i + 1;
+			}
+		}
+		return -1;
+	}
+
+	// finds the fixed fields and returns the number of fields found. Sites
+	// without samples end after INFO.
+	private int findFields(byte[] buffer, int start, int end, int lineNumber) throws IOException {
+		int field = 0;
+		fieldStarts[0] = start;
+		for (int i = start; i < end && field < FIXED_FIELDS; i++) {
+			if (buffer[i] == '\t') {
+				fieldEnds[field] = i;
+				field++;
+				fieldStarts[field] = i + 1;
+			}
+		}
+		if (field < FIXED_FIELDS) {
+			fieldEnds[field] = end;
+		}
+		if (field < FIXED_FIELDS - 2) {
+			throw new IOException("Line " + lineNumber + ": The provided VCF file is not correct tab-delimited");
+		}
+		return field + 1;
+	}
+
+	private String field(byte[] buffer, int field) {
+		return new String(buffer, fieldStarts[field], fieldEnds[field] - fieldStarts[field],
+				StandardCharsets.UTF_8);
+	}
+
+	// chr23 is written as chrX
+	private MinimalVariantContext createRecord(byte[] buffer, int start, int length) throws IOException {
+
+		String contig = field(buffer, 0);
+		if (contig.equals("23") || contig.equals("chr23")) {
+			byte[] name = (contig.equals("23") ? "X" : "chrX").getBytes(StandardCharsets.UTF_8);
+			int shift = name.length - (fieldEnds[0] - start);
+			byte[] line = new byte[length + shift];
+			System.arraycopy(name, 0, line, 0, name.length);
+			System.arraycopy(buffer, fieldEnds[0], line, name.length, start + length - fieldEnds[0]);
+			int[] starts = new int[fieldStarts.length];
+			int[] ends = new int[fieldEnds.length];
+			starts[0] = 0;
+			ends[0] = name.length;
+			for (int i = 1; i < starts.length; i++) {
+				starts[i] = fieldStarts[i] - start + shift;
+			}
+			for (int i = 1; i < ends.length; i++) {
+				ends[i] = fieldEnds[i] - start + shift;
+			}
+			return createRecord(line, 0, line.length, starts, ends);
+		}
+
+		return createRecord(buffer, start, length, fieldStarts, fieldEnds);
+
+	}
+
+	private MinimalVariantContext createRecord(byte[] buffer, int start, int length, int[] starts, int[] ends)
+			throws IOException {
+		record.setRecord(buffer, start, length, starts, ends);
+		try {
+			record.setStart(Integer.parseInt(new String(buffer, starts[1], ends[1] - starts[1],
+					StandardCharsets.US_ASCII)));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid position: " + e.getMessage());
+		}
+		return record;
+	}
+
+	public int getInvalidAlleles() {
+		return invalidAlleles;
+	}
+
+	public int getNonParRecords() {
+		return nonParRecords;
+	}
+
+	/**
+	 * Mixed genotypes per sample in nonPAR records, null if there are no
+	 * nonPAR records.
+	 */
+	public int[] getMixedGenotypes() {
+		return mixedGenotypes;
+	}
+
+	public boolean isPloidyError() {
+		return ploidyError;
+	}
+
+}
@@ -0,0 +1,183 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.Vector;
+
+import genepi.imputationserver.steps.vcf.ChunkPlan;
+import genepi.imputationserver.steps.vcf.VcfFile;
+
+/**
+ * Plans chunk boundaries from the variant density of a file, so that every
+ * chunk has about the same work (variants x samples) instead of the same
+ * span. Dense regions get shorter chunks, sparse regions longer ones, within
+ * a minimal and maximal span. Chunks with less than minSnps variants would be
+ * excluded by the quality control and are coalesced with their smaller
+ * neighbour.
+ */
+public class ChunkPlanner {
+
+	private int chunkSize;
+
+	// genotypes per chunk, 0 uses the average of the fixed chunks
+	private long work = 0;
+
+	private int minSpan;
+
+	private int maxSpan;
+
+	private int minSnps = 0;
+
+	public ChunkPlanner(int chunkSize) {
+		this.chunkSize = chunkSize;
+		this.minSpan = chunkSize / 4;
+		this.maxSpan = chunkSize * 2;
+	}
+
+	public void setWork(long work) {
+		this.work = work;
+	}
+
+	public void setMinSpan(int minSpan) {
+		this.minSpan = minSpan;
+	}
+
+	public void setMaxSpan(int maxSpan) {
+		this.maxSpan = maxSpan;
+	}
+
+	public void setMinSnps(int minSnps) {
+		this.minSnps = minSnps;
+	}
+
+	/**
+	 * Plans the chunks of a file with the given variants per density bin
+	 * (see VcfFile.getDensity). Returns a fixed plan if there is no density.
+	 */
+	public ChunkPlan plan(Map<Integer, Integer> density, int samples) {
+
+		if (density == null || density.isEmpty()) {
+			return new ChunkPlan(chunkSize);
+		}
+
+		int binSize = VcfFile.getDensityBinSize(chunkSize);
+		TreeMap<Integer, Integer> bins = new TreeMap<Integer, Integer>(density);
+
+		long variants = 0;
+		Set<Integer> fixedChunks = new HashSet<Integer>();
+		for (Map.Entry<Integer, Integer> bin : bins.entrySet()) {
+			variants += bin.getValue();
+			fixedChunks.add((int) ((long) bin.getKey() * binSize / chunkSize));
+		}
+
+		long target;
+		if (work > 0) {
+			target = Math.max(1, work / Math.max(1, samples));
+		} else {
+			target = Math.max(1, variants / fixedChunks.size());
+		}
+
+		int minBins = Math.max(1, (minSpan + binSize - 1) / binSize);
+		int maxBins = Math.max(minBins, maxSpan / binSize);
+
+		// start bin and variants of every chunk
+		List<long[]> chunks = new Vector<long[]>();
+
+		int start = bins.firstKey();
+		long current = 0;
+		int lastBin = start;
+
+		for (Map.Entry<Integer, Integer> bin : bins.entrySet()) {
+
+			int b = bin.getKey();
+			int count = bin.getValue();
+
+			// the bin would exceed the maximal span: end the chunk behind its
+			// last variant. A gap without variants is split between the
+			// neighbouring chunks.
+			if (b + 1 - start > maxBins) {
+				if (current > 0) {
+					chunks.add(new long[] { start, current });
+					current = 0;
+				}
+				start = Math.max(start, lastBin + 1 + (b - lastBin - 1) / 2);
+			}
+
+			// end the chunk before the bin if this is closer to the target
+			if (current > 0 && current + count > target && b - start >= minBins
+					&& target - current < current + count - target) {
+				chunks.add(new long[] { start, current });
+				start = b;
+				current = 0;
+			}
+
+			current += count;
+			lastBin = b;
+
+			if (current >= target && b + 1 - start >= minBins) {
+				chunks.add(new long[] { start, current });
+				start = b + 1;
+				current = 0;
+			}
+
+		}
+
+		if (current > 0) {
+			chunks.add(new long[] { start, current });
+		}
+
+		coalesce(chunks);
+
+		int[] starts = new int[chunks.size()];
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = (int) (chunks.get(i)[0] * binSize + 1);
+		}
+		int end = (int) Math.min(Integer.MAX_VALUE, (lastBin + 1L) * binSize);
+
+		return new ChunkPlan(starts, end);
+
+	}
+
+	// merges the smallest chunk below minSnps with its smaller neighbour
+	// until all chunks have enough variants
+	private void coalesce(List<long[]> chunks) {
+
+		while (true) {
+
+			int smallest = -1;
+			for (int i = 0; i < chunks.size(); i++) {
+				long variants = chunks.get(i)[1];
+				if (variants < minSnps && (smallest == -1 || variants < chunks.get(smallest)[1])) {
+					smallest = i;
+				}
+			}
+			if (smallest == -1) {
+				return;
+			}
+
+			int prev = smallest - 1;
+			int next = smallest + 1;
+
+			int neighbour;
+			if (prev < 0 && next >= chunks.size()) {
+				return;
+			} else if (prev < 0) {
+				neighbour = next;
+			} else if (next >= chunks.size()) {
+				neighbour = prev;
+			} else {
+				neighbour = chunks.get(prev)[1] <= chunks.get(next)[1] ? prev : next;
+			}
+
+			int from = Math.min(smallest, neighbour);
+			chunks.get(from)[1] = chunks.get(smallest)[1] + chunks.get(neighbour)[1];
+			chunks.remove(from + 1);
+
+		}
+
+	}
+
+}
@@ -1,9 +1,15 @@
 package genepi.imputationserver.steps.fastqc;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
-import genepi.imputationserver.steps.vcf.VcfFileUtil;
 import genepi.imputationserver.steps.vcf.VcfLiftOverFast;
 import genepi.io.FileUtil;
 import genepi.io.text.LineWriter;
@@ -20,37 +26,78 @@ public class LiftOverTask implements ITask {
 	private String[] vcfFilenames;
 	private String[] newVcfFilenames;
 	private LineWriter excludedSnpsWriter;
+	private int threads = 1;
+	private int fileThreads = 1;
 
 	@Override
 	public String getName() {
 		return "Lift Over";
 	}
 
-	public TaskResults run(ITaskProgressListener progressListener) throws IOException {
+	public TaskResults run(ITaskProgressListener progressListener) throws IOException, InterruptedException {
 
 		newVcfFilenames = new String[vcfFilenames.length];
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(fileThreads, vcfFilenames.length)));
+
+		List<Future<Vector<String>>> results = new Vector<Future<Vector<String>>>();
+
 		for (int i = 0; i < vcfFilenames.length; i++) {
-			String filename = vcfFilenames[i];
-			if (progressListener != null) {
-				progressListener.progress(getName() + " [" + (i + 1) + "/" + vcfFilenames.length + "]\n\n"
-						+ "Analyze file " + FileUtil.getFilename(filename) + "...");
-			}
+			final String filename = vcfFilenames[i];
 			String name = FileUtil.getFilename(filename);
-			String output = FileUtil.path(chunksDir, name + ".lifted.vcf.gz");
-			String temp = FileUtil.path(chunksDir, "vcf.sorte");
-			FileUtil.createDirectory(temp);
-			Vector<String> errors = VcfLiftOverFast.liftOver(filename, output, chainFile, temp);
-
-			// create tabix index
-			VcfFileUtil.createIndex(output, true);
-
-			FileUtil.deleteDirectory(temp);
-			if (excludedSnpsWriter != null) {
-				for (String error : errors) {
-					excludedSnpsWriter.write(error);
+			final String output = FileUtil.path(chunksDir, name + ".lifted.vcf.gz");
+			// every file sorts in its own temp directory
+			final String temp = FileUtil.path(chunksDir, name + ".sorte");
+			newVcfFilenames[i] = output;
+			results.add(executor.submit(new Callable<Vector<String>>() {
+				@Override
+				public Vector<String> call() throws Exception {
+					FileUtil.createDirectory(temp);
+					try {
+						// writes the tabix index of the lifted file
+						return VcfLiftOverFast.liftOver(filename, output, chainFile, temp, threads);
+					} finally {
+						FileUtil.deleteDirectory(temp);
+					}
 				}
+			}));
+		}
+
+		try {
+
+			// errors are written in input order
+			for (int i = 0; i < vcfFilenames.length; i++) {
+
+				if (progressListener != null) {
+					progressListener.progress(getName() + " [" + (i + 1) + "/" + vcfFilenames.length + "]\n\n"
+							+ "Analyze file " + FileUtil.getFilename(vcfFilenames[i]) + "...");
+				}
+
+				Vector<String> errors;
+				try {
+					errors = results.get(i).get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof InterruptedException) {
+						throw (InterruptedException) cause;
+					}
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					}
+					throw new IOException(cause);
+				}
+
+				if (excludedSnpsWriter != null) {
+					for (String error : errors) {
+						excludedSnpsWriter.write(error);
+					}
+				}
+
 			}
-			newVcfFilenames[i] = output;
+
+		} finally {
+			executor.shutdownNow();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
 		}
 
 		TaskResults result = new TaskResults();
@@ -77,6 +124,20 @@ public class LiftOverTask implements ITask {
 		this.chainFile = chainFile;
 	}
 
+	/**
+	 * Number of threads that lift the records of a file, at least 1.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Number of files lifted concurrently, at least 1.
+	 */
+	public void setFileThreads(int fileThreads) {
+		this.fileThreads = Math.max(1, fileThreads);
+	}
+
 	public String[] getNewVcfFilenames() {
 		return newVcfFilenames;
 	}
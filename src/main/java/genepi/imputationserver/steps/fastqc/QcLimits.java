@@ -0,0 +1,80 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hard limits of the quality control, checked while the counters grow. The
+ * counters are shared by all shards and files of a task, so the first shard
+ * that exceeds a limit stops all others.
+ */
+public class QcLimits {
+
+	private int strandFlips = Integer.MAX_VALUE;
+
+	private int alleleSwitches = Integer.MAX_VALUE;
+
+	private AtomicInteger strandFlipCount = new AtomicInteger();
+
+	private AtomicInteger alleleSwitchCount = new AtomicInteger();
+
+	private volatile String error = null;
+
+	public void setStrandFlips(int strandFlips) {
+		this.strandFlips = strandFlips;
+	}
+
+	public void setAlleleSwitches(int alleleSwitches) {
+		this.alleleSwitches = alleleSwitches;
+	}
+
+	/**
+	 * Counts a strand flip or a strand flip and allele switch.
+	 */
+	public void addStrandFlip() throws IOException {
+		if (strandFlipCount.incrementAndGet() > strandFlips) {
+			fail("More than " + strandFlips
+					+ " obvious strand flips have been detected. Please check strand. Imputation cannot be started!");
+		}
+	}
+
+	public void addAlleleSwitch() throws IOException {
+		if (alleleSwitchCount.incrementAndGet() > alleleSwitches) {
+			fail("More than " + alleleSwitches + " allele switches have been detected. Imputation cannot be started!");
+		}
+	}
+
+	public void checkChrX(boolean missingRate, boolean ploidyError) throws IOException {
+		if (missingRate) {
+			fail("Chromosome X nonPAR region includes > 10 % mixed genotypes. Imputation cannot be started!");
+		}
+		if (ploidyError) {
+			fail("ChrX nonPAR region includes ambiguous samples (haploid and diploid positions). Imputation cannot be started!");
+		}
+	}
+
+	/**
+	 * Stops the calling shard if a limit was exceeded by any shard.
+	 */
+	public void check() throws IOException {
+		if (error != null) {
+			throw new IOException(error);
+		}
+	}
+
+	public boolean isExceeded() {
+		return error != null;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	private synchronized void fail(String message) throws IOException {
+		if (error == null) {
+			error = message;
+		}
+		throw new IOException(error);
+	}
+
+}
@@ -0,0 +1,208 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import genepi.io.text.LineWriter;
+
+/**
+ * Aggregates the allele frequency statistics of all SNPs for the QC report.
+ * Instead of one line per SNP, the report data contains a 2D histogram of
+ * study vs. reference frequencies, a chi-square histogram, regression sums
+ * per chromosome and the first mismatches, so its size does not depend on
+ * the number of uploaded SNPs.
+ */
+public class QcReportData {
+
+	public static final String VERSION = "1";
+
+	// bins per frequency axis
+	public static final int FREQUENCY_BINS = 100;
+
+	public static final int CHISQ_BIN_WIDTH = 10;
+
+	// the last bin contains all values >= (CHISQ_BINS - 1) * CHISQ_BIN_WIDTH
+	public static final int CHISQ_BINS = 31;
+
+	public static final double MISMATCH_CHISQ = 300;
+
+	public static final int MAX_MISMATCHES = 5000;
+
+	private long[] frequencies = new long[FREQUENCY_BINS * FREQUENCY_BINS];
+
+	private long[] chisq = new long[CHISQ_BINS];
+
+	private Map<String, Summary> chromosomes = new LinkedHashMap<String, Summary>();
+
+	private List<String> mismatches = new Vector<String>();
+
+	private long mismatchCount = 0;
+
+	/**
+	 * Adds the statistics of a SNP. The first mismatches are kept as lines in
+	 * the format of the former maf file (snp and SnpStats.toString()).
+	 */
+	public void add(String snp, SnpStats statistics) {
+
+		Summary summary = getSummary(statistics.getChromosome());
+
+		float frequency = statistics.getFrequencyA();
+		float refFrequency = statistics.getRefFrequencyA();
+		if (!Float.isNaN(frequency) && !Float.isNaN(refFrequency)) {
+			frequencies[getFrequencyBin(frequency) * FREQUENCY_BINS + getFrequencyBin(refFrequency)]++;
+			summary.add(frequency, refFrequency);
+		}
+
+		double value = statistics.getChisq();
+		if (!Double.isNaN(value)) {
+			chisq[Math.max(0, Math.min(CHISQ_BINS - 1, (int) (value / CHISQ_BIN_WIDTH)))]++;
+			if (value > MISMATCH_CHISQ) {
+				summary.mismatches++;
+				mismatchCount++;
+				if (mismatches.size() < MAX_MISMATCHES) {
+					mismatches.add(snp + "\t" + statistics.toString());
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Adds the data of a shard. Shards have to be added in position order to
+	 * keep the first mismatches.
+	 */
+	public void add(QcReportData data) {
+
+		for (int i = 0; i < frequencies.length; i++) {
+			frequencies[i] += data.frequencies[i];
+		}
+
+		for (int i = 0; i < chisq.length; i++) {
+			chisq[i] += data.chisq[i];
+		}
+
+		for (Map.Entry<String, Summary> chromosome : data.chromosomes.entrySet()) {
+			getSummary(chromosome.getKey()).add(chromosome.getValue());
+		}
+
+		for (String mismatch : data.mismatches) {
+			if (mismatches.size() < MAX_MISMATCHES) {
+				mismatches.add(mismatch);
+			}
+		}
+		mismatchCount += data.mismatchCount;
+
+	}
+
+	public long getFrequencyCount(int bin, int refBin) {
+		return frequencies[bin * FREQUENCY_BINS + refBin];
+	}
+
+	public long getChisqCount(int bin) {
+		return chisq[bin];
+	}
+
+	public long getMismatchCount() {
+		return mismatchCount;
+	}
+
+	public List<String> getMismatches() {
+		return mismatches;
+	}
+
+	/**
+	 * Writes the data as tab-delimited lines. The first column is the type of
+	 * the line (freq, chisq, chromosome, mismatches or mismatch).
+	 */
+	public void write(String filename) throws IOException {
+
+		LineWriter writer = new LineWriter(filename);
+
+		writer.write("#qc-report-data\t" + VERSION);
+
+		for (int bin = 0; bin < FREQUENCY_BINS; bin++) {
+			for (int refBin = 0; refBin < FREQUENCY_BINS; refBin++) {
+				long count = getFrequencyCount(bin, refBin);
+				if (count > 0) {
+					writer.write("freq\t" + bin + "\t" + refBin + "\t" + count);
+				}
+			}
+		}
+
+		for (int bin = 0; bin < CHISQ_BINS; bin++) {
+			writer.write("chisq\t" + (bin * CHISQ_BIN_WIDTH) + "\t" + chisq[bin]);
+		}
+
+		for (Map.Entry<String, Summary> chromosome : chromosomes.entrySet()) {
+			writer.write("chromosome\t" + chromosome.getKey() + "\t" + chromosome.getValue());
+		}
+
+		writer.write("mismatches\t" + mismatchCount);
+
+		for (String mismatch : mismatches) {
+			writer.write("mismatch\t" + mismatch);
+		}
+
+		writer.close();
+
+	}
+
+	private Summary getSummary(String chromosome) {
+		Summary summary = chromosomes.get(chromosome);
+		if (summary == null) {
+			summary = new Summary();
+			chromosomes.put(chromosome, summary);
+		}
+		return summary;
+	}
+
+	private static int getFrequencyBin(float frequency) {
+		return Math.max(0, Math.min(FREQUENCY_BINS - 1, (int) (frequency * FREQUENCY_BINS)));
+	}
+
+	// sums of the linear regression of reference on study frequencies
+	private static class Summary {
+
+		private long n = 0;
+
+		private double sx = 0;
+
+		private double sy = 0;
+
+		private double sxx = 0;
+
+		private double syy = 0;
+
+		private double sxy = 0;
+
+		private long mismatches = 0;
+
+		public void add(double x, double y) {
+			n++;
+			sx += x;
+			sy += y;
+			sxx += x * x;
+			syy += y * y;
+			sxy += x * y;
+		}
+
+		public void add(Summary summary) {
+			n += summary.n;
+			sx += summary.sx;
+			sy += summary.sy;
+			sxx += summary.sxx;
+			syy += summary.syy;
+			sxy += summary.sxy;
+			mismatches += summary.mismatches;
+		}
+
+		public String toString() {
+			return n + "\t" + sx + "\t" + sy + "\t" + sxx + "\t" + syy + "\t" + sxy + "\t" + mismatches;
+		}
+
+	}
+
+}
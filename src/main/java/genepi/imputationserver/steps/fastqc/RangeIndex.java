@@ -0,0 +1,167 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Sorted interval index of the ranges of a reference panel (e.g.
+ * "6:28000000-34000000,..."). Overlapping ranges are merged, so a position is
+ * found with one binary search per chromosome.
+ */
+public class RangeIndex {
+
+	private Map<String, Intervals> chromosomes = new HashMap<String, Intervals>();
+
+	private List<RangeEntry> entries;
+
+	public RangeIndex(Collection<RangeEntry> entries) {
+
+		this.entries = new Vector<RangeEntry>(entries);
+
+		Map<String, List<RangeEntry>> byChromosome = new HashMap<String, List<RangeEntry>>();
+		for (RangeEntry entry : entries) {
+			List<RangeEntry> list = byChromosome.get(entry.getChromosome());
+			if (list == null) {
+				list = new Vector<RangeEntry>();
+				byChromosome.put(entry.getChromosome(), list);
+			}
+			list.add(entry);
+		}
+
+		for (Map.Entry<String, List<RangeEntry>> chromosome : byChromosome.entrySet()) {
+			chromosomes.put(chromosome.getKey(), new Intervals(chromosome.getValue()));
+		}
+
+	}
+
+	/**
+	 * Parses a comma separated list of ranges (chromosome:start-end).
+	 */
+	public static RangeIndex parse(String ranges) {
+		List<RangeEntry> entries = new Vector<RangeEntry>();
+		for (String range : ranges.split(",")) {
+			String chromosome = range.split(":")[0].trim();
+			String region = range.split(":")[1].trim();
+			int start = Integer.valueOf(region.split("-")[0].trim());
+			int end = Integer.valueOf(region.split("-")[1].trim());
+			RangeEntry entry = new RangeEntry();
+			entry.setChromosome(chromosome);
+			entry.setStart(start);
+			entry.setEnd(end);
+			entries.add(entry);
+		}
+		return new RangeIndex(entries);
+	}
+
+	public boolean hasChromosome(String chromosome) {
+		return chromosomes.containsKey(chromosome);
+	}
+
+	/**
+	 * Returns the merged intervals of a chromosome or null if the chromosome
+	 * has no range.
+	 */
+	public Intervals getIntervals(String chromosome) {
+		return chromosomes.get(chromosome);
+	}
+
+	public boolean contains(String chromosome, int position) {
+		Intervals intervals = chromosomes.get(chromosome);
+		return intervals != null && intervals.contains(position);
+	}
+
+	public boolean overlaps(String chromosome, int start, int end) {
+		Intervals intervals = chromosomes.get(chromosome);
+		return intervals != null && intervals.overlaps(start, end);
+	}
+
+	public String toString() {
+		return entries.toString();
+	}
+
+	/**
+	 * Sorted, non-overlapping intervals of one chromosome.
+	 */
+	public static class Intervals {
+
+		private int[] starts;
+
+		private int[] ends;
+
+		private int size = 0;
+
+		public Intervals(List<RangeEntry> entries) {
+
+			RangeEntry[] sorted = entries.toArray(new RangeEntry[entries.size()]);
+			Arrays.sort(sorted, new Comparator<RangeEntry>() {
+				@Override
+				public int compare(RangeEntry a, RangeEntry b) {
+					return Integer.compare(a.getStart(), b.getStart());
+				}
+			});
+
+			starts = new int[sorted.length];
+			ends = new int[sorted.length];
+
+			for (RangeEntry entry : sorted) {
+				if (size > 0 && entry.getStart() <= ends[size - 1] + 1) {
+					ends[size - 1] = Math.max(ends[size - 1], entry.getEnd());
+				} else {
+					starts[size] = entry.getStart();
+					ends[size] = entry.getEnd();
+					size++;
+				}
+			}
+
+		}
+
+		public boolean contains(int position) {
+			int index = find(position);
+			return index >= 0 && position <= ends[index];
+		}
+
+		/**
+		 * Returns true if [start, end] overlaps an interval.
+		 */
+		public boolean overlaps(int start, int end) {
+			int index = find(end);
+			return index >= 0 && ends[index] >= start;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int getStart(int index) {
+			return starts[index];
+		}
+
+		public int getEnd(int index) {
+			return ends[index];
+		}
+
+		// index of the last interval starting at or before position, or -1
+		private int find(int position) {
+			int index = Arrays.binarySearch(starts, 0, size, position);
+			return index >= 0 ? index : -index - 2;
+		}
+
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < size; i++) {
+				if (i > 0) {
+					builder.append(",");
+				}
+				builder.append(starts[i] + "-" + ends[i]);
+			}
+			return builder.toString();
+		}
+
+	}
+
+}
@@ -5,32 +5,43 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import genepi.imputationserver.steps.fastqc.legend.LegendCache;
 import genepi.imputationserver.steps.fastqc.legend.LegendEntry;
-import genepi.imputationserver.steps.fastqc.legend.LegendFileReader;
+import genepi.imputationserver.steps.fastqc.legend.BinaryLegendFile;
+import genepi.imputationserver.steps.fastqc.legend.BinaryLegendFileReader;
+import genepi.imputationserver.steps.fastqc.legend.ILegendReader;
+import genepi.imputationserver.steps.fastqc.legend.LegendFileCursor;
+import genepi.imputationserver.steps.vcf.BGzipLineScanner;
 import genepi.imputationserver.steps.vcf.BGzipLineWriter;
+import genepi.imputationserver.steps.vcf.ChunkPlan;
 import genepi.imputationserver.steps.vcf.FastVCFFileReader;
+import genepi.imputationserver.steps.vcf.IVcfFileReader;
 import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.steps.vcf.ParallelBGzipOutputStream;
+import genepi.imputationserver.steps.vcf.SampleCallCounter;
+import genepi.imputationserver.steps.vcf.TabixIndex;
+import genepi.imputationserver.steps.vcf.TabixIndexBuilder;
 import genepi.imputationserver.steps.vcf.VcfChunk;
 import genepi.imputationserver.steps.vcf.VcfFile;
+import genepi.imputationserver.steps.vcf.VcfFileProfile;
 import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.imputationserver.steps.vcf.VcfRegionWriter;
+import genepi.imputationserver.util.AlleleClassifier;
+import genepi.imputationserver.util.AlleleClassifier.Outcome;
 import genepi.imputationserver.util.GenomicTools;
 import genepi.io.FileUtil;
 import genepi.io.text.LineReader;
 import genepi.io.text.LineWriter;
-import htsjdk.variant.variantcontext.Genotype;
-import htsjdk.variant.variantcontext.VariantContext;
-import htsjdk.variant.variantcontext.VariantContextBuilder;
-import htsjdk.variant.variantcontext.writer.Options;
-import htsjdk.variant.variantcontext.writer.VariantContextWriter;
-import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
-import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder.OutputType;
-import htsjdk.variant.vcf.VCFCodec;
-import htsjdk.variant.vcf.VCFFileReader;
-import htsjdk.variant.vcf.VCFHeader;
-import htsjdk.variant.vcf.VCFHeaderVersion;
 
 public class StatisticsTask implements ITask {
 
@@ -58,7 +69,19 @@ public class StatisticsTask implements ITask {
 	private String legendFile;
 	private int refSamples;
 	private String build;
-	private HashSet<RangeEntry> ranges;
+	private RangeIndex ranges;
+	private ChunkPlanner chunkPlanner;
+	private QcLimits limits;
+	private int threads = 1;
+	private int fileThreads = 1;
+	private boolean sharedChunks = false;
+	private int compressionLevel = ParallelBGzipOutputStream.DEFAULT_LEVEL;
+
+	// shared region file of the chunks processed by this task
+	private VcfRegionWriter regionWriter;
+
+	// chunk boundaries of the current file
+	private ChunkPlan chunkPlan;
 
 	// overall stats
 	private int overallChunks;
@@ -84,6 +107,9 @@ public class StatisticsTask implements ITask {
 	private boolean chrXMissingRate = false;
 	private boolean chrXPloidyError = false;
 
+	// allele frequencies for the QC report
+	private QcReportData reportData = new QcReportData();
+
 	// chunk results
 	private int removedChunksSnps;
 	private int removedChunksOverlap;
@@ -100,9 +126,6 @@ public class StatisticsTask implements ITask {
 
 		qcObject.setMessage("");
 
-		// MAF file for QC report
-		LineWriter mafWriter = new LineWriter(mafFile);
-
 		// excluded chunks
 		String excludedChunkFile = FileUtil.path(statDir, "chunks-excluded.txt");
 		LineWriter excludedChunkWriter = new LineWriter(excludedChunkFile);
@@ -121,45 +144,58 @@ public class StatisticsTask implements ITask {
 		// chrX haploid samples
 		HashSet<String> hapSamples = new HashSet<String>();
 
-		int i = 0;
-		for (String vcfFilename : vcfFilenames) {
-
-			i++;
-			if (progressListener != null) {
-				progressListener.progress(getName() + " [" + i + "/" + vcfFilenames.length + "]\n\n" + "Analyze file "
-						+ FileUtil.getFilename(vcfFilename) + "...");
-			}
+		try {
 
-			VcfFile myvcfFile = VcfFileUtil.load(vcfFilename, chunkSize, true);
+			if (fileThreads > 1 && vcfFilenames.length > 1) {
 
-			String chromosome = myvcfFile.getChromosome();
+				processFiles(progressListener, excludedChunkWriter, typedOnlyWriter, chrXInfoWriter, hapSamples);
 
-			if (VcfFileUtil.isChrMT(chromosome)) {
-				myvcfFile.setPhased(true);
-			}
+			} else {
 
-			if (VcfFileUtil.isChrX(chromosome)) {
+				int i = 0;
+				for (String vcfFilename : vcfFilenames) {
 
-				// split to PAR1, PAR2 and nonPAR
-				List<String> splits = prepareChrX(myvcfFile.getVcfFilename(), myvcfFile.isPhased(), chrXInfoWriter,
-						hapSamples);
+					i++;
+					if (progressListener != null) {
+						progressListener.progress(getName() + " [" + i + "/" + vcfFilenames.length + "]\n\n"
+								+ "Analyze file " + FileUtil.getFilename(vcfFilename) + "...");
+					}
 
-				for (String split : splits) {
-					VcfFile _myvcfFile = VcfFileUtil.load(split, chunkSize, true);
+					VcfFile myvcfFile = loadInputFile(vcfFilename);
 
-					_myvcfFile.setChrX(true);
+					if (VcfFileUtil.isChrX(myvcfFile.getChromosome())) {
+						processChrX(myvcfFile, excludedSnpsWriter, excludedChunkWriter, typedOnlyWriter,
+								chrXInfoWriter, hapSamples);
+					} else {
+						// chr1-22
+						processFile(myvcfFile, excludedSnpsWriter, excludedChunkWriter, typedOnlyWriter);
+					}
 
-					// chrX
-					processFile(_myvcfFile, mafWriter, excludedSnpsWriter, excludedChunkWriter, typedOnlyWriter);
 				}
-			} else {
-				// chr1-22
-				processFile(myvcfFile, mafWriter, excludedSnpsWriter, excludedChunkWriter, typedOnlyWriter);
 
 			}
+
+		} catch (IOException e) {
+
+			excludedChunkWriter.close();
+			chrXInfoWriter.close();
+			typedOnlyWriter.close();
+
+			if (limits == null || !limits.isExceeded()) {
+				throw e;
+			}
+
+			// a hard limit was exceeded, the chunks written so far are useless
+			deleteChunks();
+
+			qcObject.setSuccess(false);
+			qcObject.setMessage(limits.getError());
+			return qcObject;
+
 		}
 
-		mafWriter.close();
+		// aggregated allele frequencies for the QC report
+		reportData.write(mafFile);
 
 		excludedChunkWriter.close();
 
@@ -185,15 +221,155 @@ public class StatisticsTask implements ITask {
 
 	}
 
-	public void processFile(VcfFile myvcfFile, LineWriter mafWriter, LineWriter excludedSnpsWriter,
-			LineWriter excludedChunkWriter, LineWriter typedOnlyWriter) throws IOException, InterruptedException {
+	private VcfFile loadInputFile(String vcfFilename) throws IOException {
 
-		Map<Integer, VcfChunk> chunks = new ConcurrentHashMap<Integer, VcfChunk>();
+		// use profile from input validation if available
+		VcfFile myvcfFile = VcfFileProfile.load(vcfFilename, chunkSize);
+		if (myvcfFile == null) {
+			myvcfFile = VcfFileUtil.load(vcfFilename, chunkSize, true);
+		}
 
-		String filename = myvcfFile.getVcfFilename();
+		if (VcfFileUtil.isChrMT(myvcfFile.getChromosome())) {
+			myvcfFile.setPhased(true);
+		}
 
-		FastVCFFileReader vcfReader = new FastVCFFileReader(filename);
-		List<String> header = vcfReader.getFileHeader();
+		return myvcfFile;
+
+	}
+
+	private void processChrX(VcfFile myvcfFile, LineWriter excludedSnpsWriter, LineWriter excludedChunkWriter,
+			LineWriter typedOnlyWriter, LineWriter chrXInfoWriter, HashSet<String> hapSamples) throws IOException, InterruptedException {
+
+		// split to PAR1, PAR2 and nonPAR
+		List<String> splits = prepareChrX(myvcfFile.getVcfFilename(), myvcfFile.isPhased(), chrXInfoWriter,
+				hapSamples);
+
+		if (limits != null) {
+			limits.checkChrX(chrXMissingRate, chrXPloidyError);
+		}
+
+		for (String split : splits) {
+			VcfFile _myvcfFile = VcfFileUtil.load(split, chunkSize, true);
+
+			_myvcfFile.setChrX(true);
+
+			// chrX
+			processFile(_myvcfFile, excludedSnpsWriter, excludedChunkWriter, typedOnlyWriter);
+		}
+
+	}
+
+	/**
+	 * Processes the input files on a pool of fileThreads threads. Every file
+	 * uses its own counters and output files, which are merged in input order
+	 * afterwards. chrX files share the haploid samples and the split files, so
+	 * they are processed one after another during the merge.
+	 */
+	private void processFiles(ITaskProgressListener progressListener, LineWriter excludedChunkWriter,
+			LineWriter typedOnlyWriter, LineWriter chrXInfoWriter, HashSet<String> hapSamples) throws IOException, InterruptedException {
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(fileThreads, vcfFilenames.length));
+
+		List<Future<InputFile>> results = new Vector<Future<InputFile>>();
+
+		for (int i = 0; i < vcfFilenames.length; i++) {
+			final int index = i;
+			results.add(executor.submit(new Callable<InputFile>() {
+				@Override
+				public InputFile call() throws Exception {
+					InputFile file = new InputFile(index);
+					try {
+						VcfFile myvcfFile = loadInputFile(vcfFilenames[index]);
+						if (VcfFileUtil.isChrX(myvcfFile.getChromosome())) {
+							file.chrX = myvcfFile;
+						} else {
+							file.task.processFile(myvcfFile, file.excludedSnpsWriter, file.excludedChunkWriter,
+									file.typedOnlyWriter);
+						}
+					} catch (Exception e) {
+						file.close();
+						file.delete();
+						throw e;
+					}
+					return file;
+				}
+			}));
+		}
+
+		// files before this index are merged and their output files deleted
+		int merged = 0;
+
+		try {
+
+			for (int i = 0; i < vcfFilenames.length; i++) {
+
+				if (progressListener != null) {
+					progressListener.progress(getName() + " [" + (i + 1) + "/" + vcfFilenames.length + "]\n\n"
+							+ "Analyze file " + FileUtil.getFilename(vcfFilenames[i]) + "...");
+				}
+
+				InputFile file = null;
+				try {
+					file = results.get(i).get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof InterruptedException) {
+						throw (InterruptedException) cause;
+					}
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					}
+					throw new IOException(cause);
+				}
+
+				try {
+					if (file.chrX != null) {
+						file.task.processChrX(file.chrX, file.excludedSnpsWriter, file.excludedChunkWriter,
+								file.typedOnlyWriter, file.chrXInfoWriter, hapSamples);
+					}
+				} finally {
+					file.close();
+				}
+
+				addCounts(file.task);
+				chrXMissingRate |= file.task.chrXMissingRate;
+				chrXPloidyError |= file.task.chrXPloidyError;
+
+				appendShardFile(file.prefix + "_excluded.txt", excludedSnpsWriter);
+				appendShardFile(file.prefix + "_chunks-excluded.txt", excludedChunkWriter);
+				appendShardFile(file.prefix + "_typed-only.txt", typedOnlyWriter);
+				appendShardFile(file.prefix + "_chrX-info.txt", chrXInfoWriter);
+
+				merged++;
+
+			}
+
+		} finally {
+			// running shards stop at their next record if a limit was exceeded
+			executor.shutdownNow();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+			// failed files delete their output files themselves
+			for (int i = merged; i < results.size(); i++) {
+				Future<InputFile> result = results.get(i);
+				if (result.isDone() && !result.isCancelled()) {
+					try {
+						InputFile file = result.get();
+						file.close();
+						file.delete();
+					} catch (ExecutionException | IOException e) {
+						// the file failed or the error of an earlier file is thrown
+					}
+				}
+			}
+		}
+
+	}
+
+	public void processFile(VcfFile myvcfFile, LineWriter excludedSnpsWriter, LineWriter excludedChunkWriter,
+			LineWriter typedOnlyWriter) throws IOException, InterruptedException {
+
+		String filename = myvcfFile.getVcfFilename();
 
 		String contig = myvcfFile.getChromosome();
 
@@ -207,78 +383,539 @@ public class StatisticsTask implements ITask {
 			}
 		}
 
+		// no range on this chromosome, nothing to read
+		if (ranges != null && !ranges.hasChromosome(myvcfFile.getRawChromosome())) {
+			return;
+		}
+
+		chunkPlan = new ChunkPlan(chunkSize);
+		if (chunkPlanner != null) {
+			chunkPlan = chunkPlanner.plan(myvcfFile.getDensity(), myvcfFile.getNoSamples());
+		}
+
 		String metafile = FileUtil.path(chunkFileDir, contig);
 		LineWriter metafileWriter = new LineWriter(metafile);
-		LegendFileReader legendReader = getReader(myvcfFile.getChromosome());
+		LineWriter chunkWriter = metafileWriter;
+
+		// the legend reader holds a reference to the legend cache until it is
+		// closed, also if the file fails
+		ILegendReader legendReader = null;
+
+		try {
+
+			legendReader = getReader(myvcfFile.getChromosome(), myvcfFile.getRawChromosome());
+
+			// an existing index can be stale or belong to another file, shards
+			// use an own index of the file
+			String indexFilename = FileUtil.path(chunksDir, "shard_" + contig + ".vcf.gz.tbi");
+
+			// chunks of a shared region file get their offsets after all parts
+			// are written
+			String regionFilename = FileUtil.path(chunksDir, "region_" + contig + ".vcf.gz");
+			String regionChunksFilename = FileUtil.path(chunksDir, "region_" + contig + "_chunks.txt");
+			List<VcfRegionWriter> regionParts = new Vector<VcfRegionWriter>();
+
+			if (sharedChunks) {
+				IVcfFileReader headerReader = VcfFileUtil.openReader(filename);
+				try {
+					VcfRegionWriter header = new VcfRegionWriter(regionFilename + ".header", chunkPlan, phasingWindow,
+							compressionLevel);
+					header.writeHeader(headerReader.getFileHeader());
+					header.close();
+					regionParts.add(header);
+				} finally {
+					headerReader.close();
+				}
+				chunkWriter = new LineWriter(regionChunksFilename);
+			}
 
-		int samples = myvcfFile.getNoSamples();
+			// with ranges, only the chunks overlapping a range are read
+			if ((threads > 1 || ranges != null) && !VcfFileUtil.isBcf(filename) && BGzipLineScanner.isBGzip(filename)) {
 
-		while (vcfReader.next()) {
-			MinimalVariantContext snp = vcfReader.getVariantContext();
-			int chunkNumber = snp.getStart() / chunkSize;
-			if (snp.getStart() % chunkSize == 0) {
-				chunkNumber = chunkNumber - 1;
-			}
+				try {
+					TabixIndexBuilder.index(filename, indexFilename, threads);
+					processShards(myvcfFile, contig, new TabixIndex(indexFilename), legendReader, excludedSnpsWriter,
+							excludedChunkWriter, typedOnlyWriter, chunkWriter, regionParts);
+				} finally {
+					FileUtil.deleteFile(indexFilename);
+				}
+
+			} else {
+
+				IVcfFileReader vcfReader = VcfFileUtil.openReader(filename);
+				try {
+					if (sharedChunks) {
+						regionWriter = new VcfRegionWriter(regionFilename + ".part", chunkPlan, phasingWindow,
+								compressionLevel);
+					}
+					processRegion(myvcfFile, contig, vcfReader, legendReader, Integer.MIN_VALUE, Integer.MAX_VALUE,
+							excludedSnpsWriter, excludedChunkWriter, typedOnlyWriter, chunkWriter);
+				} finally {
+					vcfReader.close();
+					if (regionWriter != null) {
+						regionWriter.close();
+						regionParts.add(regionWriter);
+						regionWriter = null;
+					}
+				}
 
-			// init current chunk only once
-			if (chunks.get(chunkNumber) == null) {
-				int chunkStart = chunkNumber * chunkSize + 1;
-				int chunkEnd = chunkStart + chunkSize - 1;
-				VcfChunk chunk = initChunk(contig, chunkStart, chunkEnd, myvcfFile.isPhased(), snp.getNSamples(),
-						header);
-				chunks.put(chunkNumber, chunk);
 			}
 
-			int nextChunkNumber = chunkNumber + 1;
-			int nextChunkStart = nextChunkNumber * chunkSize + 1;
-			int extendedStart = nextChunkStart - phasingWindow;
-
-			// is in the extended start of the next chunk?
-			if (extendedStart >= 1 && snp.getStart() >= extendedStart) {
-				if (chunks.get(nextChunkNumber) == null) {
-					int nextChunkEnd = nextChunkStart + chunkSize - 1;
-					VcfChunk nextChunk = initChunk(contig, nextChunkStart, nextChunkEnd, myvcfFile.isPhased(),
-							snp.getNSamples(), vcfReader.getFileHeader());
-					chunks.put(nextChunkNumber, nextChunk);
+			if (sharedChunks) {
+
+				LineWriter regionChunksWriter = chunkWriter;
+				chunkWriter = metafileWriter;
+				regionChunksWriter.close();
+
+				List<VcfChunk> chunks = new Vector<VcfChunk>();
+				LineReader reader = new LineReader(regionChunksFilename);
+				while (reader.next()) {
+					chunks.add(new VcfChunk(reader.get()));
 				}
+				reader.close();
+				FileUtil.deleteFile(regionChunksFilename);
+
+				VcfRegionWriter.merge(regionFilename, regionParts, chunks);
+
+				for (VcfChunk chunk : chunks) {
+					metafileWriter.write(chunk.serialize());
+				}
+
+			}
+
+		} finally {
+
+			if (legendReader != null) {
+				legendReader.close();
 			}
 
-			// load reference snp
-			LegendEntry refSnp = legendReader.findByPosition(snp.getStart());
+			if (chunkWriter != metafileWriter) {
+				chunkWriter.close();
+			}
+
+			metafileWriter.close();
+
+		}
+
+		if (!metafileWriter.hasData()) {
+			FileUtil.deleteFile(metafile);
+		}
+
+	}
+
+	/**
+	 * Processes all chunks between firstChunk and lastChunk. Records of other
+	 * chunks are only used to fill the phasing window of these chunks.
+	 */
+	private void processRegion(VcfFile myvcfFile, String contig, IVcfFileReader vcfReader,
+			ILegendReader legendReader, int firstChunk, int lastChunk, LineWriter excludedSnpsWriter,
+			LineWriter excludedChunkWriter, LineWriter typedOnlyWriter, LineWriter metafileWriter) throws IOException, InterruptedException {
+
+		Map<Integer, VcfChunk> chunks = new ConcurrentHashMap<Integer, VcfChunk>();
+
+		List<String> header = vcfReader.getFileHeader();
+
+		int firstPosition = Integer.MIN_VALUE;
+		if (firstChunk != Integer.MIN_VALUE) {
+			firstPosition = chunkPlan.getStart(firstChunk) - phasingWindow;
+		}
+
+		int lastPosition = Integer.MAX_VALUE;
+		if (lastChunk != Integer.MAX_VALUE) {
+			lastPosition = chunkPlan.getEnd(lastChunk) + phasingWindow;
+		}
+
+		int samples = myvcfFile.getNoSamples();
+
+		// open chunk writers are closed if the region fails
+		boolean completed = false;
+		try {
+
+			while (vcfReader.next()) {
+				MinimalVariantContext snp = vcfReader.getVariantContext();
+
+				// stop as soon as any shard exceeded a hard limit
+				if (limits != null) {
+					limits.check();
+				}
+
+				if (snp.getStart() < firstPosition) {
+					continue;
+				}
+
+				// skip records outside of the panel ranges before the legend lookup
+				if (ranges != null && !ranges.contains(snp.getContig(), snp.getStart())) {
+					if (snp.getStart() > lastPosition) {
+						break;
+					}
+					continue;
+				}
+
+				int chunkNumber = chunkPlan.getChunk(snp.getStart());
+
+				// init current chunk only once
+				if (chunkPlan.contains(chunkNumber) && chunkNumber >= firstChunk && chunkNumber <= lastChunk
+						&& chunks.get(chunkNumber) == null) {
+					int chunkStart = chunkPlan.getStart(chunkNumber);
+					int chunkEnd = chunkPlan.getEnd(chunkNumber);
+					VcfChunk chunk = initChunk(contig, chunkStart, chunkEnd, myvcfFile.isPhased(), snp.getNSamples(),
+							header);
+					chunks.put(chunkNumber, chunk);
+				}
+
+				// is in the extended start of the next chunks? Planned chunks can
+				// be shorter than the phasing window.
+				for (int nextChunkNumber = chunkNumber + 1; chunkPlan.contains(nextChunkNumber); nextChunkNumber++) {
+					int nextChunkStart = chunkPlan.getStart(nextChunkNumber);
+					int extendedStart = nextChunkStart - phasingWindow;
+					if (extendedStart < 1 || snp.getStart() < extendedStart) {
+						break;
+					}
+					if (nextChunkNumber >= firstChunk && nextChunkNumber <= lastChunk
+							&& chunks.get(nextChunkNumber) == null) {
+						int nextChunkEnd = chunkPlan.getEnd(nextChunkNumber);
+						VcfChunk nextChunk = initChunk(contig, nextChunkStart, nextChunkEnd, myvcfFile.isPhased(),
+								snp.getNSamples(), vcfReader.getFileHeader());
+						chunks.put(nextChunkNumber, nextChunk);
+					}
+				}
 
-			for (VcfChunk openChunk : chunks.values()) {
-				if (snp.getStart() <= openChunk.getEnd() + phasingWindow) {
-					processLine(snp, refSnp, samples, openChunk.vcfChunkWriter, openChunk, mafWriter,
-							excludedSnpsWriter, typedOnlyWriter);
+				// load reference snp. Records with empty alleles are excluded as
+				// invalid alleles by processLine.
+				String ref = snp.getReferenceAllele();
+				String alt = snp.getAlternateAllele();
+				LegendEntry refSnp;
+				if (ref.isEmpty() || alt.isEmpty()) {
+					refSnp = legendReader.findByPosition(snp.getStart());
 				} else {
-					// close open chunks
-					openChunk.vcfChunkWriter.close();
-					chunkSummary(openChunk, metafileWriter, excludedChunkWriter);
-					chunks.values().remove(openChunk);
+					refSnp = legendReader.findByPosition(snp.getStart(), ref.charAt(0), alt.charAt(0));
+				}
+
+				for (VcfChunk openChunk : chunks.values()) {
+					if (snp.getStart() <= openChunk.getEnd() + phasingWindow) {
+						processLine(snp, refSnp, samples, openChunk.vcfChunkWriter, openChunk, excludedSnpsWriter,
+								typedOnlyWriter);
+					} else {
+						// close open chunks
+						chunks.values().remove(openChunk);
+						if (openChunk.vcfChunkWriter != null) {
+							openChunk.vcfChunkWriter.close();
+						}
+						chunkSummary(openChunk, metafileWriter, excludedChunkWriter);
+					}
 				}
+
+				// all chunks of this region are closed
+				if (snp.getStart() > lastPosition) {
+					break;
+				}
+
 			}
 
+			completed = true;
+
+		} finally {
+			if (!completed) {
+				for (VcfChunk openChunk : chunks.values()) {
+					if (openChunk.vcfChunkWriter != null) {
+						openChunk.vcfChunkWriter.close();
+					}
+				}
+			}
 		}
-		legendReader.close();
-		vcfReader.close();
 
 		// close all open chunks
 		for (VcfChunk openChunk : chunks.values()) {
-			openChunk.vcfChunkWriter.close();
+			if (openChunk.vcfChunkWriter != null) {
+				openChunk.vcfChunkWriter.close();
+			}
 			if (openChunk.lastPos >= openChunk.getStart()) {
 				// System.out.println("Chunks " + open);
 				chunkSummary(openChunk, metafileWriter, excludedChunkWriter);
 			} else {
-				new File(openChunk.getVcfFilename()).delete();
+				if (openChunk.vcfChunkWriter != null) {
+					new File(openChunk.getVcfFilename()).delete();
+					new File(TabixIndex.getFilename(openChunk.getVcfFilename())).delete();
+				}
 				overallChunks--;
 			}
 		}
 
-		if (!metafileWriter.hasData()) {
-			FileUtil.deleteFile(metafile);
+	}
+
+	/**
+	 * Processes each chunk (and the chunk following it, which can be created
+	 * by the phasing window) as an own shard. Shards start at the tabix offset
+	 * of their extended start and use their own counters and output files,
+	 * which are merged in chunk order afterwards.
+	 */
+	private void processShards(final VcfFile myvcfFile, final String contig, final TabixIndex index,
+			final ILegendReader legendReader, LineWriter excludedSnpsWriter, LineWriter excludedChunkWriter,
+			LineWriter typedOnlyWriter, LineWriter metafileWriter, List<VcfRegionWriter> regionParts) throws IOException, InterruptedException {
+
+		TreeSet<Integer> shards = new TreeSet<Integer>();
+		if (chunkPlan.isFixed()) {
+			for (int chunk : myvcfFile.getChunks()) {
+				shards.add(chunk);
+				shards.add(chunk + 1);
+			}
+		} else {
+			for (int chunk = 0; chunk < chunkPlan.size(); chunk++) {
+				shards.add(chunk);
+			}
 		}
+		if (ranges != null) {
+			shards.removeIf((chunk) -> !ranges.overlaps(myvcfFile.getRawChromosome(), chunkPlan.getStart(chunk),
+					chunkPlan.getEnd(chunk)));
+		}
+		List<Integer> shardChunks = new Vector<Integer>(shards);
+
+		if (shardChunks.isEmpty()) {
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, shardChunks.size()));
+
+		List<Future<StatisticsTask>> results = new Vector<Future<StatisticsTask>>();
+
+		for (final int chunk : shardChunks) {
+			results.add(executor.submit(new Callable<StatisticsTask>() {
+				@Override
+				public StatisticsTask call() throws Exception {
+					return processShard(myvcfFile, contig, index, legendReader, chunk);
+				}
+			}));
+		}
+
+		boolean completed = false;
 
-		metafileWriter.close();
+		try {
+
+			for (int i = 0; i < shardChunks.size(); i++) {
+
+				StatisticsTask shard = null;
+				try {
+					shard = results.get(i).get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof InterruptedException) {
+						throw (InterruptedException) cause;
+					}
+					if (cause instanceof IOException) {
+						throw (IOException) cause;
+					}
+					throw new IOException(cause);
+				}
+
+				addCounts(shard);
+
+				String prefix = getShardPrefix(contig, shardChunks.get(i));
+				appendShardFile(prefix + "_excluded.txt", excludedSnpsWriter);
+				appendShardFile(prefix + "_chunks-excluded.txt", excludedChunkWriter);
+				appendShardFile(prefix + "_typed-only.txt", typedOnlyWriter);
+				appendShardFile(prefix + "_chunks.txt", metafileWriter);
+				if (shard.regionWriter != null) {
+					regionParts.add(shard.regionWriter);
+				}
+
+			}
+
+			completed = true;
+
+		} finally {
+			// running shards stop at their next record if a limit was exceeded
+			executor.shutdownNow();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+			// the region files of merged shards are useless as well
+			if (!completed) {
+				for (int chunk : shardChunks) {
+					String prefix = getShardPrefix(contig, chunk);
+					for (String name : new String[] { "_excluded.txt", "_chunks-excluded.txt", "_typed-only.txt",
+							"_chunks.txt", "_region.vcf.gz" }) {
+						FileUtil.deleteFile(prefix + name);
+					}
+				}
+			}
+		}
+
+	}
+
+	private StatisticsTask processShard(VcfFile myvcfFile, String contig, TabixIndex index,
+			ILegendReader legendReader, int chunk) throws IOException, InterruptedException {
+
+		StatisticsTask shard = createShardTask();
+
+		String prefix = getShardPrefix(contig, chunk);
+		LineWriter excludedSnpsWriter = new LineWriter(prefix + "_excluded.txt");
+		LineWriter excludedChunkWriter = new LineWriter(prefix + "_chunks-excluded.txt");
+		LineWriter typedOnlyWriter = new LineWriter(prefix + "_typed-only.txt");
+		LineWriter metafileWriter = new LineWriter(prefix + "_chunks.txt");
+
+		IVcfFileReader vcfReader = null;
+		ILegendReader shardLegendReader = null;
+
+		try {
+
+			if (sharedChunks) {
+				shard.regionWriter = new VcfRegionWriter(prefix + "_region.vcf.gz", chunkPlan, phasingWindow,
+						compressionLevel);
+			}
+
+			int start = chunkPlan.getStart(chunk) - phasingWindow;
+			long offset = index.getOffset(myvcfFile.getRawChromosome(), start);
+
+			vcfReader = new FastVCFFileReader(myvcfFile.getVcfFilename(), offset);
+			shardLegendReader = legendReader.createSearchReader();
+
+			shard.processRegion(myvcfFile, contig, vcfReader, shardLegendReader, chunk, chunk, excludedSnpsWriter,
+					excludedChunkWriter, typedOnlyWriter, metafileWriter);
+
+		} finally {
+			if (shardLegendReader != null) {
+				shardLegendReader.close();
+			}
+			if (vcfReader != null) {
+				vcfReader.close();
+			}
+			excludedSnpsWriter.close();
+			excludedChunkWriter.close();
+			typedOnlyWriter.close();
+			metafileWriter.close();
+			if (shard.regionWriter != null) {
+				shard.regionWriter.close();
+			}
+		}
+
+		return shard;
+
+	}
+
+	private String getShardPrefix(String contig, int chunk) {
+		return FileUtil.path(chunksDir, "shard_" + contig + "_" + chunk);
+	}
+
+	private void appendShardFile(String filename, LineWriter writer) throws IOException {
+		LineReader reader = new LineReader(filename);
+		while (reader.next()) {
+			writer.write(reader.get());
+		}
+		reader.close();
+		FileUtil.deleteFile(filename);
+	}
+
+	private StatisticsTask createShardTask() {
+		StatisticsTask shard = new StatisticsTask();
+		shard.sampleCallrate = sampleCallrate;
+		shard.minSnps = minSnps;
+		shard.referenceOverlap = referenceOverlap;
+		shard.mixedGenotypeschrX = mixedGenotypeschrX;
+		shard.chunkFileDir = chunkFileDir;
+		shard.chunksDir = chunksDir;
+		shard.statDir = statDir;
+		shard.population = population;
+		shard.alleleFrequencyCheck = alleleFrequencyCheck;
+		shard.chunkSize = chunkSize;
+		shard.phasingWindow = phasingWindow;
+		shard.sharedChunks = sharedChunks;
+		shard.compressionLevel = compressionLevel;
+		shard.legendFile = legendFile;
+		shard.refSamples = refSamples;
+		shard.build = build;
+		shard.ranges = ranges;
+		shard.chunkPlanner = chunkPlanner;
+		shard.chunkPlan = chunkPlan;
+		shard.limits = limits;
+		return shard;
+	}
+
+	// deletes the chunks, chunk files and temporary files written so far.
+	// Lifted input files in chunksDir are kept.
+	private void deleteChunks() {
+		for (String dir : new String[] { chunkFileDir, chunksDir }) {
+			File[] files = new File(dir).listFiles();
+			if (files == null) {
+				continue;
+			}
+			for (File file : files) {
+				String name = file.getName();
+				if (dir.equals(chunkFileDir) || name.startsWith("chunk_") || name.startsWith("region_")
+						|| name.startsWith("shard_") || name.startsWith("file_") || name.startsWith(X_PAR1)
+						|| name.startsWith(X_PAR2) || name.startsWith(X_NON_PAR)) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	private void addCounts(StatisticsTask shard) {
+		overallChunks += shard.overallChunks;
+		notFoundInLegend += shard.notFoundInLegend;
+		foundInLegend += shard.foundInLegend;
+		alleleMismatch += shard.alleleMismatch;
+		alleleSwitch += shard.alleleSwitch;
+		strandFlipSimple += shard.strandFlipSimple;
+		complicatedGenotypes += shard.complicatedGenotypes;
+		strandFlipAndAlleleSwitch += shard.strandFlipAndAlleleSwitch;
+		match += shard.match;
+		lowCallRate += shard.lowCallRate;
+		filtered += shard.filtered;
+		overallSnps += shard.overallSnps;
+		monomorphic += shard.monomorphic;
+		alternativeAlleles += shard.alternativeAlleles;
+		noSnps += shard.noSnps;
+		duplicates += shard.duplicates;
+		filterFlag += shard.filterFlag;
+		invalidAlleles += shard.invalidAlleles;
+		multiallelicSites += shard.multiallelicSites;
+		removedChunksSnps += shard.removedChunksSnps;
+		removedChunksOverlap += shard.removedChunksOverlap;
+		removedChunksCallRate += shard.removedChunksCallRate;
+		reportData.add(shard.reportData);
+	}
+
+	// counters and output files of one input file
+	private class InputFile {
+
+		private String prefix;
+
+		private StatisticsTask task;
+
+		private LineWriter excludedSnpsWriter;
+
+		private LineWriter excludedChunkWriter;
+
+		private LineWriter typedOnlyWriter;
+
+		private LineWriter chrXInfoWriter;
+
+		// chrX files are processed during the merge
+		private VcfFile chrX;
+
+		public InputFile(int index) throws IOException {
+			prefix = FileUtil.path(chunksDir, "file_" + index);
+			excludedSnpsWriter = new LineWriter(prefix + "_excluded.txt");
+			excludedChunkWriter = new LineWriter(prefix + "_chunks-excluded.txt");
+			typedOnlyWriter = new LineWriter(prefix + "_typed-only.txt");
+			chrXInfoWriter = new LineWriter(prefix + "_chrX-info.txt");
+			task = createShardTask();
+			task.threads = threads;
+			task.excludedSnpsWriter = excludedSnpsWriter;
+		}
+
+		public void close() throws IOException {
+			excludedSnpsWriter.close();
+			excludedChunkWriter.close();
+			typedOnlyWriter.close();
+			chrXInfoWriter.close();
+		}
+
+		public void delete() {
+			for (String name : new String[] { "_excluded.txt", "_chunks-excluded.txt", "_typed-only.txt",
+					"_chrX-info.txt" }) {
+				FileUtil.deleteFile(prefix + name);
+			}
+		}
 
 	}
 
@@ -298,12 +935,15 @@ public class StatisticsTask implements ITask {
 		chunk.setVcfFilename(chunkName);
 		chunk.setPhased(phased);
 
-		chunk.snpsPerSampleCount = new int[samples];
-		for (int i = 0; i < samples; i++) {
-			chunk.snpsPerSampleCount[i] = 0;
+		chunk.snpsPerSampleCount = new SampleCallCounter(samples);
+
+		// records of shared chunks are written to the region file
+		if (regionWriter != null) {
+			return chunk;
 		}
 
-		BGzipLineWriter writer = new BGzipLineWriter(chunk.getVcfFilename());
+		// chunks leave quality control already indexed
+		BGzipLineWriter writer = new BGzipLineWriter(chunk.getVcfFilename(), true, compressionLevel);
 		for (String headerLine : header) {
 			writer.write(headerLine);
 		}
@@ -315,26 +955,9 @@ public class StatisticsTask implements ITask {
 	}
 
 	private void processLine(MinimalVariantContext snp, LegendEntry refSnp, int samples, BGzipLineWriter vcfWriter,
-			VcfChunk chunk, LineWriter mafWriter, LineWriter excludedSnpsWriter, LineWriter typedOnlyWriter)
+			VcfChunk chunk, LineWriter excludedSnpsWriter, LineWriter typedOnlyWriter)
 			throws IOException, InterruptedException {
 
-		if (ranges != null) {
-			
-			boolean inRange = false;
-			
-			for (RangeEntry range : ranges) {
-
-				if (snp.getContig().equals(range.getChromosome()) && snp.getStart() >= range.getStart()
-						&& snp.getStart() <= range.getEnd()) {
-					inRange = true;
-				}
-			}
-
-			if (!inRange) {
-				return;
-			}
-		}
-
 		int extendedStart = Math.max(chunk.getStart() - phasingWindow, 1);
 		int extendedEnd = chunk.getEnd() + phasingWindow;
 
@@ -439,7 +1062,7 @@ public class StatisticsTask implements ITask {
 
 				notFoundInLegend++;
 				chunk.notFoundInLegendChunk++;
-				vcfWriter.write(snp.getRawLine());
+				writeRecord(snp, vcfWriter, insideChunk);
 				typedOnlyWriter.write(snp.toString());
 			}
 
@@ -453,8 +1076,10 @@ public class StatisticsTask implements ITask {
 			char legendRef = refSnp.getAlleleA();
 			char legendAlt = refSnp.getAlleleB();
 
+			Outcome outcome = AlleleClassifier.classify(snp, refSnp);
+
 			/** simple match of ref/alt in study and legend file **/
-			if (GenomicTools.match(snp, refSnp)) {
+			if (outcome == Outcome.MATCH) {
 
 				if (insideChunk) {
 					match++;
@@ -463,7 +1088,7 @@ public class StatisticsTask implements ITask {
 			}
 
 			/** count A/T C/G genotypes **/
-			else if (GenomicTools.complicatedGenotypes(snp, refSnp)) {
+			else if (outcome == Outcome.COMPLICATED_GENOTYPES) {
 
 				if (insideChunk) {
 
@@ -476,11 +1101,14 @@ public class StatisticsTask implements ITask {
 			/**
 			 * simple allele switch check; ignore A/T C/G from above
 			 **/
-			else if (GenomicTools.alleleSwitch(snp, refSnp)) {
+			else if (outcome == Outcome.ALLELE_SWITCH) {
 
 				if (insideChunk) {
 
 					alleleSwitch++;
+					if (limits != null) {
+						limits.addAlleleSwitch();
+					}
 					/*
 					 * logWriter.write("Allele switch" + snp.getID() + "\t" + chr + ":"+
 					 * snp.getStart() + "\t" + "ref: " + legendRef + "/" + legendAlt + "; data: " +
@@ -491,12 +1119,15 @@ public class StatisticsTask implements ITask {
 			}
 
 			/** simple strand swaps **/
-			else if (GenomicTools.strandFlip(snp, refSnp)) {
+			else if (outcome == Outcome.STRAND_FLIP) {
 
 				if (insideChunk) {
 
 					strandFlipSimple++;
 					filtered++;
+					if (limits != null) {
+						limits.addStrandFlip();
+					}
 					excludedSnpsWriter.write(snp + "\t" + "Strand flip" + "\t" + "Ref:" + legendRef + "/" + legendAlt);
 
 				}
@@ -504,12 +1135,15 @@ public class StatisticsTask implements ITask {
 
 			}
 
-			else if (GenomicTools.strandFlipAndAlleleSwitch(snp, refSnp)) {
+			else if (outcome == Outcome.STRAND_FLIP_AND_ALLELE_SWITCH) {
 
 				if (insideChunk) {
 
 					filtered++;
 					strandFlipAndAlleleSwitch++;
+					if (limits != null) {
+						limits.addStrandFlip();
+					}
 					excludedSnpsWriter.write(
 							snp + "\t" + "Strand flip and Allele switch" + "\t" + "Ref:" + legendRef + "/" + legendAlt);
 
@@ -520,7 +1154,7 @@ public class StatisticsTask implements ITask {
 			}
 
 			// filter allele mismatches
-			else if (GenomicTools.alleleMismatch(snp, refSnp)) {
+			else if (outcome == Outcome.ALLELE_MISMATCH) {
 
 				if (insideChunk) {
 					alleleMismatch++;
@@ -547,7 +1181,7 @@ public class StatisticsTask implements ITask {
 				// allele-frequency check
 				if (alleleFrequencyCheck && refSnp.hasFrequencies()) {
 					SnpStats statistics = GenomicTools.calculateAlleleFreq(snp, refSnp, refSamples);
-					mafWriter.write(snp + "\t" + statistics.toString());
+					reportData.add(snp.toString(), statistics);
 				}
 				overallSnps++;
 				chunk.overallSnpsChunk++;
@@ -556,32 +1190,40 @@ public class StatisticsTask implements ITask {
 			// write SNPs
 			if (position >= extendedStart && position <= extendedEnd) {
 
-				vcfWriter.write(snp.getRawLine());
+				writeRecord(snp, vcfWriter, insideChunk);
 				chunk.validSnpsChunk++;
 
 				// check if all samples have
 				// enough SNPs
 				if (insideChunk) {
 
-					for (int i = 0; i < snp.getNSamples(); i++) {
-						if (snp.isCalled(i)) {
-							chunk.snpsPerSampleCount[i] += 1;
-						}
-					}
+					chunk.snpsPerSampleCount.add(snp);
 				}
 			}
 
 		}
 	}
 
+	// a shared region file contains each record once, written by its own
+	// chunk. neighbouring chunks read their phasing window from it.
+	private void writeRecord(MinimalVariantContext snp, BGzipLineWriter vcfWriter, boolean insideChunk)
+			throws IOException {
+		if (regionWriter == null) {
+			vcfWriter.write(snp);
+		} else if (insideChunk) {
+			regionWriter.write(snp);
+		}
+	}
+
 	private void chunkSummary(VcfChunk chunk, LineWriter metafileWriter, LineWriter excludedChunkWriter)
 			throws IOException {
 
 		// this checks if enough SNPs are included in each sample
 		boolean lowSampleCallRate = false;
 		int countLowSamples = 0;
-		for (int i = 0; i < chunk.snpsPerSampleCount.length; i++) {
-			int snps = chunk.snpsPerSampleCount[i];
+		int[] snpsPerSample = chunk.snpsPerSampleCount.getCounts();
+		for (int i = 0; i < snpsPerSample.length; i++) {
+			int snps = snpsPerSample[i];
 			double sampleCallRate = snps / (double) chunk.overallSnpsChunk;
 
 			if (sampleCallRate < sampleCallrate) {
@@ -628,116 +1270,25 @@ public class StatisticsTask implements ITask {
 	public List<String> prepareChrX(String filename, boolean phased, LineWriter chrXInfoWriter,
 			HashSet<String> hapSamples) throws IOException {
 
-		List<String> paths = new Vector<String>();
 		String nonPar = FileUtil.path(chunksDir, X_NON_PAR + ".vcf.gz");
-		VariantContextWriter vcfChunkWriterNonPar = new VariantContextWriterBuilder().setOutputFile(nonPar)
-				.setOption(Options.INDEX_ON_THE_FLY).setOption(Options.ALLOW_MISSING_FIELDS_IN_HEADER)
-				.setOutputFileType(OutputType.BLOCK_COMPRESSED_VCF).build();
-
 		String par1 = FileUtil.path(chunksDir, X_PAR1 + ".vcf.gz");
-		VariantContextWriter vcfChunkWriterPar1 = new VariantContextWriterBuilder().setOutputFile(par1)
-				.setOption(Options.INDEX_ON_THE_FLY).setOption(Options.ALLOW_MISSING_FIELDS_IN_HEADER)
-				.setOutputFileType(OutputType.BLOCK_COMPRESSED_VCF).build();
-
 		String par2 = FileUtil.path(chunksDir, X_PAR2 + ".vcf.gz");
-		VariantContextWriter vcfChunkWriterPar2 = new VariantContextWriterBuilder().setOutputFile(par2)
-				.setOption(Options.INDEX_ON_THE_FLY).setOption(Options.ALLOW_MISSING_FIELDS_IN_HEADER)
-				.setOutputFileType(OutputType.BLOCK_COMPRESSED_VCF).build();
-
-		VCFFileReader vcfReader = new VCFFileReader(new File(filename), true);
-
-		VCFHeader header = vcfReader.getFileHeader();
-		vcfChunkWriterNonPar.writeHeader(header);
-		vcfChunkWriterPar1.writeHeader(header);
-		vcfChunkWriterPar2.writeHeader(header);
-
-		int mixedGenotypes[] = null;
-		int count = 0;
-
-		int nonParStart = 2699520;
-		int nonParEnd = 154931044;
-
-		if (build.equals("hg38")) {
-			nonParStart = 2781479;
-			nonParEnd = 155701383;
-		}
-
-		VCFCodec codec = new VCFCodec();
-		codec.setVCFHeader(vcfReader.getFileHeader(), VCFHeaderVersion.VCF4_1);
-		LineReader reader = new LineReader(filename);
-
-		while (reader.next()) {
-
-			String lineString = reader.get();
-
-			if (!lineString.startsWith("#")) {
-
-				String tiles[] = lineString.split("\t", 6);
-				String ref = tiles[3];
-				String alt = tiles[4];
-
-				// filter invalid alleles
-				if (!GenomicTools.isValid(ref) || !GenomicTools.isValid(alt)) {
-					excludedSnpsWriter.write(tiles[0] + ":" + tiles[1] + ":" + ref + ":" + alt);
-					invalidAlleles++;
-					filtered++;
-					continue;
-				}
-
-				// now decode, since it's a valid VCF
-				VariantContext line = codec.decode(lineString);
-
-				if (line.getContig().equals("23")) {
-					line = new VariantContextBuilder(line).chr("X").make();
-				}
-
-				else if (line.getContig().equals("chr23")) {
-					line = new VariantContextBuilder(line).chr("chrX").make();
-				}
 
-				if (line.getStart() < nonParStart) {
-
-					vcfChunkWriterPar1.add(line);
-
-					if (!paths.contains(par1)) {
-						paths.add(par1);
-					}
-
-				}
+		ChrXSplitter splitter = new ChrXSplitter(build);
+		List<String> paths = splitter.split(filename, par1, nonPar, par2, excludedSnpsWriter, chrXInfoWriter,
+				hapSamples);
 
-				else if (line.getStart() >= nonParStart && line.getStart() <= nonParEnd) {
-
-					count++;
-
-					checkPloidy(header.getGenotypeSamples(), line, phased, chrXInfoWriter, hapSamples);
-
-					mixedGenotypes = checkMixedGenotypes(mixedGenotypes, line);
-
-					vcfChunkWriterNonPar.add(line);
-
-					if (!paths.contains(nonPar)) {
-						paths.add(nonPar);
-					}
-
-				}
-
-				else {
-
-					vcfChunkWriterPar2.add(line);
-
-					if (!paths.contains(par2)) {
-						paths.add(par2);
-					}
-
-				}
-
-			}
+		invalidAlleles += splitter.getInvalidAlleles();
+		filtered += splitter.getInvalidAlleles();
 
+		if (splitter.isPloidyError()) {
+			this.chrXPloidyError = true;
 		}
 
+		int[] mixedGenotypes = splitter.getMixedGenotypes();
 		if (mixedGenotypes != null) {
 			for (int i = 0; i < mixedGenotypes.length; i++) {
-				double missingRate = mixedGenotypes[i] / (double) count;
+				double missingRate = mixedGenotypes[i] / (double) splitter.getNonParRecords();
 				if (missingRate > mixedGenotypeschrX) {
 					this.chrXMissingRate = true;
 					break;
@@ -746,59 +1297,11 @@ public class StatisticsTask implements ITask {
 			}
 		}
 
-		vcfReader.close();
-		reader.close();
-
-		vcfChunkWriterPar1.close();
-		vcfChunkWriterPar2.close();
-		vcfChunkWriterNonPar.close();
-
 		return paths;
 	}
 
-	// mixed genotype: ./1; 1/.;
-	private int[] checkMixedGenotypes(int[] mixedGenotypes, VariantContext line) {
-
-		if (mixedGenotypes == null) {
-
-			mixedGenotypes = new int[line.getNSamples()];
-			for (int i = 0; i < line.getNSamples(); i++) {
-				mixedGenotypes[i] = 0;
-			}
-		}
-
-		for (int i = 0; i < line.getNSamples(); i++) {
-			Genotype genotype = line.getGenotype(i);
-
-			if (genotype.isMixed()) {
-				mixedGenotypes[i] += 1;
-			}
-
-		}
-		return mixedGenotypes;
-	}
-
-	public void checkPloidy(List<String> samples, VariantContext snp, boolean isPhased, LineWriter chrXInfoWriter,
-			HashSet<String> hapSamples) throws IOException {
-
-		for (final String name : samples) {
-
-			Genotype genotype = snp.getGenotype(name);
-
-			if (hapSamples.contains(name) && genotype.getPloidy() != 1) {
-				chrXInfoWriter.write(name + "\t" + snp.getContig() + ":" + snp.getStart());
-				this.chrXPloidyError = true;
-
-			}
-
-			if (genotype.getPloidy() == 1) {
-				hapSamples.add(name);
-			}
-
-		}
-	}
-
-	private LegendFileReader getReader(String _chromosome) throws IOException, InterruptedException {
+	private ILegendReader getReader(String _chromosome, String rawChromosome)
+			throws IOException, InterruptedException {
 
 		// one file for all chrX legends
 		if (VcfFileUtil.isChrX(_chromosome)) {
@@ -814,11 +1317,20 @@ public class StatisticsTask implements ITask {
 
 		}
 
-		LegendFileReader legendReader = new LegendFileReader(myLegendFile, population);
-		legendReader.createIndex();
-		legendReader.initSearch();
+		// precomputed sidecar, see LegendIndexTool
+		if (BinaryLegendFile.isUpToDate(myLegendFile)) {
+			return new BinaryLegendFileReader(BinaryLegendFile.getFilename(myLegendFile), population);
+		}
+
+		// shared with other jobs
+		if (LegendCache.getInstance().isEnabled()) {
+			// only positions inside the ranges are loaded
+			RangeIndex.Intervals intervals = ranges != null ? ranges.getIntervals(rawChromosome) : null;
+			return LegendCache.getInstance().open(myLegendFile, population, intervals);
+		}
 
-		return legendReader;
+		// vcf and legend file are sorted, no index needed
+		return new LegendFileCursor(myLegendFile, population);
 
 	}
 
@@ -850,6 +1362,44 @@ public class StatisticsTask implements ITask {
 		this.phasingWindow = phasingWindow;
 	}
 
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Number of input files processed at the same time.
+	 */
+	public void setFileThreads(int fileThreads) {
+		this.fileThreads = fileThreads;
+	}
+
+	public int getFileThreads() {
+		return fileThreads;
+	}
+
+	/**
+	 * Writes all chunks of a chromosome into one region file instead of one
+	 * file per chunk.
+	 */
+	public void setSharedChunks(boolean sharedChunks) {
+		this.sharedChunks = sharedChunks;
+	}
+
+	/**
+	 * Compression level of the chunks (0-9, -1 for the deflater default).
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
+	}
+
+	public boolean isSharedChunks() {
+		return sharedChunks;
+	}
+
 	public void setLegendFile(String legendFile) {
 		this.legendFile = legendFile;
 	}
@@ -1026,11 +1576,19 @@ public class StatisticsTask implements ITask {
 		return refSamples;
 	}
 
-	public HashSet<RangeEntry> getRanges() {
+	public RangeIndex getRanges() {
 		return ranges;
 	}
 
-	public void setRanges(HashSet<RangeEntry> ranges) {
+	public void setLimits(QcLimits limits) {
+		this.limits = limits;
+	}
+
+	public void setChunkPlanner(ChunkPlanner chunkPlanner) {
+		this.chunkPlanner = chunkPlanner;
+	}
+
+	public void setRanges(RangeIndex ranges) {
 		this.ranges = ranges;
 	}
 
@@ -0,0 +1,223 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Vector;
+
+import genepi.imputationserver.steps.vcf.VcfFileProfile;
+import genepi.io.text.LineReader;
+
+/**
+ * Columnar sidecar of a legend file (legend + ".bin"). It is built once per
+ * reference panel and memory-mapped by BinaryLegendFileReader, so the legend
+ * file does not have to be parsed on every quality control run.
+ *
+ * Layout (big endian): magic, version, size and hash of the legend file,
+ * number of records, population names, padding to 8 bytes, sorted positions
+ * (int), alleles a0 and a1 (first character, 2 bytes per record) and one
+ * column with the alternative allele frequency (float, NaN if missing) per
+ * population. Record ids are not stored.
+ */
+public class BinaryLegendFile {
+
+	public static final String EXTENSION = ".bin";
+
+	static final int MAGIC = 0x4c474e44;
+
+	static final int VERSION = 1;
+
+	// offset of the number of records
+	private static final int COUNT_OFFSET = 4 + 4 + 8 + 8;
+
+	public static String getFilename(String legendFilename) {
+		return legendFilename + EXTENSION;
+	}
+
+	/**
+	 * Returns true if the sidecar of the legend file exists and was built from
+	 * the current version of the legend file.
+	 */
+	public static boolean isUpToDate(String legendFilename) throws IOException {
+
+		File file = new File(getFilename(legendFilename));
+		if (!file.exists() || file.length() < COUNT_OFFSET) {
+			return false;
+		}
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return false;
+			}
+			long size = in.readLong();
+			long hash = in.readLong();
+			return size == new File(legendFilename).length() && hash == VcfFileProfile.hash(legendFilename);
+		} finally {
+			in.close();
+		}
+
+	}
+
+	public static int write(String legendFilename) throws IOException {
+		return write(legendFilename, getFilename(legendFilename));
+	}
+
+	/**
+	 * Converts the legend file and returns the number of records.
+	 */
+	public static int write(String legendFilename, String outputFilename) throws IOException {
+
+		LineReader reader = new LineReader(legendFilename);
+
+		if (!reader.next() || !reader.get().startsWith("id")) {
+			reader.close();
+			throw new IOException("Legend file '" + legendFilename + "' has no header.");
+		}
+
+		// parse header
+		int posCol = -1;
+		int a0Col = -1;
+		int a1Col = -1;
+		List<String> populations = new Vector<String>();
+		List<Integer> popCols = new Vector<Integer>();
+
+		String[] header = reader.get().split(" ");
+		for (int i = 0; i < header.length; i++) {
+			if (header[i].equals("position")) {
+				posCol = i;
+			} else if (header[i].equals("a0")) {
+				a0Col = i;
+			} else if (header[i].equals("a1")) {
+				a1Col = i;
+			} else if (header[i].endsWith(".aaf")) {
+				populations.add(header[i].substring(0, header[i].length() - 4));
+				popCols.add(i);
+			}
+		}
+
+		if (posCol == -1 || a0Col == -1 || a1Col == -1) {
+			reader.close();
+			throw new IOException("Legend file '" + legendFilename + "' has no position or allele columns.");
+		}
+
+		// positions are written directly, all other columns into temp files.
+		// the file is renamed when complete.
+		File tempFile = new File(outputFilename + ".tmp");
+		DataOutputStream out = open(tempFile.getAbsolutePath());
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(new File(legendFilename).length());
+		out.writeLong(VcfFileProfile.hash(legendFilename));
+		out.writeInt(0);
+		out.writeInt(populations.size());
+		int headerSize = COUNT_OFFSET + 8;
+		for (String population : populations) {
+			out.writeUTF(population);
+			headerSize += 2 + population.getBytes("UTF-8").length;
+		}
+		while (headerSize % 8 != 0) {
+			out.write(0);
+			headerSize++;
+		}
+
+		File[] columnFiles = new File[populations.size() + 1];
+		DataOutputStream[] columns = new DataOutputStream[columnFiles.length];
+		for (int i = 0; i < columnFiles.length; i++) {
+			columnFiles[i] = new File(outputFilename + ".column" + i + ".tmp");
+			columns[i] = open(columnFiles[i].getAbsolutePath());
+		}
+
+		int count = 0;
+		int oldPosition = -1;
+		boolean complete = false;
+
+		try {
+
+			while (reader.next()) {
+
+				String[] tiles = reader.get().split(" ");
+				int position = Integer.parseInt(tiles[posCol]);
+
+				if (oldPosition > position) {
+					throw new IOException("Legend File is not sorted.");
+				}
+				oldPosition = position;
+
+				out.writeInt(position);
+				columns[0].write(tiles[a0Col].charAt(0));
+				columns[0].write(tiles[a1Col].charAt(0));
+				for (int i = 0; i < popCols.size(); i++) {
+					String aaf = tiles[popCols.get(i)];
+					columns[i + 1].writeFloat(aaf.equals(".") ? Float.NaN : Float.parseFloat(aaf));
+				}
+
+				count++;
+
+			}
+
+			out.close();
+			for (DataOutputStream column : columns) {
+				column.close();
+			}
+
+			// append columns and set number of records
+			RandomAccessFile file = new RandomAccessFile(tempFile, "rw");
+			try {
+				FileChannel channel = file.getChannel();
+				for (File columnFile : columnFiles) {
+					FileInputStream in = new FileInputStream(columnFile);
+					try {
+						FileChannel source = in.getChannel();
+						long position = 0;
+						long size = source.size();
+						while (position < size) {
+							position += source.transferTo(position, size - position,
+									channel.position(channel.size()));
+						}
+					} finally {
+						in.close();
+					}
+				}
+				file.seek(COUNT_OFFSET);
+				file.writeInt(count);
+			} finally {
+				file.close();
+			}
+
+			File outputFile = new File(outputFilename);
+			outputFile.delete();
+			if (!tempFile.renameTo(outputFile)) {
+				throw new IOException("File '" + outputFilename + "' could not be written.");
+			}
+			complete = true;
+
+		} catch (NumberFormatException e) {
+			throw new IOException("Legend file '" + legendFilename + "' contains an invalid value: " + e.getMessage());
+		} finally {
+			reader.close();
+			out.close();
+			for (int i = 0; i < columns.length; i++) {
+				columns[i].close();
+				columnFiles[i].delete();
+			}
+			if (!complete) {
+				tempFile.delete();
+			}
+		}
+
+		return count;
+
+	}
+
+	private static DataOutputStream open(String filename) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1024 * 1024));
+	}
+
+}
@@ -0,0 +1,214 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Searches a memory-mapped BinaryLegendFile. Opening the file only reads its
+ * header, the columns are loaded by the operating system on demand. The same
+ * search is used for legend columns loaded into memory by the LegendCache.
+ */
+public class BinaryLegendFileReader implements ILegendReader {
+
+	private String filename;
+
+	private int count;
+
+	private IntBuffer positions;
+
+	private ByteBuffer alleles;
+
+	private FloatBuffer frequencies;
+
+	private LegendEntry entry = new LegendEntry();
+
+	private int oldIndex = -1;
+
+	public BinaryLegendFileReader(String filename, String population) throws IOException {
+
+		this.filename = filename;
+
+		DataInputStream in = new DataInputStream(new FileInputStream(filename));
+		RandomAccessFile file = null;
+
+		try {
+
+			if (in.readInt() != BinaryLegendFile.MAGIC || in.readInt() != BinaryLegendFile.VERSION) {
+				throw new IOException("File '" + filename + "' is not a binary legend file.");
+			}
+
+			// size and hash of the legend file
+			in.readLong();
+			in.readLong();
+
+			count = in.readInt();
+			int populations = in.readInt();
+
+			long headerSize = 4 + 4 + 8 + 8 + 4 + 4;
+			int popIndex = -1;
+			for (int i = 0; i < populations; i++) {
+				String name = in.readUTF();
+				headerSize += 2 + name.getBytes("UTF-8").length;
+				if (name.equals(population)) {
+					popIndex = i;
+				}
+			}
+			headerSize = (headerSize + 7) / 8 * 8;
+
+			file = new RandomAccessFile(filename, "r");
+			FileChannel channel = file.getChannel();
+
+			long offset = headerSize;
+			positions = channel.map(MapMode.READ_ONLY, offset, 4L * count).asIntBuffer();
+			offset += 4L * count;
+			alleles = channel.map(MapMode.READ_ONLY, offset, 2L * count);
+			offset += 2L * count;
+			if (popIndex != -1) {
+				offset += 4L * count * popIndex;
+				frequencies = channel.map(MapMode.READ_ONLY, offset, 4L * count).asFloatBuffer();
+			}
+
+		} finally {
+			in.close();
+			// mappings stay valid after the channel is closed
+			if (file != null) {
+				file.close();
+			}
+		}
+
+	}
+
+	/**
+	 * Searches columns in memory. Frequencies are null if the population is
+	 * not in the legend file.
+	 */
+	BinaryLegendFileReader(String filename, int count, IntBuffer positions, ByteBuffer alleles,
+			FloatBuffer frequencies) {
+		this.filename = filename;
+		this.count = count;
+		this.positions = positions;
+		this.alleles = alleles;
+		this.frequencies = frequencies;
+	}
+
+	private BinaryLegendFileReader(BinaryLegendFileReader reader) {
+		filename = reader.filename;
+		count = reader.count;
+		positions = reader.positions.duplicate();
+		alleles = reader.alleles.duplicate();
+		frequencies = reader.frequencies != null ? reader.frequencies.duplicate() : null;
+	}
+
+	@Override
+	public BinaryLegendFileReader createSearchReader() {
+		return new BinaryLegendFileReader(this);
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	@Override
+	public LegendEntry findByPosition(int position) throws IOException {
+		return getEntry(findIndex(position));
+	}
+
+	@Override
+	public LegendEntry findByPosition(int position, char ref, char alt) throws IOException {
+
+		int index = findIndex(position);
+
+		// duplicates are stored before the last entry
+		for (int i = index; i >= 0 && positions.get(i) == position; i--) {
+			char alleleA = (char) alleles.get(2 * i);
+			char alleleB = (char) alleles.get(2 * i + 1);
+			if ((alleleA == ref && alleleB == alt) || (alleleA == alt && alleleB == ref)) {
+				return getEntry(i);
+			}
+		}
+
+		return getEntry(index);
+
+	}
+
+	private LegendEntry getEntry(int index) {
+
+		if (index == -1) {
+			return null;
+		}
+
+		if (index == oldIndex) {
+			return entry;
+		}
+
+		entry.setRsId(".");
+		entry.setAlleleA((char) alleles.get(2 * index));
+		entry.setAlleleB((char) alleles.get(2 * index + 1));
+		entry.setType("-");
+
+		float aaf = 0;
+
+		if (frequencies != null) {
+			float value = frequencies.get(index);
+			if (!Float.isNaN(value)) {
+				aaf = value;
+				entry.setFrequencies(true);
+			} else {
+				entry.setFrequencies(false);
+			}
+		} else {
+			entry.setFrequencies(false);
+		}
+
+		entry.setFrequencyA(1 - aaf);
+		entry.setFrequencyB(aaf);
+
+		oldIndex = index;
+
+		return entry;
+
+	}
+
+	// last record with the given position, the same record as used by the
+	// index of LegendFileReader for duplicate positions
+	private int findIndex(int position) {
+
+		int low = 0;
+		int high = count;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (positions.get(middle) <= position) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		if (low > 0 && positions.get(low - 1) == position) {
+			return low - 1;
+		}
+
+		return -1;
+
+	}
+
+	@Override
+	public void close() {
+		positions = null;
+		alleles = null;
+		frequencies = null;
+	}
+
+}
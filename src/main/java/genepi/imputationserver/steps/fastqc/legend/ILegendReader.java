@@ -0,0 +1,28 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.IOException;
+
+public interface ILegendReader {
+
+	/**
+	 * Returns the entry at the given position or null. The returned object is
+	 * reused by the next call.
+	 */
+	public LegendEntry findByPosition(int position) throws IOException;
+
+	/**
+	 * Returns the entry at the given position or null. If the legend file
+	 * contains several entries at this position, the entry with the alleles
+	 * ref and alt (in any order) is preferred.
+	 */
+	public LegendEntry findByPosition(int position, char ref, char alt) throws IOException;
+
+	/**
+	 * Returns a new reader for the same file that can be used from another
+	 * thread.
+	 */
+	public ILegendReader createSearchReader() throws IOException;
+
+	public void close();
+
+}
@@ -0,0 +1,420 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import genepi.imputationserver.steps.fastqc.RangeIndex;
+import genepi.imputationserver.steps.vcf.BGzipLineScanner;
+import genepi.io.text.LineReader;
+
+/**
+ * Process-wide cache of legend files loaded into memory. Quality control
+ * steps running concurrently in the same JVM share the columns of the same
+ * legend file and population. Entries are reference counted; unused entries
+ * are evicted in least recently used order when the memory budget is
+ * exceeded.
+ */
+public class LegendCache {
+
+	private static LegendCache instance = new LegendCache();
+
+	// access order for the LRU eviction
+	private Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private long maxMemory = 0;
+
+	private long memory = 0;
+
+	private int threads = 1;
+
+	private boolean configured = false;
+
+	public static LegendCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Sets threads and memory budget from the configuration of the first job
+	 * of this process. Later calls are ignored, so concurrent jobs do not
+	 * override the settings of each other.
+	 */
+	public synchronized void configure(int threads, long maxMemory) {
+		if (configured) {
+			return;
+		}
+		setThreads(threads);
+		setMaxMemory(maxMemory);
+		configured = true;
+	}
+
+	/**
+	 * Sets the memory budget in bytes. 0 disables the cache.
+	 */
+	public synchronized void setMaxMemory(long maxMemory) {
+		this.maxMemory = maxMemory;
+		evict();
+	}
+
+	/**
+	 * Number of threads used to load BGZF compressed legend files.
+	 */
+	public synchronized void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public synchronized int getThreads() {
+		return threads;
+	}
+
+	public synchronized long getMaxMemory() {
+		return maxMemory;
+	}
+
+	public synchronized long getMemory() {
+		return memory;
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	public synchronized boolean isEnabled() {
+		return maxMemory > 0;
+	}
+
+	/**
+	 * Returns a reader for the legend file. The file is loaded only if it is
+	 * not in the cache. Closing the reader releases the entry.
+	 */
+	public ILegendReader open(String legendFilename, String population) throws IOException {
+		return open(legendFilename, population, null);
+	}
+
+	/**
+	 * Returns a reader that contains only the positions inside the intervals.
+	 * Positions outside are not found.
+	 */
+	public ILegendReader open(String legendFilename, String population, RangeIndex.Intervals intervals)
+			throws IOException {
+
+		File file = new File(legendFilename);
+		String key = file.getAbsolutePath() + "\t" + file.length() + "\t" + file.lastModified() + "\t" + population;
+		if (intervals != null) {
+			key += "\t" + intervals;
+		}
+
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry();
+				entries.put(key, entry);
+			}
+			entry.references++;
+		}
+
+		try {
+
+			// other jobs wait until the file is loaded
+			synchronized (entry) {
+				if (entry.positions == null) {
+					entry.load(legendFilename, population, intervals, getThreads());
+					synchronized (this) {
+						memory += entry.getMemory();
+						evict();
+					}
+				}
+			}
+
+		} catch (IOException e) {
+			release(entry);
+			throw e;
+		}
+
+		return new CachedLegendReader(entry);
+
+	}
+
+	private synchronized void release(Entry entry) {
+		entry.references--;
+		evict();
+	}
+
+	// removes unused entries until the memory budget is met
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext() && memory > maxMemory) {
+			Entry entry = iterator.next();
+			if (entry.references == 0) {
+				memory -= entry.getMemory();
+				iterator.remove();
+			}
+		}
+		// failed loads
+		iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry.references == 0 && entry.positions == null) {
+				iterator.remove();
+			}
+		}
+	}
+
+	private static class Entry {
+
+		private int references = 0;
+
+		private String filename;
+
+		private int count;
+
+		private int[] positions;
+
+		private byte[] alleles;
+
+		private float[] frequencies;
+
+		public void load(String legendFilename, String population, RangeIndex.Intervals intervals, int threads)
+				throws IOException {
+
+			LineReader reader = new LineReader(legendFilename);
+
+			try {
+
+				if (!reader.next() || !reader.get().startsWith("id")) {
+					throw new IOException("Legend file '" + legendFilename + "' has no header.");
+				}
+
+				final Columns header = new Columns(reader.get(), population, intervals);
+
+				if (header.posCol == -1 || header.a0Col == -1 || header.a1Col == -1) {
+					throw new IOException("Legend file '" + legendFilename + "' has no position or allele columns.");
+				}
+
+				List<Columns> ranges = new Vector<Columns>();
+
+				if (threads > 1 && BGzipLineScanner.isBGzip(legendFilename)) {
+
+					// ranges of blocks are parsed in parallel
+					BGzipLineScanner scanner = new BGzipLineScanner(legendFilename);
+					ranges = scanner.scan(new BGzipLineScanner.ILineHandler<Columns>() {
+
+						@Override
+						public Columns createResult() {
+							return new Columns(header);
+						}
+
+						@Override
+						public void processLine(Columns columns, byte[] buffer, int offset, int length,
+								long fileOffset) throws IOException {
+							String line = new String(buffer, offset, length, StandardCharsets.US_ASCII);
+							if (!line.startsWith("id")) {
+								columns.add(line);
+							}
+						}
+
+					}, threads);
+
+				} else {
+
+					Columns columns = new Columns(header);
+					while (reader.next()) {
+						columns.add(reader.get());
+					}
+					ranges.add(columns);
+
+				}
+
+				int count = 0;
+				for (Columns columns : ranges) {
+					count += columns.count;
+				}
+
+				int[] positions = new int[count];
+				byte[] alleles = new byte[2 * count];
+				float[] frequencies = header.popCol != -1 ? new float[count] : null;
+
+				int index = 0;
+				for (Columns columns : ranges) {
+					if (columns.count > 0 && index > 0 && positions[index - 1] > columns.positions[0]) {
+						throw new IOException("Legend File is not sorted.");
+					}
+					System.arraycopy(columns.positions, 0, positions, index, columns.count);
+					System.arraycopy(columns.alleles, 0, alleles, 2 * index, 2 * columns.count);
+					if (frequencies != null) {
+						System.arraycopy(columns.frequencies, 0, frequencies, index, columns.count);
+					}
+					index += columns.count;
+				}
+
+				this.filename = legendFilename;
+				this.count = count;
+				this.alleles = alleles;
+				this.frequencies = frequencies;
+				this.positions = positions;
+
+			} finally {
+				reader.close();
+			}
+
+		}
+
+		public long getMemory() {
+			if (positions == null) {
+				return 0;
+			}
+			return 4L * count + 2L * count + (frequencies != null ? 4L * count : 0);
+		}
+
+	}
+
+	// columns of a legend file or of a part of it
+	private static class Columns {
+
+		private int posCol = -1;
+
+		private int a0Col = -1;
+
+		private int a1Col = -1;
+
+		private int popCol = -1;
+
+		private int count = 0;
+
+		private int[] positions;
+
+		private byte[] alleles;
+
+		private float[] frequencies;
+
+		private RangeIndex.Intervals intervals;
+
+		public Columns(String header, String population, RangeIndex.Intervals intervals) {
+			this.intervals = intervals;
+			String[] tiles = header.split(" ");
+			for (int i = 0; i < tiles.length; i++) {
+				if (tiles[i].equals("position")) {
+					posCol = i;
+				}
+				if (tiles[i].equals("a0")) {
+					a0Col = i;
+				}
+				if (tiles[i].equals("a1")) {
+					a1Col = i;
+				}
+				if (tiles[i].equals(population + ".aaf")) {
+					popCol = i;
+				}
+			}
+		}
+
+		public Columns(Columns header) {
+			posCol = header.posCol;
+			a0Col = header.a0Col;
+			a1Col = header.a1Col;
+			popCol = header.popCol;
+			intervals = header.intervals;
+			positions = new int[1024];
+			alleles = new byte[2 * positions.length];
+			frequencies = popCol != -1 ? new float[positions.length] : null;
+		}
+
+		public void add(String line) throws IOException {
+
+			String[] tiles = line.split(" ");
+
+			int position;
+			float aaf = 0;
+			try {
+				position = Integer.parseInt(tiles[posCol]);
+				if (popCol != -1) {
+					aaf = tiles[popCol].equals(".") ? Float.NaN : Float.parseFloat(tiles[popCol]);
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("Legend file contains an invalid value: " + e.getMessage());
+			}
+
+			if (intervals != null && !intervals.contains(position)) {
+				return;
+			}
+
+			if (count > 0 && positions[count - 1] > position) {
+				throw new IOException("Legend File is not sorted.");
+			}
+
+			if (count == positions.length) {
+				positions = Arrays.copyOf(positions, 2 * count);
+				alleles = Arrays.copyOf(alleles, 4 * count);
+				if (frequencies != null) {
+					frequencies = Arrays.copyOf(frequencies, 2 * count);
+				}
+			}
+
+			positions[count] = position;
+			alleles[2 * count] = (byte) tiles[a0Col].charAt(0);
+			alleles[2 * count + 1] = (byte) tiles[a1Col].charAt(0);
+			if (frequencies != null) {
+				frequencies[count] = aaf;
+			}
+
+			count++;
+
+		}
+
+	}
+
+	private class CachedLegendReader implements ILegendReader {
+
+		private Entry entry;
+
+		private BinaryLegendFileReader reader;
+
+		private boolean closed = false;
+
+		public CachedLegendReader(Entry entry) {
+			this.entry = entry;
+			reader = new BinaryLegendFileReader(entry.filename, entry.count, IntBuffer.wrap(entry.positions),
+					ByteBuffer.wrap(entry.alleles),
+					entry.frequencies != null ? FloatBuffer.wrap(entry.frequencies) : null);
+		}
+
+		@Override
+		public LegendEntry findByPosition(int position) throws IOException {
+			return reader.findByPosition(position);
+		}
+
+		@Override
+		public LegendEntry findByPosition(int position, char ref, char alt) throws IOException {
+			return reader.findByPosition(position, ref, alt);
+		}
+
+		@Override
+		public ILegendReader createSearchReader() throws IOException {
+			synchronized (LegendCache.this) {
+				entry.references++;
+			}
+			return new CachedLegendReader(entry);
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				reader.close();
+				release(entry);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,242 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import genepi.io.FileUtil;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Reads a sorted legend file alongside a sorted vcf file. Positions have to
+ * be searched in ascending order, so the legend file is read only once and
+ * no index is needed. A smaller position restarts the cursor at the
+ * beginning of the file.
+ */
+public class LegendFileCursor implements ILegendReader {
+
+	private String filename;
+
+	private String population;
+
+	private BufferedReader in;
+
+	private LegendEntry entry = new LegendEntry();
+
+	private int idCol = -1;
+	private int posCol = -1;
+	private int a0Col = -1;
+	private int a1Col = -1;
+	private int popCol = -1;
+
+	// next line of the legend file and its position
+	private String nextLine;
+
+	private int nextPosition;
+
+	// all lines with the last found position
+	private List<String> lines = new Vector<String>();
+
+	private int linesPosition = -1;
+
+	private String entryLine;
+
+	private int lastPosition = -1;
+
+	public LegendFileCursor(String filename, String population) throws IOException {
+		this.filename = filename;
+		this.population = population;
+		open();
+	}
+
+	private void open() throws IOException {
+
+		InputStream inputStream = FileUtil.decompressStream(new FileInputStream(filename));
+		in = new BufferedReader(new InputStreamReader(inputStream), 1024 * 1024);
+
+		String header = in.readLine();
+		if (header == null || !header.startsWith("id")) {
+			close();
+			throw new IOException("Legend file '" + filename + "' has no header.");
+		}
+
+		// parse header
+		String[] tiles = header.split(" ");
+		for (int i = 0; i < tiles.length; i++) {
+			if (tiles[i].equals("id")) {
+				idCol = i;
+			}
+			if (tiles[i].equals("position")) {
+				posCol = i;
+			}
+			if (tiles[i].equals("a0")) {
+				a0Col = i;
+			}
+			if (tiles[i].equals("a1")) {
+				a1Col = i;
+			}
+			if (tiles[i].equals(population + ".aaf")) {
+				popCol = i;
+			}
+		}
+
+		if (posCol == -1) {
+			close();
+			throw new IOException("Legend file '" + filename + "' has no position column.");
+		}
+
+		nextPosition = -1;
+		lines.clear();
+		linesPosition = -1;
+		entryLine = null;
+		lastPosition = -1;
+		readNext();
+
+	}
+
+	@Override
+	public LegendFileCursor createSearchReader() throws IOException {
+		return new LegendFileCursor(filename, population);
+	}
+
+	@Override
+	public LegendEntry findByPosition(int position) throws IOException {
+		if (!moveTo(position)) {
+			return null;
+		}
+		return getEntry(lines.get(lines.size() - 1));
+	}
+
+	@Override
+	public LegendEntry findByPosition(int position, char ref, char alt) throws IOException {
+
+		if (!moveTo(position)) {
+			return null;
+		}
+
+		if (lines.size() > 1) {
+			for (String line : lines) {
+				String[] tiles = line.split(" ");
+				char alleleA = tiles[a0Col].charAt(0);
+				char alleleB = tiles[a1Col].charAt(0);
+				if ((alleleA == ref && alleleB == alt) || (alleleA == alt && alleleB == ref)) {
+					return getEntry(line);
+				}
+			}
+		}
+
+		return getEntry(lines.get(lines.size() - 1));
+
+	}
+
+	// skips all lines before the position and collects the lines at the
+	// position. returns false if the position is not in the legend file.
+	private boolean moveTo(int position) throws IOException {
+
+		if (position < lastPosition) {
+			close();
+			open();
+		}
+		lastPosition = position;
+
+		if (position == linesPosition) {
+			return true;
+		}
+
+		while (nextLine != null && nextPosition < position) {
+			readNext();
+		}
+
+		if (nextLine == null || nextPosition != position) {
+			return false;
+		}
+
+		lines.clear();
+		linesPosition = position;
+		while (nextLine != null && nextPosition == position) {
+			lines.add(nextLine);
+			readNext();
+		}
+
+		return true;
+
+	}
+
+	private void readNext() throws IOException {
+
+		nextLine = in.readLine();
+		if (nextLine == null) {
+			return;
+		}
+
+		int start = 0;
+		for (int i = 0; i < posCol; i++) {
+			start = nextLine.indexOf(' ', start) + 1;
+		}
+		int end = nextLine.indexOf(' ', start);
+
+		int position;
+		try {
+			position = Integer.parseInt(end != -1 ? nextLine.substring(start, end) : nextLine.substring(start));
+		} catch (NumberFormatException e) {
+			throw new IOException("Legend file '" + filename + "' contains an invalid position: " + nextLine);
+		}
+
+		if (position < nextPosition) {
+			throw new IOException("Legend File is not sorted.");
+		}
+		nextPosition = position;
+
+	}
+
+	private LegendEntry getEntry(String line) {
+
+		if (line == entryLine) {
+			return entry;
+		}
+
+		String[] tiles = line.split(" ");
+
+		entry.setRsId(tiles[idCol]);
+		entry.setAlleleA(tiles[a0Col].charAt(0));
+		entry.setAlleleB(tiles[a1Col].charAt(0));
+		entry.setType("-");
+
+		float aaf = 0;
+
+		if (popCol != -1) {
+			if (!tiles[popCol].equals(".")) {
+				aaf = Float.parseFloat(tiles[popCol]);
+				entry.setFrequencies(true);
+			} else {
+				entry.setFrequencies(false);
+			}
+		} else {
+			entry.setFrequencies(false);
+		}
+
+		entry.setFrequencyA(1 - aaf);
+		entry.setFrequencyB(aaf);
+
+		entryLine = line;
+
+		return entry;
+
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (in != null) {
+				in.close();
+				in = null;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
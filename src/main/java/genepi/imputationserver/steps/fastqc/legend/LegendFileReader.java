@@ -1,5 +1,6 @@
 package genepi.imputationserver.steps.fastqc.legend;
 
+import genepi.imputationserver.steps.vcf.BGzipLineScanner;
 import genepi.io.FileUtil;
 import genepi.io.text.AbstractLineReader;
 
@@ -9,21 +10,18 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
+import java.util.List;
+import java.util.Vector;
 
-public class LegendFileReader extends AbstractLineReader<String> {
+public class LegendFileReader extends AbstractLineReader<String> implements ILegendReader {
 
-	private Map<Integer, Integer> index = new HashMap<Integer, Integer>();
-
-	private Set<Integer> duplicates = new HashSet<Integer>();
+	private PositionIndex index = new PositionIndex();
 
 	private String line;
 
-	private int oldOffset = 0;
+	private long oldOffset = 0;
 
 	private BufferedReader myIn;
 
@@ -39,7 +37,8 @@ public class LegendFileReader extends AbstractLineReader<String> {
 
 	private int oldPosition = 0;
 
-	private String oldLine = null;
+	// all lines of the last position
+	private List<String> oldLines = new Vector<String>();
 
 	public LegendFileReader(DataInputStream inputStream) throws IOException {
 		super(inputStream);
@@ -52,7 +51,7 @@ public class LegendFileReader extends AbstractLineReader<String> {
 
 	public void createIndex() throws IOException {
 
-		int offset = 0;
+		long offset = 0;
 
 		int oldPosition = -1;
 
@@ -62,47 +61,129 @@ public class LegendFileReader extends AbstractLineReader<String> {
 				String[] tiles = line.split(" ", 3);
 				int position = Integer.parseInt(tiles[posCol]);
 
-				// store duplicates
-				if (index.containsKey(position)) {
-					duplicates.add(position);
-				}
-
-				index.put(position, offset);
-
 				if (oldPosition > position) {
 					throw new IOException("Legend File is not sorted.");
 				}
 
+				// duplicates are stored with all offsets
+				index.add(position, offset);
+
 				oldPosition = position;
 			} else {
+				parseHeader(line);
+			}
+			offset += line.length() + 1;
+		}
+		close();
+	}
 
-				// parse header
-				String[] tiles = line.split(" ");
-				int i = 0;
-				for (String tile : tiles) {
-					if (tile.equals("id")) {
-						idCol = i;
-					}
-					if (tile.equals("position")) {
-						posCol = i;
-					}
-					if (tile.equals("a0")) {
-						a0Col = i;
-					}
-					if (tile.equals("a1")) {
-						a1Col = i;
-					}
-					if (tile.equals(population + ".aaf")) {
-						popCol = i;
-					}
-
-					i++;
+	/**
+	 * Creates the index with several threads if the legend file is BGZF
+	 * compressed. Each thread indexes a range of blocks, the ranges are
+	 * merged in file order.
+	 */
+	public void createIndex(int threads) throws IOException {
+
+		if (threads <= 1 || !BGzipLineScanner.isBGzip(getFilename())) {
+			createIndex();
+			return;
+		}
+
+		if (!next() || !get().startsWith("id")) {
+			close();
+			throw new IOException("Legend file '" + getFilename() + "' has no header.");
+		}
+		parseHeader(get());
+		close();
+
+		final int column = posCol;
+
+		BGzipLineScanner scanner = new BGzipLineScanner(getFilename());
+		List<IndexRange> ranges = scanner.scan(new BGzipLineScanner.ILineHandler<IndexRange>() {
+
+			@Override
+			public IndexRange createResult() {
+				return new IndexRange();
+			}
+
+			@Override
+			public void processLine(IndexRange range, byte[] buffer, int offset, int length, long fileOffset)
+					throws IOException {
+				// header
+				if (length >= 2 && buffer[offset] == 'i' && buffer[offset + 1] == 'd') {
+					return;
 				}
+				range.add(parsePosition(buffer, offset, length, column), fileOffset);
+			}
+
+		}, threads);
 
+		int count = 0;
+		for (IndexRange range : ranges) {
+			count += range.count;
+		}
+		index = new PositionIndex(count);
+
+		int oldPosition = -1;
+		for (IndexRange range : ranges) {
+			for (int i = 0; i < range.count; i++) {
+				int position = range.positions[i];
+				if (oldPosition > position) {
+					throw new IOException("Legend File is not sorted.");
+				}
+				index.add(position, range.offsets[i]);
+				oldPosition = position;
 			}
-			offset += line.length() + 1;
 		}
-		close();
+
+	}
+
+	private void parseHeader(String line) {
+		String[] tiles = line.split(" ");
+		int i = 0;
+		for (String tile : tiles) {
+			if (tile.equals("id")) {
+				idCol = i;
+			}
+			if (tile.equals("position")) {
+				posCol = i;
+			}
+			if (tile.equals("a0")) {
+				a0Col = i;
+			}
+			if (tile.equals("a1")) {
+				a1Col = i;
+			}
+			if (tile.equals(population + ".aaf")) {
+				popCol = i;
+			}
+
+			i++;
+		}
+	}
+
+	// parses the value of a column without creating a String
+	private static int parsePosition(byte[] buffer, int offset, int length, int column) throws IOException {
+		int end = offset + length;
+		int start = offset;
+		for (int i = 0; i < column && start < end; start++) {
+			if (buffer[start] == ' ') {
+				i++;
+			}
+		}
+		int position = 0;
+		int digits = 0;
+		for (int i = start; i < end && buffer[i] != ' '; i++, digits++) {
+			int digit = buffer[i] - '0';
+			if (digit < 0 || digit > 9 || digits > 9) {
+				throw new IOException("Invalid position in legend line: " + new String(buffer, offset, length));
+			}
+			position = position * 10 + digit;
+		}
+		if (digits == 0) {
+			throw new IOException("Invalid position in legend line: " + new String(buffer, offset, length));
+		}
+		return position;
 	}
 
 	@Override
@@ -116,9 +197,70 @@ public class LegendFileReader extends AbstractLineReader<String> {
 		myIn = new BufferedReader(new InputStreamReader(in2));
 	}
 
+	/**
+	 * Returns a new reader for the same file that shares the index of this
+	 * reader, so the file can be searched from several threads.
+	 */
+	@Override
+	public LegendFileReader createSearchReader() throws IOException {
+		LegendFileReader reader = new LegendFileReader(getFilename(), population);
+		reader.close();
+		reader.index = index;
+		reader.idCol = idCol;
+		reader.posCol = posCol;
+		reader.a0Col = a0Col;
+		reader.a1Col = a1Col;
+		reader.popCol = popCol;
+		reader.initSearch();
+		return reader;
+	}
+
+	@Override
+	public void close() {
+		try {
+			super.close();
+			if (myIn != null) {
+				myIn.close();
+				myIn = null;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Returns the last entry of duplicate positions.
+	 */
+	@Override
 	public LegendEntry findByPosition(int position) throws IOException {
+		return parseEntry(findLineByPosition(position));
+	}
 
-		String line = findLineByPosition(position);
+	@Override
+	public LegendEntry findByPosition(int position, char ref, char alt) throws IOException {
+
+		List<String> lines = findLinesByPosition(position);
+
+		if (lines == null) {
+			return null;
+		}
+
+		if (lines.size() > 1) {
+			for (String line : lines) {
+				String[] tiles = line.split(" ");
+				char alleleA = tiles[a0Col].charAt(0);
+				char alleleB = tiles[a1Col].charAt(0);
+				if ((alleleA == ref && alleleB == alt) || (alleleA == alt && alleleB == ref)) {
+					return parseEntry(line);
+				}
+			}
+		}
+
+		return parseEntry(lines.get(lines.size() - 1));
+
+	}
+
+	private LegendEntry parseEntry(String line) {
 
 		if (line != null) {
 
@@ -154,29 +296,45 @@ public class LegendFileReader extends AbstractLineReader<String> {
 		}
 	}
 
+	/**
+	 * Returns the last line of duplicate positions.
+	 */
 	public String findLineByPosition(int position) throws IOException {
-		Integer offset = index.get(position);
-		if (offset != null) {
-			if (oldPosition != position) {
-				try {
-					myIn.skip(offset - oldOffset);
-					String line = myIn.readLine();
-					oldOffset = offset + line.length() + 1;
-					oldLine = line;
-					oldPosition = position;
-					return line;
-				} catch (Exception e) {
-					throw new IOException("Problem reading position '" + position + "' [Old position: " + oldPosition
-							+ ", OldOffset" + oldOffset + ", New Offset" + offset + "]");
-				}
-			}
-			return oldLine;
+		List<String> lines = findLinesByPosition(position);
+		return lines != null ? lines.get(lines.size() - 1) : null;
+	}
 
-		} else {
+	/**
+	 * Returns all lines with the given position or null.
+	 */
+	public List<String> findLinesByPosition(int position) throws IOException {
 
+		int count = index.getCount(position);
+		if (count == 0) {
 			return null;
+		}
 
+		if (oldPosition != position || oldLines.isEmpty()) {
+			long offset = index.getOffset(position, 0);
+			try {
+				myIn.skip(offset - oldOffset);
+				oldLines.clear();
+				oldOffset = offset;
+				// duplicates are consecutive lines
+				for (int i = 0; i < count; i++) {
+					String line = myIn.readLine();
+					oldOffset += line.length() + 1;
+					oldLines.add(line);
+				}
+				oldPosition = position;
+			} catch (Exception e) {
+				throw new IOException("Problem reading position '" + position + "' [Old position: " + oldPosition
+						+ ", OldOffset" + oldOffset + ", New Offset" + offset + "]");
+			}
 		}
+
+		return oldLines;
+
 	}
 
 	@Override
@@ -190,4 +348,24 @@ public class LegendFileReader extends AbstractLineReader<String> {
 		line = arg0;
 	}
 
+	private static class IndexRange {
+
+		private int[] positions = new int[1024];
+
+		private long[] offsets = new long[1024];
+
+		private int count = 0;
+
+		public void add(int position, long offset) {
+			if (count == positions.length) {
+				positions = Arrays.copyOf(positions, count * 2);
+				offsets = Arrays.copyOf(offsets, count * 2);
+			}
+			positions[count] = position;
+			offsets[count] = offset;
+			count++;
+		}
+
+	}
+
 }
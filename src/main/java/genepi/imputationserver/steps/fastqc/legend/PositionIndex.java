@@ -0,0 +1,164 @@
+package genepi.imputationserver.steps.fastqc.legend;
+
+import java.util.Arrays;
+
+/**
+ * Maps positions to file offsets without boxing (open addressing with linear
+ * probing). Positions have to be added in sorted order. All offsets of a
+ * duplicate position are kept in a side array as a group: the number of
+ * entries followed by their offsets. The table stores the offset of a unique
+ * position or -(1 + start of its group).
+ */
+public class PositionIndex {
+
+	private static final int EMPTY = Integer.MIN_VALUE;
+
+	private static final float LOAD_FACTOR = 0.7f;
+
+	private int[] keys;
+
+	private long[] values;
+
+	private int size = 0;
+
+	private int mask;
+
+	private long[] groups = new long[16];
+
+	private int groupsLength = 0;
+
+	private int duplicates = 0;
+
+	private int lastPosition = EMPTY;
+
+	public PositionIndex() {
+		this(1024);
+	}
+
+	public PositionIndex(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	public void add(int position, long offset) {
+
+		int slot = find(position);
+
+		if (keys[slot] == EMPTY) {
+			keys[slot] = position;
+			values[slot] = offset;
+			size++;
+			lastPosition = position;
+			if (size > LOAD_FACTOR * keys.length) {
+				resize();
+			}
+			return;
+		}
+
+		// duplicates are consecutive, so the group is always the last one
+		if (position != lastPosition) {
+			throw new IllegalArgumentException("Position " + position + " is not sorted.");
+		}
+
+		long value = values[slot];
+		if (value >= 0) {
+			ensureGroups(3);
+			values[slot] = -(1 + groupsLength);
+			groups[groupsLength++] = 2;
+			groups[groupsLength++] = value;
+			groups[groupsLength++] = offset;
+		} else {
+			ensureGroups(1);
+			groups[(int) (-value - 1)]++;
+			groups[groupsLength++] = offset;
+		}
+		duplicates++;
+
+	}
+
+	/**
+	 * Returns the number of entries at the position.
+	 */
+	public int getCount(int position) {
+		int slot = find(position);
+		if (keys[slot] == EMPTY) {
+			return 0;
+		}
+		long value = values[slot];
+		return value >= 0 ? 1 : (int) groups[(int) (-value - 1)];
+	}
+
+	/**
+	 * Returns the offset of the i-th entry at the position or -1.
+	 */
+	public long getOffset(int position, int i) {
+		int slot = find(position);
+		if (keys[slot] == EMPTY) {
+			return -1;
+		}
+		long value = values[slot];
+		if (value >= 0) {
+			return i == 0 ? value : -1;
+		}
+		int group = (int) (-value - 1);
+		return i < groups[group] ? groups[group + 1 + i] : -1;
+	}
+
+	public boolean contains(int position) {
+		return keys[find(position)] != EMPTY;
+	}
+
+	/**
+	 * Number of distinct positions.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of entries sharing their position with a previous entry.
+	 */
+	public int getDuplicates() {
+		return duplicates;
+	}
+
+	// slot of the position or the empty slot where it belongs
+	private int find(int position) {
+		int slot = hash(position) & mask;
+		while (keys[slot] != EMPTY && keys[slot] != position) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static int hash(int position) {
+		int h = position * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void resize() {
+		int[] oldKeys = keys;
+		long[] oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		Arrays.fill(keys, EMPTY);
+		values = new long[oldValues.length * 2];
+		mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = find(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void ensureGroups(int length) {
+		if (groupsLength + length > groups.length) {
+			groups = Arrays.copyOf(groups, Math.max(groups.length * 2, groupsLength + length));
+		}
+	}
+
+}
@@ -13,8 +13,10 @@ import genepi.hadoop.CacheStore;
 import genepi.hadoop.HdfsUtil;
 import genepi.hadoop.ParameterStore;
 import genepi.hadoop.log.Log;
+import genepi.imputationserver.steps.vcf.ParallelBGzipOutputStream;
 import genepi.imputationserver.steps.vcf.VcfChunk;
 import genepi.imputationserver.steps.vcf.VcfChunkOutput;
+import genepi.imputationserver.steps.vcf.VcfChunkUtil;
 import genepi.imputationserver.util.DefaultPreferenceStore;
 import genepi.imputationserver.util.FileMerger;
 import genepi.imputationserver.util.FileMerger.BgzipSplitOutputStream;
@@ -63,6 +65,8 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 
 	private boolean debugging;
 
+	private int compressionLevel = ParallelBGzipOutputStream.DEFAULT_LEVEL;
+
 	private Log log;
 
 	private String hdfsPath;
@@ -217,6 +221,14 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 			debugging = true;
 		}
 
+		// compression of the uploaded dose files
+		if (store.getString("bgzip.threads") != null) {
+			ParallelBGzipOutputStream.configure(Integer.parseInt(store.getString("bgzip.threads")));
+		}
+		if (store.getString("bgzip.level") != null) {
+			compressionLevel = Integer.parseInt(store.getString("bgzip.level"));
+		}
+
 		int phasingWindow = Integer.parseInt(store.getString("phasing.window"));
 
 		int window = Integer.parseInt(store.getString("minimac.window"));
@@ -262,7 +274,21 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 
 			VcfChunkOutput outputChunk = new VcfChunkOutput(chunk, folder);
 
-			HdfsUtil.get(chunk.getVcfFilename(), outputChunk.getVcfFilename());
+			if (chunk.isShared()) {
+
+				// fetch only the region of the chunk from the shared file
+				VcfChunkUtil.extractChunk(chunk, outputChunk.getVcfFilename());
+
+			} else {
+
+				HdfsUtil.get(chunk.getVcfFilename(), outputChunk.getVcfFilename());
+
+				// chunks are indexed during quality control
+				if (HdfsUtil.exists(chunk.getVcfFilename() + ".tbi")) {
+					HdfsUtil.get(chunk.getVcfFilename() + ".tbi", outputChunk.getVcfFilename() + ".tbi");
+				}
+
+			}
 
 			pipeline.setRefFilename(refFilename);
 			pipeline.setMapMinimac(mapMinimacFilename);
@@ -289,10 +315,10 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 
 				// store vcf file (remove header)
 				BgzipSplitOutputStream outData = new BgzipSplitOutputStream(
-						HdfsUtil.create(HdfsUtil.path(output, chunk + ".phased.vcf.gz")));
+						HdfsUtil.create(HdfsUtil.path(output, chunk + ".phased.vcf.gz")), compressionLevel);
 
 				BgzipSplitOutputStream outHeader = new BgzipSplitOutputStream(
-						HdfsUtil.create(HdfsUtil.path(output, chunk + ".header.dose.vcf.gz")));
+						HdfsUtil.create(HdfsUtil.path(output, chunk + ".header.dose.vcf.gz")), compressionLevel);
 
 				FileMerger.splitPhasedIntoHeaderAndData(outputChunk.getPhasedVcfFilename(), outHeader, outData, chunk,
 						imputationParameters);
@@ -311,20 +337,20 @@ public class ImputationMapper extends Mapper<LongWritable, Text, Text, Text> {
 
 				// store vcf file (remove header)
 				BgzipSplitOutputStream outData = new BgzipSplitOutputStream(
-						HdfsUtil.create(HdfsUtil.path(output, chunk + ".data.dose.vcf.gz")));
+						HdfsUtil.create(HdfsUtil.path(output, chunk + ".data.dose.vcf.gz")), compressionLevel);
 
 				BgzipSplitOutputStream outHeader = new BgzipSplitOutputStream(
-						HdfsUtil.create(HdfsUtil.path(output, chunk + ".header.dose.vcf.gz")));
+						HdfsUtil.create(HdfsUtil.path(output, chunk + ".header.dose.vcf.gz")), compressionLevel);
 
 				FileMerger.splitIntoHeaderAndData(outputChunk.getImputedVcfFilename(), outHeader, outData,
 						imputationParameters);
 
 				// store vcf file (remove header)
 				BgzipSplitOutputStream outDataMeta = new BgzipSplitOutputStream(
-						HdfsUtil.create(HdfsUtil.path(output, chunk + ".data.empiricalDose.vcf.gz")));
+						HdfsUtil.create(HdfsUtil.path(output, chunk + ".data.empiricalDose.vcf.gz")), compressionLevel);
 
 				BgzipSplitOutputStream outHeaderMeta = new BgzipSplitOutputStream(
-						HdfsUtil.create(HdfsUtil.path(output, chunk + ".header.empiricalDose.vcf.gz")));
+						HdfsUtil.create(HdfsUtil.path(output, chunk + ".header.empiricalDose.vcf.gz")), compressionLevel);
 
 				FileMerger.splitIntoHeaderAndData(outputChunk.getMetaVcfFilename(), outHeaderMeta, outDataMeta,
 						imputationParameters);
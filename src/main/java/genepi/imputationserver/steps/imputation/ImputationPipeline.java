@@ -99,19 +99,16 @@ public class ImputationPipeline {
 			output.setChromosome("X");
 		}
 
-		// create tabix index
-		Command tabix = new Command(tabixCommand);
-		tabix.setSilent(false);
-		tabix.setParams(output.getVcfFilename());
-		System.out.println("Command: " + tabix.getExecutedCommand());
-		if (tabix.execute() != 0) {
-			System.out.println("Error during index creation: " + tabix.getStdOut());
+		// create tabix index, chunks from quality control are already indexed
+		if (!createIndex(output.getVcfFilename())) {
 			return false;
 		}
 
 		if (chunk.isPhased()) {
 
 			FileUtils.moveFile(new File(output.getVcfFilename()), new File(output.getPhasedVcfFilename()));
+			FileUtils.moveFile(new File(output.getVcfFilename() + ".tbi"),
+					new File(output.getPhasedVcfFilename() + ".tbi"));
 			System.out.println("Chunk already phased. Move file " + output.getVcfFilename() + " to "
 					+ output.getPhasedVcfFilename() + ".");
 
@@ -294,13 +291,8 @@ public class ImputationPipeline {
 	public boolean imputeVCF(VcfChunkOutput output)
 			throws InterruptedException, IOException, CompilationFailedException {
 
-		// create tabix index
-		Command tabix = new Command(tabixCommand);
-		tabix.setSilent(false);
-		tabix.setParams(output.getPhasedVcfFilename());
-		System.out.println("Command: " + tabix.getExecutedCommand());
-		if (tabix.execute() != 0) {
-			System.out.println("Error during index creation: " + tabix.getStdOut());
+		// create tabix index, not needed for chunks that were already phased
+		if (!createIndex(output.getPhasedVcfFilename())) {
 			return false;
 		}
 
@@ -396,6 +388,32 @@ public class ImputationPipeline {
 
 	}
 
+	private boolean createIndex(String vcfFilename) throws IOException, InterruptedException {
+
+		// an index older than the vcf file belongs to a former version of it
+		File index = new File(vcfFilename + ".tbi");
+		if (index.exists()) {
+			if (index.lastModified() >= new File(vcfFilename).lastModified()) {
+				System.out.println("Index " + vcfFilename + ".tbi found.");
+				return true;
+			}
+			System.out.println("Index " + vcfFilename + ".tbi is outdated.");
+			index.delete();
+		}
+
+		Command tabix = new Command(tabixCommand);
+		tabix.setSilent(false);
+		tabix.setParams(vcfFilename);
+		System.out.println("Command: " + tabix.getExecutedCommand());
+		if (tabix.execute() != 0) {
+			System.out.println("Error during index creation: " + tabix.getStdOut());
+			return false;
+		}
+
+		return true;
+
+	}
+
 	public void setTabixCommand(String tabixCommand) {
 		this.tabixCommand = tabixCommand;
 	}
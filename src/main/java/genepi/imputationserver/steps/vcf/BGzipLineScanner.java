@@ -0,0 +1,323 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scans the lines of a BGZF compressed text file with several threads. The
+ * block headers are used to split the file into ranges of about the same
+ * uncompressed size. Every range is read from its virtual file offset and
+ * processes all lines starting inside the range. Results are returned in
+ * file order, together with the uncompressed offset of each line.
+ */
+public class BGzipLineScanner {
+
+	private static final int BLOCK_HEADER_LENGTH = 18;
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	// ranges per thread, smaller ranges balance the load
+	private static final int RANGES_PER_THREAD = 4;
+
+	public static interface ILineHandler<T> {
+
+		/**
+		 * Creates the result object of a range.
+		 */
+		public T createResult();
+
+		/**
+		 * Processes a line (without line break) starting at the given
+		 * uncompressed file offset.
+		 */
+		public void processLine(T result, byte[] buffer, int offset, int length, long fileOffset)
+				throws IOException;
+
+	}
+
+	private String filename;
+
+	// address and uncompressed start of every block
+	private long[] addresses;
+
+	private long[] starts;
+
+	private int blocks;
+
+	private long size;
+
+	public BGzipLineScanner(String filename) throws IOException {
+		this.filename = filename;
+		readBlocks();
+	}
+
+	/**
+	 * Returns true if the file is BGZF compressed.
+	 */
+	public static boolean isBGzip(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			byte[] header = new byte[BLOCK_HEADER_LENGTH];
+			return file.read(header) == BLOCK_HEADER_LENGTH && isValidHeader(header);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Uncompressed size of the file.
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	public <T> List<T> scan(final ILineHandler<T> handler, int threads) throws IOException {
+
+		// split into ranges at block boundaries
+		int ranges = (int) Math.max(1, Math.min(blocks, (long) threads * RANGES_PER_THREAD));
+		final long[] rangeStarts = new long[ranges + 1];
+		for (int i = 0; i < ranges; i++) {
+			int block = (int) ((long) blocks * i / ranges);
+			rangeStarts[i] = starts[block];
+		}
+		rangeStarts[ranges] = size;
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+
+		try {
+
+			List<Future<T>> futures = new Vector<Future<T>>();
+			for (int i = 0; i < ranges; i++) {
+				final long start = rangeStarts[i];
+				final long end = rangeStarts[i + 1];
+				futures.add(executor.submit(new Callable<T>() {
+					@Override
+					public T call() throws Exception {
+						return scanRange(handler, start, end);
+					}
+				}));
+			}
+
+			List<T> results = new Vector<T>();
+			for (Future<T> future : futures) {
+				results.add(getResult(future));
+			}
+			return results;
+
+		} finally {
+			executor.shutdownNow();
+		}
+
+	}
+
+	// processes all lines starting in [start, end)
+	private <T> T scanRange(ILineHandler<T> handler, long start, long end) throws IOException {
+
+		T result = handler.createResult();
+
+		if (start >= end) {
+			return result;
+		}
+
+		// read the byte before the range to find out if a line starts at the
+		// beginning of the range
+		long position = Math.max(0, start - 1);
+		InputStream in = ParallelBGzipInputStream.open(filename, getVirtualOffset(position));
+
+		try {
+
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int bufferStart = 0;
+			int limit = 0;
+			boolean eof = false;
+
+			// uncompressed offset of buffer[0]
+			long bufferOffset = position;
+
+			boolean skipLine = start > 0;
+			if (skipLine) {
+				int value = in.read();
+				if (value == -1) {
+					return result;
+				}
+				bufferOffset++;
+				skipLine = value != '\n';
+			}
+
+			int scan = 0;
+
+			while (true) {
+
+				// find next line break
+				int lineEnd = -1;
+				for (; scan < limit; scan++) {
+					if (buffer[scan] == '\n') {
+						lineEnd = scan;
+						break;
+					}
+				}
+
+				if (lineEnd == -1) {
+
+					if (eof) {
+						// last line without line break
+						if (bufferStart < limit && !skipLine) {
+							long lineOffset = bufferOffset + bufferStart;
+							if (lineOffset < end) {
+								processLine(handler, result, buffer, bufferStart, limit, lineOffset);
+							}
+						}
+						return result;
+					}
+
+					// move the incomplete line to the beginning of the buffer
+					int remaining = limit - bufferStart;
+					if (bufferStart > 0) {
+						System.arraycopy(buffer, bufferStart, buffer, 0, remaining);
+						bufferOffset += bufferStart;
+						scan -= bufferStart;
+						bufferStart = 0;
+						limit = remaining;
+					}
+					if (limit == buffer.length) {
+						buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					}
+
+					int read = in.read(buffer, limit, buffer.length - limit);
+					if (read == -1) {
+						eof = true;
+					} else {
+						limit += read;
+					}
+					continue;
+
+				}
+
+				long lineOffset = bufferOffset + bufferStart;
+				if (lineOffset >= end) {
+					return result;
+				}
+
+				if (skipLine) {
+					// rest of a line that starts in the previous range
+					skipLine = false;
+				} else {
+					processLine(handler, result, buffer, bufferStart, lineEnd, lineOffset);
+				}
+
+				bufferStart = lineEnd + 1;
+				scan = bufferStart;
+
+			}
+
+		} finally {
+			in.close();
+		}
+
+	}
+
+	private <T> void processLine(ILineHandler<T> handler, T result, byte[] buffer, int start, int end,
+			long fileOffset) throws IOException {
+		// remove \r from windows line endings
+		if (end > start && buffer[end - 1] == '\r') {
+			end--;
+		}
+		handler.processLine(result, buffer, start, end - start, fileOffset);
+	}
+
+	// virtual offset of an uncompressed offset
+	long getVirtualOffset(long position) {
+		int block = Arrays.binarySearch(starts, 0, blocks, position);
+		if (block < 0) {
+			block = -block - 2;
+		} else {
+			// skip empty blocks
+			while (block + 1 < blocks && starts[block + 1] == position) {
+				block++;
+			}
+		}
+		return (addresses[block] << 16) | (position - starts[block]);
+	}
+
+	// reads address and size of all blocks from their headers and footers
+	private void readBlocks() throws IOException {
+
+		addresses = new long[1024];
+		starts = new long[1024];
+		blocks = 0;
+		size = 0;
+
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+
+		try {
+
+			long length = file.length();
+			long address = 0;
+			byte[] header = new byte[BLOCK_HEADER_LENGTH];
+			byte[] footer = new byte[4];
+
+			while (address < length) {
+
+				file.seek(address);
+				file.readFully(header);
+				if (!isValidHeader(header)) {
+					throw new IOException("Invalid BGZF block at offset " + address + " in file '" + filename + "'.");
+				}
+				int blockSize = ((header[16] & 0xff) | ((header[17] & 0xff) << 8)) + 1;
+
+				file.seek(address + blockSize - 4);
+				file.readFully(footer);
+				int uncompressedSize = (footer[0] & 0xff) | ((footer[1] & 0xff) << 8) | ((footer[2] & 0xff) << 16)
+						| ((footer[3] & 0xff) << 24);
+
+				if (blocks == addresses.length) {
+					addresses = Arrays.copyOf(addresses, blocks * 2);
+					starts = Arrays.copyOf(starts, blocks * 2);
+				}
+				addresses[blocks] = address;
+				starts[blocks] = size;
+				blocks++;
+
+				size += uncompressedSize;
+				address += blockSize;
+
+			}
+
+		} finally {
+			file.close();
+		}
+
+	}
+
+	private static boolean isValidHeader(byte[] header) {
+		return (header[0] & 0xff) == 31 && (header[1] & 0xff) == 139 && header[2] == 8 && (header[3] & 4) != 0
+				&& header[10] == 6 && header[11] == 0 && header[12] == 'B' && header[13] == 'C' && header[14] == 2
+				&& header[15] == 0;
+	}
+
+	private static <T> T getResult(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while scanning file.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+}
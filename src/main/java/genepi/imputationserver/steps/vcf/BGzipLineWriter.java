@@ -1,37 +1,88 @@
 package genepi.imputationserver.steps.vcf;
 
-import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.util.zip.GZIPOutputStream;
+import java.nio.charset.StandardCharsets;
 
-import htsjdk.samtools.util.BlockCompressedOutputStream;
+public class BGzipLineWriter implements Closeable {
 
-public class BGzipLineWriter {
-
-	private BufferedWriter bw;
+	private ParallelBGzipOutputStream out;
 
 	private boolean first = true;
 
+	private String filename;
+
+	private TabixIndexBuilder index;
+
 	public BGzipLineWriter(String filename) throws IOException {
-		bw = new BufferedWriter(new OutputStreamWriter(new BlockCompressedOutputStream(new File(filename))));
+		this(filename, false);
+	}
+
+	/**
+	 * Creates a writer that builds the tabix index (filename + ".tbi") on the
+	 * fly. Records have to be sorted.
+	 */
+	public BGzipLineWriter(String filename, boolean createIndex) throws IOException {
+		this(filename, createIndex, ParallelBGzipOutputStream.DEFAULT_LEVEL);
+	}
+
+	public BGzipLineWriter(String filename, boolean createIndex, int level) throws IOException {
+		this.filename = filename;
+		out = new ParallelBGzipOutputStream(new File(filename), level);
 		first = true;
+		if (createIndex) {
+			index = new TabixIndexBuilder();
+		}
 	}
 
 	public void write(String line) throws IOException {
 		if (first) {
 			first = false;
 		} else {
-			bw.newLine();
+			out.write('\n');
+		}
+
+		long offsetStart = out.getBlockPointer();
+		out.write(line.getBytes(StandardCharsets.UTF_8));
+
+		if (index != null) {
+			index.addLine(line, offsetStart, out.getBlockPointer());
+		}
+	}
+
+	/**
+	 * Writes the record bytes as they were read from the input file, without
+	 * creating a String or encoding characters.
+	 */
+	public void write(MinimalVariantContext snp) throws IOException {
+		if (snp.getRawBuffer() == null) {
+			write(snp.getRawLine());
+			return;
+		}
+
+		if (first) {
+			first = false;
+		} else {
+			out.write('\n');
 		}
 
-		bw.write(line);
+		long offsetStart = out.getBlockPointer();
+		out.write(snp.getRawBuffer(), snp.getRawOffset(), snp.getRawLength());
+
+		if (index != null) {
+			int start = snp.getStart() - 1;
+			index.addRecord(snp.getContig(), start, start + snp.getReferenceAllele().length(), offsetStart,
+					out.getBlockPointer());
+		}
 	}
 
 	public void close() throws IOException {
-		bw.close();
+		out.close();
+		if (index != null) {
+			// block pointers are known as file offsets after all blocks are written
+			index.write(TabixIndex.getFilename(filename), out::toFilePointer);
+		}
 	}
 
 }
@@ -0,0 +1,652 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Reads BCF 2.2 files. Genotypes are decoded from the typed GT values
+ * directly into MinimalVariantContext, all other fields are encoded as VCF
+ * text into a reusable buffer, so records can be written unchanged into VCF
+ * chunks. Records are only valid until the next call of next().
+ */
+public class BcfFileReader implements IVcfFileReader {
+
+	private static final int TYPE_MISSING = 0;
+
+	private static final int TYPE_INT8 = 1;
+
+	private static final int TYPE_INT16 = 2;
+
+	private static final int TYPE_INT32 = 3;
+
+	private static final int TYPE_FLOAT = 5;
+
+	private static final int TYPE_CHAR = 7;
+
+	private static final int MISSING = Integer.MIN_VALUE;
+
+	private static final int END_OF_VECTOR = Integer.MIN_VALUE + 1;
+
+	private static final int FLOAT_MISSING = 0x7F800001;
+
+	private static final int FLOAT_END_OF_VECTOR = 0x7F800002;
+
+	// CHROM, POS, ID, REF, ALT, QUAL, FILTER, INFO, FORMAT
+	private static final int FIXED_FIELDS = 9;
+
+	private DataInputStream in;
+
+	private List<String> header = new Vector<String>();
+
+	private List<String> samples = new Vector<String>();
+
+	private List<String> dictionary = new Vector<String>();
+
+	private List<String> contigs = new Vector<String>();
+
+	private MinimalVariantContext variantContext;
+
+	private int samplesCount;
+
+	private int snpsCount = 0;
+
+	private int lineNumber = 0;
+
+	// raw record
+	private byte[] data = new byte[64 * 1024];
+
+	private int cursor;
+
+	// typed value descriptor of the last readDescriptor call
+	private int type;
+
+	private int count;
+
+	// record as VCF text
+	private byte[] line = new byte[64 * 1024];
+
+	private int lineLength;
+
+	private int[] fieldStarts = new int[FIXED_FIELDS + 1];
+
+	private int[] fieldEnds = new int[FIXED_FIELDS];
+
+	// format keys and their positions in the current record
+	private int[] formatKeys = new int[16];
+
+	private int[] formatTypes = new int[16];
+
+	private int[] formatCounts = new int[16];
+
+	private int[] formatOffsets = new int[16];
+
+	public BcfFileReader(String filename) throws IOException {
+
+		in = new DataInputStream(ParallelBGzipInputStream.open(filename));
+
+		byte[] magic = new byte[5];
+		in.readFully(magic);
+		if (magic[0] != 'B' || magic[1] != 'C' || magic[2] != 'F' || magic[3] != 2) {
+			in.close();
+			throw new IOException("The provided file '" + filename + "' is not a valid BCF file.");
+		}
+
+		int headerLength = readUInt32();
+		byte[] text = new byte[headerLength];
+		in.readFully(text);
+
+		int length = headerLength;
+		while (length > 0 && text[length - 1] == 0) {
+			length--;
+		}
+		parseHeader(new String(text, 0, length, StandardCharsets.UTF_8));
+
+		samplesCount = samples.size();
+		variantContext = new MinimalVariantContext(samplesCount);
+
+	}
+
+	private void parseHeader(String text) throws IOException {
+
+		// PASS is always the first entry of the dictionary
+		dictionary.add("PASS");
+
+		for (String headerLine : text.split("\n")) {
+
+			if (headerLine.isEmpty()) {
+				continue;
+			}
+			header.add(headerLine);
+
+			if (headerLine.startsWith("##contig=<")) {
+				addEntry(contigs, headerLine);
+			} else if (headerLine.startsWith("##FILTER=<") || headerLine.startsWith("##INFO=<")
+					|| headerLine.startsWith("##FORMAT=<")) {
+				addEntry(dictionary, headerLine);
+			} else if (headerLine.startsWith("#CHROM")) {
+				String[] tiles = headerLine.split("\t");
+				for (int i = 9; i < tiles.length; i++) {
+					samples.add(tiles[i]);
+				}
+			}
+
+		}
+
+	}
+
+	// uses IDX if available, otherwise the order of the header lines
+	private void addEntry(List<String> entries, String headerLine) {
+
+		String id = getAttribute(headerLine, "<ID=");
+		if (id == null) {
+			return;
+		}
+
+		String idx = getAttribute(headerLine, ",IDX=");
+		if (idx != null) {
+			int index = Integer.parseInt(idx);
+			while (entries.size() <= index) {
+				entries.add(null);
+			}
+			entries.set(index, id);
+		} else if (!entries.contains(id)) {
+			entries.add(id);
+		}
+
+	}
+
+	private String getAttribute(String headerLine, String key) {
+		int start = headerLine.indexOf(key);
+		if (start == -1) {
+			return null;
+		}
+		start += key.length();
+		int end = start;
+		while (end < headerLine.length() && headerLine.charAt(end) != ',' && headerLine.charAt(end) != '>') {
+			end++;
+		}
+		return headerLine.substring(start, end);
+	}
+
+	@Override
+	public boolean next() throws IOException {
+
+		int sharedLength;
+		try {
+			sharedLength = readUInt32();
+		} catch (EOFException e) {
+			return false;
+		}
+		int indivLength = readUInt32();
+
+		int length = sharedLength + indivLength;
+		if (data.length < length) {
+			data = new byte[Math.max(length, data.length * 2)];
+		}
+		in.readFully(data, 0, length);
+
+		lineNumber++;
+		lineLength = 0;
+		cursor = 0;
+
+		int chrom = readInt32();
+		int position = readInt32() + 1;
+		cursor += 4; // rlen
+		int qual = readInt32();
+		int alleleInfo = readInt32();
+		int sampleFormat = readInt32();
+
+		int alleles = alleleInfo >>> 16;
+		int infos = alleleInfo & 0xffff;
+		int samplesInRecord = sampleFormat & 0xffffff;
+		int formats = sampleFormat >>> 24;
+
+		if (samplesInRecord != samplesCount) {
+			throw new IOException("Line " + getLineNumber() + ": different number of samples.");
+		}
+
+		// CHROM
+		startField(0);
+		appendString(chrom >= 0 && chrom < contigs.size() ? contigs.get(chrom) : String.valueOf(chrom));
+		endField(0);
+
+		// POS
+		startField(1);
+		appendInt(position);
+		endField(1);
+
+		// ID
+		startField(2);
+		readDescriptor();
+		appendChars(count, true);
+		endField(2);
+
+		// REF and ALT
+		startField(3);
+		if (alleles > 0) {
+			readDescriptor();
+			appendChars(count, false);
+		}
+		endField(3);
+
+		startField(4);
+		if (alleles < 2) {
+			append('.');
+		}
+		for (int i = 1; i < alleles; i++) {
+			if (i > 1) {
+				append(',');
+			}
+			readDescriptor();
+			appendChars(count, false);
+		}
+		endField(4);
+
+		// QUAL
+		startField(5);
+		appendFloat(qual);
+		endField(5);
+
+		// FILTER
+		startField(6);
+		readDescriptor();
+		if (count == 0) {
+			append('.');
+		}
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				append(';');
+			}
+			appendString(dictionary.get(readInt(type)));
+		}
+		endField(6);
+
+		// INFO
+		startField(7);
+		if (infos == 0) {
+			append('.');
+		}
+		for (int i = 0; i < infos; i++) {
+			if (i > 0) {
+				append(';');
+			}
+			readDescriptor();
+			appendString(dictionary.get(readInt(type)));
+			readDescriptor();
+			if (type != TYPE_MISSING && count > 0) {
+				append('=');
+				appendValues(type, count);
+			}
+		}
+		endField(7);
+
+		// FORMAT, values are interleaved by sample in the text output
+		cursor = sharedLength;
+		if (formats > formatKeys.length) {
+			formatKeys = new int[formats];
+			formatTypes = new int[formats];
+			formatCounts = new int[formats];
+			formatOffsets = new int[formats];
+		}
+
+		int gt = -1;
+		startField(8);
+		for (int i = 0; i < formats; i++) {
+			readDescriptor();
+			formatKeys[i] = readInt(type);
+			readDescriptor();
+			formatTypes[i] = type;
+			formatCounts[i] = count;
+			formatOffsets[i] = cursor;
+			cursor += samplesInRecord * count * getSize(type);
+
+			String key = dictionary.get(formatKeys[i]);
+			if (i > 0) {
+				append(':');
+			}
+			appendString(key);
+			if (gt == -1 && key.equals("GT")) {
+				gt = i;
+			}
+		}
+		endField(8);
+
+		if (gt == -1) {
+			throw new IOException("No GT field found in FORMAT column.");
+		}
+
+		parseGenotypes(gt, samplesInRecord);
+
+		for (int sample = 0; sample < samplesInRecord; sample++) {
+			append('\t');
+			for (int i = 0; i < formats; i++) {
+				if (i > 0) {
+					append(':');
+				}
+				int size = getSize(formatTypes[i]);
+				cursor = formatOffsets[i] + sample * formatCounts[i] * size;
+				if (i == gt) {
+					appendGenotype(formatTypes[i], formatCounts[i]);
+				} else {
+					appendValues(formatTypes[i], formatCounts[i]);
+				}
+			}
+		}
+
+		variantContext.setRecord(line, 0, lineLength, fieldStarts, fieldEnds);
+		variantContext.setStart(position);
+		variantContext.setNSamples(samplesInRecord);
+
+		snpsCount++;
+
+		return true;
+
+	}
+
+	// same rules as VCFLineParser
+	private void parseGenotypes(int gt, int samplesInRecord) {
+
+		int type = formatTypes[gt];
+		int ploidy = formatCounts[gt];
+		int size = getSize(type);
+
+		int homRefCount = 0;
+		int homVarCount = 0;
+		int hetCount = 0;
+		int noCallCount = 0;
+
+		long called = 0;
+		long firstAlt = 0;
+		long secondAlt = 0;
+
+		cursor = formatOffsets[gt];
+
+		for (int sample = 0; sample < samplesInRecord; sample++) {
+
+			int countR = 0;
+			int countV = 0;
+			int countNo = 0;
+
+			int end = cursor + ploidy * size;
+			for (int allele = 0; allele < ploidy; allele++) {
+				int value = readInt(type);
+				if (value == END_OF_VECTOR) {
+					break;
+				}
+				int index = value == MISSING ? -1 : (value >> 1) - 1;
+				if (index == 1) {
+					countV++;
+					if (allele == 0) {
+						firstAlt |= 1L << sample;
+					} else if (allele == 1) {
+						secondAlt |= 1L << sample;
+					}
+				} else if (index == 0) {
+					countR++;
+				} else if (index == -1) {
+					countNo++;
+				}
+			}
+			cursor = end;
+
+			if (countR == 2 || (countR == 1 && countV == 0)) {
+				homRefCount++;
+			} else if (countV == 2 || (countV == 1 && countR == 0)) {
+				homVarCount++;
+			} else if (countV == 1 && countR == 1) {
+				hetCount++;
+			}
+
+			if (countNo == 2 || (countNo == 1 && countV == 0 && countR == 0)) {
+				noCallCount++;
+			} else {
+				called |= 1L << sample;
+			}
+
+			// word complete, store the next 64 samples
+			if (((sample + 1) & 63) == 0 || sample == samplesInRecord - 1) {
+				variantContext.setGenotypeWord(sample >>> 6, called, firstAlt, secondAlt);
+				called = 0;
+				firstAlt = 0;
+				secondAlt = 0;
+			}
+
+		}
+
+		variantContext.setHetCount(hetCount);
+		variantContext.setHomRefCount(homRefCount);
+		variantContext.setHomVarCount(homVarCount);
+		variantContext.setNoCallCount(noCallCount);
+
+	}
+
+	private void appendGenotype(int type, int ploidy) {
+		int end = cursor + ploidy * getSize(type);
+		for (int allele = 0; allele < ploidy; allele++) {
+			int value = readInt(type);
+			if (value == END_OF_VECTOR) {
+				break;
+			}
+			if (allele > 0) {
+				append((value & 1) == 1 ? '|' : '/');
+			}
+			if (value == MISSING || (value >> 1) == 0) {
+				append('.');
+			} else {
+				appendInt((value >> 1) - 1);
+			}
+		}
+		if (ploidy == 0) {
+			append('.');
+		}
+		cursor = end;
+	}
+
+	private void appendValues(int type, int count) {
+
+		if (type == TYPE_CHAR) {
+			appendChars(count, true);
+			return;
+		}
+
+		int end = cursor + count * getSize(type);
+		int written = 0;
+		for (int i = 0; i < count; i++) {
+			int value = type == TYPE_FLOAT ? readInt32() : readInt(type);
+			if (type == TYPE_FLOAT ? value == FLOAT_END_OF_VECTOR : value == END_OF_VECTOR) {
+				break;
+			}
+			if (written > 0) {
+				append(',');
+			}
+			if (type == TYPE_FLOAT) {
+				appendFloat(value);
+			} else if (value == MISSING) {
+				append('.');
+			} else {
+				appendInt(value);
+			}
+			written++;
+		}
+		if (written == 0) {
+			append('.');
+		}
+		cursor = end;
+
+	}
+
+	private void readDescriptor() {
+		int descriptor = data[cursor++] & 0xff;
+		type = descriptor & 0x0f;
+		count = descriptor >>> 4;
+		if (count == 15) {
+			int countType = data[cursor++] & 0x0f;
+			count = readInt(countType);
+		}
+	}
+
+	private int readInt(int type) {
+		int value;
+		switch (type) {
+		case TYPE_INT8:
+			value = data[cursor];
+			cursor += 1;
+			if (value == (byte) 0x80) {
+				return MISSING;
+			} else if (value == (byte) 0x81) {
+				return END_OF_VECTOR;
+			}
+			return value;
+		case TYPE_INT16:
+			value = (short) ((data[cursor] & 0xff) | ((data[cursor + 1] & 0xff) << 8));
+			cursor += 2;
+			if (value == (short) 0x8000) {
+				return MISSING;
+			} else if (value == (short) 0x8001) {
+				return END_OF_VECTOR;
+			}
+			return value;
+		default:
+			return readInt32();
+		}
+	}
+
+	private int readInt32() {
+		int value = (data[cursor] & 0xff) | ((data[cursor + 1] & 0xff) << 8) | ((data[cursor + 2] & 0xff) << 16)
+				| ((data[cursor + 3] & 0xff) << 24);
+		cursor += 4;
+		return value;
+	}
+
+	private int readUInt32() throws IOException {
+		int b0 = in.read();
+		if (b0 == -1) {
+			throw new EOFException();
+		}
+		return b0 | (in.readUnsignedByte() << 8) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 24);
+	}
+
+	private static int getSize(int type) {
+		switch (type) {
+		case TYPE_INT8:
+		case TYPE_CHAR:
+			return 1;
+		case TYPE_INT16:
+			return 2;
+		case TYPE_INT32:
+		case TYPE_FLOAT:
+			return 4;
+		default:
+			return 0;
+		}
+	}
+
+	private void startField(int field) {
+		if (field > 0) {
+			append('\t');
+		}
+		fieldStarts[field] = lineLength;
+	}
+
+	private void endField(int field) {
+		fieldEnds[field] = lineLength;
+	}
+
+	private void append(char value) {
+		ensureCapacity(1);
+		line[lineLength++] = (byte) value;
+	}
+
+	private void appendString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, line, lineLength, bytes.length);
+		lineLength += bytes.length;
+	}
+
+	// strings are padded with NUL bytes, empty strings are written as '.'
+	private void appendChars(int count, boolean missing) {
+		ensureCapacity(count + 1);
+		int start = lineLength;
+		for (int i = 0; i < count; i++) {
+			byte value = data[cursor + i];
+			if (value == 0) {
+				break;
+			}
+			line[lineLength++] = value;
+		}
+		cursor += count;
+		if (missing && lineLength == start) {
+			line[lineLength++] = '.';
+		}
+	}
+
+	private void appendInt(int value) {
+		if (value >= 0 && value < 10) {
+			append((char) ('0' + value));
+		} else {
+			appendString(Integer.toString(value));
+		}
+	}
+
+	private void appendFloat(int bits) {
+		if (bits == FLOAT_MISSING) {
+			append('.');
+			return;
+		}
+		float value = Float.intBitsToFloat(bits);
+		if (value == (int) value && Math.abs(value) < 1e9) {
+			appendInt((int) value);
+		} else {
+			appendString(Float.toString(value));
+		}
+	}
+
+	private void ensureCapacity(int length) {
+		if (lineLength + length > line.length) {
+			byte[] newLine = new byte[Math.max(line.length * 2, lineLength + length)];
+			System.arraycopy(line, 0, newLine, 0, lineLength);
+			line = newLine;
+		}
+	}
+
+	@Override
+	public MinimalVariantContext getVariantContext() {
+		return variantContext;
+	}
+
+	@Override
+	public List<String> getFileHeader() {
+		return header;
+	}
+
+	@Override
+	public List<String> getGenotypedSamples() {
+		return samples;
+	}
+
+	@Override
+	public int getSnpsCount() {
+		return snpsCount;
+	}
+
+	@Override
+	public int getSamplesCount() {
+		return samplesCount;
+	}
+
+	@Override
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
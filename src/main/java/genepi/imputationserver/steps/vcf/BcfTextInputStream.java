@@ -0,0 +1,81 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Provides a BCF file as VCF text, so it can be used by all line based
+ * readers (LineReader, VCFCodec).
+ */
+public class BcfTextInputStream extends InputStream {
+
+	private BcfFileReader reader;
+
+	private byte[] buffer;
+
+	private int offset;
+
+	private int length;
+
+	private boolean eof = false;
+
+	public BcfTextInputStream(BcfFileReader reader) {
+		this.reader = reader;
+		StringBuilder header = new StringBuilder();
+		for (String line : reader.getFileHeader()) {
+			header.append(line);
+			header.append("\n");
+		}
+		buffer = header.toString().getBytes(StandardCharsets.UTF_8);
+		offset = 0;
+		length = buffer.length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureData()) {
+			return -1;
+		}
+		return buffer[offset++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensureData()) {
+			return -1;
+		}
+		int count = Math.min(len, length - offset);
+		System.arraycopy(buffer, offset, b, off, count);
+		offset += count;
+		return count;
+	}
+
+	private boolean ensureData() throws IOException {
+		while (offset >= length) {
+			if (eof || !reader.next()) {
+				eof = true;
+				return false;
+			}
+			MinimalVariantContext record = reader.getVariantContext();
+			int recordLength = record.getRawLength();
+			if (buffer.length < recordLength + 1) {
+				buffer = new byte[recordLength + 1];
+			}
+			System.arraycopy(record.getRawBuffer(), record.getRawOffset(), buffer, 0, recordLength);
+			buffer[recordLength] = '\n';
+			offset = 0;
+			length = recordLength + 1;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
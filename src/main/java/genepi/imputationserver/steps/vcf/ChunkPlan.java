@@ -0,0 +1,90 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.util.Arrays;
+
+/**
+ * Chunk boundaries of a chromosome. A fixed plan cuts the chromosome every
+ * chunkSize bases (chunk c covers c * chunkSize + 1 to (c + 1) * chunkSize),
+ * a planned one uses sorted start positions, where every chunk ends before
+ * the start of the next one.
+ */
+public class ChunkPlan {
+
+	private int chunkSize;
+
+	private int[] starts;
+
+	private int end;
+
+	public ChunkPlan(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Chunk i covers starts[i] to starts[i + 1] - 1, the last chunk ends at
+	 * end.
+	 */
+	public ChunkPlan(int[] starts, int end) {
+		this.starts = starts;
+		this.end = end;
+	}
+
+	public boolean isFixed() {
+		return starts == null;
+	}
+
+	/**
+	 * Returns the number of chunks, Integer.MAX_VALUE for a fixed plan.
+	 */
+	public int size() {
+		return starts == null ? Integer.MAX_VALUE : starts.length;
+	}
+
+	public boolean contains(int chunk) {
+		return chunk >= 0 && chunk < size();
+	}
+
+	/**
+	 * Returns the chunk of a 1-based position. Positions before the first
+	 * chunk return -1, positions behind the last chunk return size().
+	 */
+	public int getChunk(int position) {
+		if (starts == null) {
+			return (position - 1) / chunkSize;
+		}
+		if (position > end) {
+			return starts.length;
+		}
+		int index = Arrays.binarySearch(starts, position);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	public int getStart(int chunk) {
+		if (starts == null) {
+			return chunk * chunkSize + 1;
+		}
+		return starts[chunk];
+	}
+
+	public int getEnd(int chunk) {
+		if (starts == null) {
+			return (chunk + 1) * chunkSize;
+		}
+		return chunk + 1 < starts.length ? starts[chunk + 1] - 1 : end;
+	}
+
+	public String toString() {
+		if (starts == null) {
+			return "fixed " + chunkSize;
+		}
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < starts.length; i++) {
+			if (i > 0) {
+				builder.append(",");
+			}
+			builder.append(getStart(i) + "-" + getEnd(i));
+		}
+		return builder.toString();
+	}
+
+}
@@ -1,15 +1,19 @@
 package genepi.imputationserver.steps.vcf;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Vector;
 
-import genepi.io.text.LineReader;
-import htsjdk.variant.vcf.VCFFileReader;
-import htsjdk.variant.vcf.VCFHeader;
+/**
+ * Reads records from a (compressed) VCF file without creating a String per
+ * line. Records are parsed directly from the decompressed byte buffer and are
+ * only valid until the next call of next().
+ */
+public class FastVCFFileReader implements IVcfFileReader {
 
-public class FastVCFFileReader extends LineReader {
+	private static final int BUFFER_SIZE = 1024 * 1024;
 
 	private List<String> samples;
 
@@ -23,21 +27,95 @@ public class FastVCFFileReader extends LineReader {
 
 	private VCFLineParser parser;
 
+	private InputStream in;
+
+	private byte[] buffer = new byte[BUFFER_SIZE];
+
+	// start of unprocessed data
+	private int position = 0;
+
+	// end of valid data
+	private int limit = 0;
+
+	private boolean eof = false;
+
+	private int lineNumber = 0;
+
 	public FastVCFFileReader(String vcfFilename) throws IOException {
 
-		super(vcfFilename);
-		// load header
-		VCFFileReader reader = new VCFFileReader(new File(vcfFilename), false);
-		VCFHeader header = reader.getFileHeader();
-		samples = header.getGenotypeSamples();
+		in = ParallelBGzipInputStream.open(vcfFilename);
+
+		// load header, samples are taken from the #CHROM line
+		readHeader();
+
+		if (samples == null) {
+			in.close();
+			throw new IOException("The provided VCF file '" + vcfFilename + "' contains no #CHROM header line.");
+		}
+
 		samplesCount = samples.size();
 		variantContext = new MinimalVariantContext(samplesCount);
-		reader.close();
-
 		parser = new VCFLineParser(samplesCount);
 
 	}
 
+	/**
+	 * Reads the header and continues with the record at the given virtual
+	 * file offset. The file has to be BGZF compressed.
+	 */
+	public FastVCFFileReader(String vcfFilename, long virtualOffset) throws IOException {
+
+		this(vcfFilename);
+
+		if (virtualOffset > 0) {
+			in.close();
+			in = ParallelBGzipInputStream.open(vcfFilename, virtualOffset);
+			position = 0;
+			limit = 0;
+			eof = false;
+		}
+
+	}
+
+	private void readHeader() throws IOException {
+
+		while (true) {
+
+			int lineEnd = findLineEnd();
+
+			if (lineEnd == -1) {
+				return;
+			}
+
+			int length = lineEnd - position;
+			if (length > 0 && buffer[lineEnd - 1] == '\r') {
+				length--;
+			}
+
+			// first record, keep it for next()
+			if (length > 0 && buffer[position] != '#') {
+				return;
+			}
+
+			if (length > 0) {
+				String line = new String(buffer, position, length, StandardCharsets.UTF_8);
+				header.add(line);
+				if (line.startsWith("#CHROM")) {
+					String[] tiles = line.split("\t");
+					samples = new Vector<String>();
+					for (int i = 9; i < tiles.length; i++) {
+						samples.add(tiles[i]);
+					}
+				}
+			}
+
+			position = lineEnd + 1;
+			lineNumber++;
+
+		}
+
+	}
+
 	public List<String> getGenotypedSamples() {
 		return samples;
 	}
@@ -54,29 +132,119 @@ public class FastVCFFileReader extends LineReader {
 		return samplesCount;
 	}
 
-	@Override
-	protected void parseLine(String line) throws IOException {
+	public int getLineNumber() {
+		return lineNumber;
+	}
 
-		// not a header line
-		if (line.charAt(0) != '#') {
+	public boolean next() throws IOException {
 
-			variantContext = parser.parseLine(line);
+		while (true) {
 
-			if (variantContext.getNSamples() != samplesCount) {
-				throw new IOException("Line " + getLineNumber() + ": different number of samples.");
+			int lineEnd = findLineEnd();
+
+			if (lineEnd == -1) {
+				return false;
 			}
 
-			snpsCount++;
+			int lineStart = position;
+			position = lineEnd + 1;
+			lineNumber++;
+
+			// remove \r from windows line endings
+			int length = lineEnd - lineStart;
+			if (length > 0 && buffer[lineEnd - 1] == '\r') {
+				length--;
+			}
+
+			if (length == 0) {
+				continue;
+			}
+
+			// not a header line
+			if (buffer[lineStart] != '#') {
+
+				variantContext = parser.parseLine(buffer, lineStart, length);
+
+				if (variantContext.getNSamples() != samplesCount) {
+					throw new IOException("Line " + getLineNumber() + ": different number of samples.");
+				}
+
+				snpsCount++;
+
+				return true;
+
+			} else {
+				header.add(new String(buffer, lineStart, length, StandardCharsets.UTF_8));
+			}
 
-		} else {
-			header.add(line);
-			next();
 		}
 
 	}
 
+	// returns the index of the next '\n' (or of the virtual end of the last
+	// line) and refills the buffer if needed. -1 if all data was consumed.
+	private int findLineEnd() throws IOException {
+
+		int scan = position;
+
+		while (true) {
+
+			for (; scan < limit; scan++) {
+				if (buffer[scan] == '\n') {
+					return scan;
+				}
+			}
+
+			if (eof) {
+				if (position < limit) {
+					// last line without line break
+					if (limit == buffer.length) {
+						grow();
+					}
+					buffer[limit] = '\n';
+					limit++;
+					return limit - 1;
+				}
+				return -1;
+			}
+
+			// move the incomplete line to the beginning of the buffer
+			int remaining = limit - position;
+			if (position > 0) {
+				System.arraycopy(buffer, position, buffer, 0, remaining);
+				scan -= position;
+				position = 0;
+				limit = remaining;
+			}
+
+			// line is longer than the buffer
+			if (limit == buffer.length) {
+				grow();
+			}
+
+			int read = in.read(buffer, limit, buffer.length - limit);
+			if (read == -1) {
+				eof = true;
+			} else {
+				limit += read;
+			}
+
+		}
+
+	}
+
+	private void grow() {
+		byte[] newBuffer = new byte[buffer.length * 2];
+		System.arraycopy(buffer, 0, newBuffer, 0, limit);
+		buffer = newBuffer;
+	}
+
 	public List<String> getFileHeader() {
 		return header;
 	}
 
+	public void close() throws IOException {
+		in.close();
+	}
+
 }
@@ -0,0 +1,24 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.IOException;
+import java.util.List;
+
+public interface IVcfFileReader {
+
+	public boolean next() throws IOException;
+
+	public MinimalVariantContext getVariantContext();
+
+	public List<String> getFileHeader();
+
+	public List<String> getGenotypedSamples();
+
+	public int getSnpsCount();
+
+	public int getSamplesCount();
+
+	public int getLineNumber();
+
+	public void close() throws IOException;
+
+}
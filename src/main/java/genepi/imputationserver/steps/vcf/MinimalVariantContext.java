@@ -1,7 +1,18 @@
 package genepi.imputationserver.steps.vcf;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 public class MinimalVariantContext {
 
+	private static final int CHROM = 0;
+
+	private static final int REF = 3;
+
+	private static final int ALT = 4;
+
+	private static final int FILTER = 6;
+
 	public final static String NO_FILTERS = "";
 
 	private int start;
@@ -26,14 +37,91 @@ public class MinimalVariantContext {
 
 	private String filters;
 
-	private boolean[] genotypes;
+	// genotypes as bit-planes, 64 samples per word
+	private long[] called;
+
+	private long[] firstAlt;
+
+	private long[] secondAlt;
 
 	private String id = null;
 
 	private String genotype = null;
 
+	// raw record, fields are materialized lazily
+	private byte[] buffer;
+
+	private int offset;
+
+	private int length;
+
+	private int[] fieldStarts = new int[FILTER + 1];
+
+	private int[] fieldEnds = new int[FILTER + 1];
+
+	private boolean filtersLoaded = true;
+
 	public MinimalVariantContext(int samples) {
-		genotypes = new boolean[samples];
+		int words = getWords(samples);
+		called = new long[words];
+		firstAlt = new long[words];
+		secondAlt = new long[words];
+	}
+
+	public static int getWords(int samples) {
+		return (samples + 63) >>> 6;
+	}
+
+	/**
+	 * Sets the raw record. CHROM, REF, ALT, FILTER and the line itself are
+	 * created from the buffer on first access.
+	 */
+	public void setRecord(byte[] buffer, int offset, int length, int[] starts, int[] ends) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+		System.arraycopy(starts, 0, fieldStarts, 0, fieldStarts.length);
+		System.arraycopy(ends, 0, fieldEnds, 0, fieldEnds.length);
+		this.contig = null;
+		this.referenceAllele = null;
+		this.alternateAllele = null;
+		this.filters = null;
+		this.filtersLoaded = false;
+		this.rawLine = null;
+		this.id = null;
+		this.genotype = null;
+	}
+
+	public byte[] getRawBuffer() {
+		return buffer;
+	}
+
+	public int getRawOffset() {
+		return offset;
+	}
+
+	public int getRawLength() {
+		return length;
+	}
+
+	private String field(int field) {
+		return new String(buffer, fieldStarts[field], fieldEnds[field] - fieldStarts[field], StandardCharsets.UTF_8);
+	}
+
+	private int fieldLength(int field) {
+		return fieldEnds[field] - fieldStarts[field];
+	}
+
+	private boolean fieldEquals(int field, String value) {
+		if (fieldLength(field) != value.length()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (buffer[fieldStarts[field] + i] != value.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public int getHetCount() {
@@ -82,6 +170,9 @@ public class MinimalVariantContext {
 	}
 
 	public String getContig() {
+		if (contig == null && buffer != null) {
+			contig = field(CHROM);
+		}
 		return contig;
 	}
 
@@ -91,6 +182,9 @@ public class MinimalVariantContext {
 	}
 
 	public String getReferenceAllele() {
+		if (referenceAllele == null && buffer != null) {
+			referenceAllele = field(REF);
+		}
 		return referenceAllele;
 	}
 
@@ -101,6 +195,9 @@ public class MinimalVariantContext {
 	}
 
 	public String getAlternateAllele() {
+		if (alternateAllele == null && buffer != null) {
+			alternateAllele = field(ALT);
+		}
 		return alternateAllele;
 	}
 
@@ -125,28 +222,42 @@ public class MinimalVariantContext {
 	}
 
 	public String getRawLine() {
+		if (rawLine == null && buffer != null) {
+			rawLine = new String(buffer, offset, length, StandardCharsets.UTF_8);
+		}
 		return rawLine;
 	}
 
 	public boolean isFiltered() {
+		if (!filtersLoaded) {
+			return !fieldEquals(FILTER, "PASS") && !fieldEquals(FILTER, ".");
+		}
 		return filters != null && !filters.isEmpty();
 	}
 
 	public String getFilters() {
+		if (!filtersLoaded) {
+			filters = isFiltered() ? field(FILTER) : null;
+			filtersLoaded = true;
+		}
 		return filters;
 	}
 
 	public void setFilters(String filters) {
 		this.filters = filters;
+		this.filtersLoaded = true;
 		this.id = null;
 	}
 
 	public boolean isIndel() {
+		if (referenceAllele == null && alternateAllele == null && buffer != null) {
+			return fieldLength(REF) > 1 || fieldLength(ALT) > 1;
+		}
 		return getReferenceAllele().length() > 1 || getAlternateAllele().length() > 1;
 	}
 
 	public boolean isComplexIndel() {
-		return getReferenceAllele().length() > 1 || getAlternateAllele().length() > 1;
+		return isIndel();
 	}
 
 	public boolean isMonomorphicInSamples() {
@@ -154,20 +265,77 @@ public class MinimalVariantContext {
 	}
 
 	public void setCalled(int sample, boolean called) {
-		genotypes[sample] = called;
+		ensureWords(sample);
+		long mask = 1L << sample;
+		if (called) {
+			this.called[sample >>> 6] |= mask;
+		} else {
+			this.called[sample >>> 6] &= ~mask;
+		}
 		this.id = null;
 	}
 
 	public boolean isCalled(int sample) {
-		return genotypes[sample];
+		return (called[sample >>> 6] & (1L << sample)) != 0;
+	}
+
+	/**
+	 * Sets the genotypes of 64 samples at once. Bit i of each plane belongs to
+	 * sample word * 64 + i.
+	 */
+	public void setGenotypeWord(int word, long called, long firstAlt, long secondAlt) {
+		ensureWords(word << 6);
+		this.called[word] = called;
+		this.firstAlt[word] = firstAlt;
+		this.secondAlt[word] = secondAlt;
+	}
+
+	public long[] getCalledWords() {
+		return called;
+	}
+
+	public long[] getFirstAltWords() {
+		return firstAlt;
+	}
+
+	public long[] getSecondAltWords() {
+		return secondAlt;
+	}
+
+	public int getCalledCount() {
+		int count = 0;
+		int words = getWords(nSamples);
+		for (int i = 0; i < words; i++) {
+			count += Long.bitCount(called[i]);
+		}
+		return count;
+	}
+
+	public int getAltAlleleCount() {
+		int count = 0;
+		int words = getWords(nSamples);
+		for (int i = 0; i < words; i++) {
+			count += Long.bitCount(firstAlt[i] & called[i]) + Long.bitCount(secondAlt[i] & called[i]);
+		}
+		return count;
+	}
+
+	// lines with more samples than the header are reported by the reader
+	private void ensureWords(int sample) {
+		int words = (sample >>> 6) + 1;
+		if (words > called.length) {
+			called = Arrays.copyOf(called, words);
+			firstAlt = Arrays.copyOf(firstAlt, words);
+			secondAlt = Arrays.copyOf(secondAlt, words);
+		}
 	}
 
 	public String getGenotype() {
 
 		if (genotype == null) {
 			StringBuilder builder = new StringBuilder(2);
-			builder.append(referenceAllele);
-			builder.append(alternateAllele);
+			builder.append(getReferenceAllele());
+			builder.append(getAlternateAllele());
 			genotype = builder.toString();
 		}
 		return genotype;
@@ -0,0 +1,411 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import genepi.io.FileUtil;
+
+/**
+ * Reads a BGZF compressed file and inflates its blocks on a shared worker
+ * pool. Blocks are read ahead and delivered in file order, so the stream can
+ * be used everywhere a GZIPInputStream was used before.
+ */
+public class ParallelBGzipInputStream extends InputStream {
+
+	private static final int BLOCK_HEADER_LENGTH = 18;
+
+	private static final int BLOCK_FOOTER_LENGTH = 8;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	private static ThreadPoolExecutor executor;
+
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+
+	private InputStream in;
+
+	private LinkedList<Future<Block>> queue = new LinkedList<Future<Block>>();
+
+	private int readAhead;
+
+	private boolean eof = false;
+
+	private long nextBlockAddress = 0;
+
+	private Block current = null;
+
+	private int offset = 0;
+
+	private byte[] line = new byte[1024];
+
+	public ParallelBGzipInputStream(InputStream in) {
+		this(in, 0);
+	}
+
+	private ParallelBGzipInputStream(InputStream in, long address) {
+		this.in = in;
+		this.readAhead = getThreads() * 2;
+		this.nextBlockAddress = address;
+	}
+
+	/**
+	 * Opens a file for reading. BGZF files are inflated in parallel, plain gzip
+	 * and uncompressed files fall back to the default decompression.
+	 */
+	public static InputStream open(String filename) throws IOException {
+		return open(new FileInputStream(filename));
+	}
+
+	public static InputStream open(InputStream stream) throws IOException {
+		InputStream in = new BufferedInputStream(stream, BUFFER_SIZE);
+		if (isBGzip(in)) {
+			return new ParallelBGzipInputStream(in);
+		} else {
+			return FileUtil.decompressStream(in);
+		}
+	}
+
+	/**
+	 * Opens a BGZF file at a virtual file offset (e.g. from a tabix index).
+	 */
+	public static ParallelBGzipInputStream open(String filename, long virtualOffset) throws IOException {
+
+		FileInputStream stream = new FileInputStream(filename);
+		stream.getChannel().position(virtualOffset >>> 16);
+
+		try {
+			return open(stream, virtualOffset);
+		} catch (IOException e) {
+			throw new IOException("Invalid virtual file offset " + virtualOffset + " in file '" + filename + "'.", e);
+		}
+
+	}
+
+	/**
+	 * Opens a BGZF stream at a virtual file offset. The stream has to be
+	 * positioned at the address of the block (e.g. by seeking a hdfs stream).
+	 */
+	public static ParallelBGzipInputStream open(InputStream stream, long virtualOffset) throws IOException {
+
+		long address = virtualOffset >>> 16;
+		int offset = (int) (virtualOffset & 0xffff);
+
+		ParallelBGzipInputStream in = new ParallelBGzipInputStream(new BufferedInputStream(stream, BUFFER_SIZE),
+				address);
+		if (offset > 0 && (!in.ensureData() || in.current.data.length < offset)) {
+			in.close();
+			throw new IOException("Invalid virtual file offset " + virtualOffset + ".");
+		}
+		in.offset = offset;
+		return in;
+
+	}
+
+	/**
+	 * Size of the worker pool shared by all streams. The pool is resized, not
+	 * replaced, so open streams keep working.
+	 */
+	public static synchronized void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed.");
+		}
+		if (threads == ParallelBGzipInputStream.threads) {
+			return;
+		}
+		ParallelBGzipInputStream.threads = threads;
+		if (executor != null) {
+			ParallelBGzipOutputStream.resize(executor, threads);
+		}
+	}
+
+	public static synchronized int getThreads() {
+		return threads;
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "bgzf-inflater");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return executor;
+	}
+
+	private static boolean isBGzip(InputStream in) throws IOException {
+		in.mark(BLOCK_HEADER_LENGTH);
+		byte[] header = new byte[BLOCK_HEADER_LENGTH];
+		int read = readFully(in, header, 0, header.length);
+		in.reset();
+		return read == BLOCK_HEADER_LENGTH && isValidHeader(header);
+	}
+
+	private static boolean isValidHeader(byte[] header) {
+		return (header[0] & 0xff) == 31 && (header[1] & 0xff) == 139 && header[2] == 8 && (header[3] & 4) != 0
+				&& header[10] == 6 && header[11] == 0 && header[12] == 'B' && header[13] == 'C' && header[14] == 2
+				&& header[15] == 0;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!ensureData()) {
+			return -1;
+		}
+		return current.data[offset++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] buffer, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensureData()) {
+			return -1;
+		}
+		int count = Math.min(len, current.data.length - offset);
+		System.arraycopy(current.data, offset, buffer, off, count);
+		offset += count;
+		return count;
+	}
+
+	/**
+	 * Reads a line without line break, or null at the end of the stream. The
+	 * file pointer is positioned at the start of the next line.
+	 */
+	public String readLine() throws IOException {
+
+		if (!ensureData()) {
+			return null;
+		}
+
+		int length = 0;
+		while (ensureData()) {
+			byte[] data = current.data;
+			int end = offset;
+			while (end < data.length && data[end] != '\n') {
+				end++;
+			}
+			if (length + end - offset > line.length) {
+				line = Arrays.copyOf(line, Math.max(length + end - offset, line.length * 2));
+			}
+			System.arraycopy(data, offset, line, length, end - offset);
+			length += end - offset;
+			if (end < data.length) {
+				offset = end + 1;
+				break;
+			}
+			offset = end;
+		}
+
+		return new String(line, 0, length, StandardCharsets.UTF_8);
+
+	}
+
+	@Override
+	public int available() throws IOException {
+		return current != null ? current.data.length - offset : 0;
+	}
+
+	/**
+	 * Returns the virtual file offset (block address and offset inside the
+	 * uncompressed block) of the next byte.
+	 */
+	public long getFilePointer() {
+		if (current == null) {
+			return 0;
+		}
+		if (offset == current.data.length) {
+			return (current.address + current.size) << 16;
+		}
+		return (current.address << 16) | offset;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (Future<Block> future : queue) {
+			future.cancel(false);
+		}
+		queue.clear();
+		in.close();
+	}
+
+	private boolean ensureData() throws IOException {
+		while (current == null || offset >= current.data.length) {
+			Block block = nextBlock();
+			if (block == null) {
+				return false;
+			}
+			current = block;
+			offset = 0;
+		}
+		return true;
+	}
+
+	private Block nextBlock() throws IOException {
+
+		fillQueue();
+
+		if (queue.isEmpty()) {
+			return null;
+		}
+
+		Future<Block> future = queue.removeFirst();
+		fillQueue();
+
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while inflating BGZF block.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+
+	}
+
+	private void fillQueue() throws IOException {
+
+		while (!eof && queue.size() < readAhead) {
+
+			final byte[] raw = readRawBlock();
+			if (raw == null) {
+				eof = true;
+				break;
+			}
+
+			final long address = nextBlockAddress;
+			nextBlockAddress += raw.length;
+
+			queue.add(getExecutor().submit(() -> inflate(raw, address)));
+
+		}
+
+	}
+
+	private byte[] readRawBlock() throws IOException {
+
+		byte[] header = new byte[BLOCK_HEADER_LENGTH];
+		int read = readFully(in, header, 0, header.length);
+
+		if (read == 0) {
+			return null;
+		}
+
+		if (read < BLOCK_HEADER_LENGTH || !isValidHeader(header)) {
+			throw new IOException("Invalid BGZF block at offset " + nextBlockAddress + ".");
+		}
+
+		int blockSize = ((header[16] & 0xff) | ((header[17] & 0xff) << 8)) + 1;
+
+		byte[] raw = new byte[blockSize];
+		System.arraycopy(header, 0, raw, 0, BLOCK_HEADER_LENGTH);
+		read = readFully(in, raw, BLOCK_HEADER_LENGTH, blockSize - BLOCK_HEADER_LENGTH);
+		if (read < blockSize - BLOCK_HEADER_LENGTH) {
+			throw new IOException("Unexpected end of BGZF file at offset " + nextBlockAddress + ".");
+		}
+
+		return raw;
+
+	}
+
+	private static Block inflate(byte[] raw, long address) throws IOException {
+
+		int length = raw.length;
+		int expectedSize = readInt(raw, length - 4);
+		int expectedCrc = readInt(raw, length - 8);
+
+		byte[] data = new byte[expectedSize];
+
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(raw, BLOCK_HEADER_LENGTH, length - BLOCK_HEADER_LENGTH - BLOCK_FOOTER_LENGTH);
+
+		try {
+			int inflated = 0;
+			while (inflated < expectedSize) {
+				int count = inflater.inflate(data, inflated, expectedSize - inflated);
+				if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+					break;
+				}
+				inflated += count;
+			}
+			if (inflated != expectedSize) {
+				throw new IOException("Corrupt BGZF block at offset " + address + ": expected " + expectedSize
+						+ " bytes but inflated " + inflated + ".");
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt BGZF block at offset " + address + ": " + e.getMessage());
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		if ((int) crc.getValue() != expectedCrc) {
+			throw new IOException("CRC mismatch in BGZF block at offset " + address + ".");
+		}
+
+		Block block = new Block();
+		block.address = address;
+		block.size = length;
+		block.data = data;
+		return block;
+
+	}
+
+	private static int readInt(byte[] buffer, int offset) {
+		return (buffer[offset] & 0xff) | ((buffer[offset + 1] & 0xff) << 8) | ((buffer[offset + 2] & 0xff) << 16)
+				| ((buffer[offset + 3] & 0xff) << 24);
+	}
+
+	private static int readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+		int total = 0;
+		while (total < length) {
+			int read = in.read(buffer, offset + total, length - total);
+			if (read == -1) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+	}
+
+	static class Block {
+
+		long address;
+
+		int size;
+
+		byte[] data;
+
+	}
+
+}
@@ -0,0 +1,390 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a BGZF compressed file and deflates its blocks on a shared worker
+ * pool. Blocks are written in order on the calling thread, so the file is the
+ * same as written by a single-threaded compressor with the same compression
+ * level. Can be used everywhere a BlockCompressedOutputStream was used before.
+ */
+public class ParallelBGzipOutputStream extends OutputStream {
+
+	// uncompressed size of a block, as used by bgzip
+	private static final int BLOCK_SIZE = 0xff00;
+
+	private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+	private static final int BLOCK_HEADER_LENGTH = 18;
+
+	private static final int BLOCK_FOOTER_LENGTH = 8;
+
+	private static final byte[] EOF_BLOCK = { 31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 66, 67, 2, 0,
+			27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+
+	private static int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	// compression level of streams created without a level
+	public static final int DEFAULT_LEVEL = 5;
+
+	private static ThreadPoolExecutor executor;
+
+	private static boolean configured = false;
+
+	// one deflater per thread and compression level
+	private static final ThreadLocal<Deflater[]> deflaters = new ThreadLocal<Deflater[]>() {
+		@Override
+		protected Deflater[] initialValue() {
+			return new Deflater[11];
+		}
+	};
+
+	private OutputStream out;
+
+	private int level;
+
+	private byte[] buffer = new byte[BLOCK_SIZE];
+
+	private int count = 0;
+
+	private LinkedList<Future<byte[]>> queue = new LinkedList<Future<byte[]>>();
+
+	private int maxPending;
+
+	// number of blocks handed to the pool
+	private int blocks = 0;
+
+	// address of every written block and of the next one
+	private long[] addresses = new long[1024];
+
+	private int writtenBlocks = 0;
+
+	private boolean closed = false;
+
+	public ParallelBGzipOutputStream(String filename) throws IOException {
+		this(new File(filename));
+	}
+
+	public ParallelBGzipOutputStream(File file) throws IOException {
+		this(file, DEFAULT_LEVEL);
+	}
+
+	public ParallelBGzipOutputStream(File file, int level) throws IOException {
+		this(new BufferedOutputStream(new FileOutputStream(file), MAX_BLOCK_SIZE), level);
+	}
+
+	public ParallelBGzipOutputStream(OutputStream out) {
+		this(out, DEFAULT_LEVEL);
+	}
+
+	/**
+	 * Creates a stream with the given compression level (0-9, -1 for the
+	 * deflater default).
+	 */
+	public ParallelBGzipOutputStream(OutputStream out, int level) {
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level " + level + ".");
+		}
+		this.out = out;
+		this.level = level;
+		this.maxPending = getThreads() * 2;
+	}
+
+	/**
+	 * Size of the worker pool shared by all streams. The pool is resized, not
+	 * replaced, so streams of other jobs keep working.
+	 */
+	public static synchronized void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed.");
+		}
+		if (threads == ParallelBGzipOutputStream.threads) {
+			return;
+		}
+		ParallelBGzipOutputStream.threads = threads;
+		if (executor != null) {
+			resize(executor, threads);
+		}
+	}
+
+	/**
+	 * Sets the pool size from the configuration of the first job of this
+	 * process. Later calls are ignored, so concurrent jobs do not resize the
+	 * pool of each other.
+	 */
+	public static synchronized void configure(int threads) {
+		if (configured) {
+			return;
+		}
+		setThreads(threads);
+		configured = true;
+	}
+
+	public static synchronized int getThreads() {
+		return threads;
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "bgzf-deflater");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return executor;
+	}
+
+	// the maximum size must not be smaller than the core size
+	static void resize(ThreadPoolExecutor executor, int threads) {
+		if (threads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		} else {
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+	}
+
+	@Override
+	public void write(int value) throws IOException {
+		buffer[count++] = (byte) value;
+		if (count == BLOCK_SIZE) {
+			submitBlock();
+		}
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			int copy = Math.min(length, BLOCK_SIZE - count);
+			System.arraycopy(bytes, offset, buffer, count, copy);
+			count += copy;
+			offset += copy;
+			length -= copy;
+			if (count == BLOCK_SIZE) {
+				submitBlock();
+			}
+		}
+	}
+
+	/**
+	 * Returns the virtual file offset of the next byte. Waits until all
+	 * pending blocks are written, use getBlockPointer to avoid this.
+	 */
+	public long getFilePointer() throws IOException {
+		writeBlocks(0);
+		return (addresses[writtenBlocks] << 16) | count;
+	}
+
+	/**
+	 * Returns the position of the next byte as block number and offset inside
+	 * the uncompressed block. Can be converted to a virtual file offset with
+	 * toFilePointer as soon as the block is written, e.g. after closing.
+	 */
+	public long getBlockPointer() {
+		return ((long) blocks << 16) | count;
+	}
+
+	public long toFilePointer(long blockPointer) {
+		int block = (int) (blockPointer >>> 16);
+		if (block > writtenBlocks) {
+			throw new IllegalStateException("Block " + block + " is not written yet.");
+		}
+		return (addresses[block] << 16) | (blockPointer & 0xffff);
+	}
+
+	/**
+	 * Compresses the buffered data and writes all blocks.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (count > 0) {
+			submitBlock();
+		}
+		writeBlocks(0);
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		close(true);
+	}
+
+	/**
+	 * Writes the empty BGZF block that marks the end of a file, e.g. behind
+	 * concatenated files.
+	 */
+	public static void writeTerminator(OutputStream out) throws IOException {
+		out.write(EOF_BLOCK);
+	}
+
+	/**
+	 * Closes the stream. Without terminator the file can be concatenated with
+	 * other BGZF files.
+	 */
+	public void close(boolean writeTerminator) throws IOException {
+
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			if (count > 0) {
+				submitBlock();
+			}
+			writeBlocks(0);
+			if (writeTerminator) {
+				writeTerminator(out);
+			}
+		} finally {
+			for (Future<byte[]> future : queue) {
+				future.cancel(false);
+			}
+			queue.clear();
+			out.close();
+		}
+
+	}
+
+	private void submitBlock() throws IOException {
+
+		final byte[] data = buffer;
+		final int length = count;
+		final int blockLevel = level;
+
+		queue.add(getExecutor().submit(() -> compress(data, length, blockLevel)));
+		blocks++;
+
+		buffer = new byte[BLOCK_SIZE];
+		count = 0;
+
+		writeBlocks(maxPending);
+
+	}
+
+	// writes finished blocks in order until at most pending blocks are left
+	private void writeBlocks(int pending) throws IOException {
+
+		while (queue.size() > pending) {
+
+			byte[] block = getBlock(queue.removeFirst());
+			out.write(block);
+
+			if (writtenBlocks + 1 == addresses.length) {
+				addresses = Arrays.copyOf(addresses, addresses.length * 2);
+			}
+			addresses[writtenBlocks + 1] = addresses[writtenBlocks] + block.length;
+			writtenBlocks++;
+
+		}
+
+	}
+
+	private static byte[] getBlock(Future<byte[]> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while deflating BGZF block.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static byte[] compress(byte[] data, int length, int level) throws IOException {
+
+		byte[] block = new byte[MAX_BLOCK_SIZE];
+		int maxLength = MAX_BLOCK_SIZE - BLOCK_HEADER_LENGTH - BLOCK_FOOTER_LENGTH;
+
+		int compressed = deflate(data, length, level, block, maxLength);
+		if (compressed == -1) {
+			// incompressible data is stored, which always fits into a block
+			compressed = deflate(data, length, Deflater.NO_COMPRESSION, block, maxLength);
+			if (compressed == -1) {
+				throw new IOException("BGZF block is too large.");
+			}
+		}
+
+		int size = BLOCK_HEADER_LENGTH + compressed + BLOCK_FOOTER_LENGTH;
+
+		// gzip header with the BC extra field holding the block size
+		block[0] = 31;
+		block[1] = (byte) 139;
+		block[2] = 8;
+		block[3] = 4;
+		block[9] = (byte) 255;
+		block[10] = 6;
+		block[12] = 'B';
+		block[13] = 'C';
+		block[14] = 2;
+		writeShort(block, 16, size - 1);
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		writeInt(block, size - 8, (int) crc.getValue());
+		writeInt(block, size - 4, length);
+
+		return Arrays.copyOf(block, size);
+
+	}
+
+	// returns the compressed size or -1 if it does not fit
+	private static int deflate(byte[] data, int length, int level, byte[] block, int maxLength) {
+
+		Deflater[] cache = deflaters.get();
+		Deflater deflater = cache[level + 1];
+		if (deflater == null) {
+			deflater = new Deflater(level, true);
+			cache[level + 1] = deflater;
+		}
+
+		deflater.reset();
+		deflater.setInput(data, 0, length);
+		deflater.finish();
+
+		int compressed = 0;
+		while (!deflater.finished() && compressed < maxLength) {
+			compressed += deflater.deflate(block, BLOCK_HEADER_LENGTH + compressed, maxLength - compressed);
+		}
+
+		return deflater.finished() ? compressed : -1;
+
+	}
+
+	private static void writeShort(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >>> 8);
+	}
+
+	private static void writeInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) value;
+		buffer[offset + 1] = (byte) (value >>> 8);
+		buffer[offset + 2] = (byte) (value >>> 16);
+		buffer[offset + 3] = (byte) (value >>> 24);
+	}
+
+}
@@ -0,0 +1,74 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.util.Arrays;
+
+/**
+ * Counts called genotypes per sample. Counts are stored bit-sliced: plane k
+ * holds bit k of the counter of each sample, so one variant is added with a
+ * few word operations per 64 samples instead of one branch per sample.
+ */
+public class SampleCallCounter {
+
+	private int samples;
+
+	private int words;
+
+	private long[][] planes = new long[0][];
+
+	public SampleCallCounter(int samples) {
+		this.samples = samples;
+		this.words = MinimalVariantContext.getWords(samples);
+	}
+
+	/**
+	 * Adds one to the counter of each sample whose bit is set.
+	 */
+	public void add(long[] calls) {
+		for (int word = 0; word < words; word++) {
+			long carry = calls[word];
+			for (int plane = 0; carry != 0; plane++) {
+				if (plane == planes.length) {
+					addPlane();
+				}
+				long[] bits = planes[plane];
+				long overflow = bits[word] & carry;
+				bits[word] ^= carry;
+				carry = overflow;
+			}
+		}
+	}
+
+	public void add(MinimalVariantContext snp) {
+		add(snp.getCalledWords());
+	}
+
+	public int get(int sample) {
+		int word = sample >>> 6;
+		long mask = 1L << sample;
+		int count = 0;
+		for (int plane = 0; plane < planes.length; plane++) {
+			if ((planes[plane][word] & mask) != 0) {
+				count |= 1 << plane;
+			}
+		}
+		return count;
+	}
+
+	public int[] getCounts() {
+		int[] counts = new int[samples];
+		for (int sample = 0; sample < samples; sample++) {
+			counts[sample] = get(sample);
+		}
+		return counts;
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+
+	private void addPlane() {
+		planes = Arrays.copyOf(planes, planes.length + 1);
+		planes[planes.length - 1] = new long[words];
+	}
+
+}
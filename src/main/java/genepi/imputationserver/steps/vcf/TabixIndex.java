@@ -0,0 +1,121 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the linear index of a tabix (.tbi) file. The linear index stores for
+ * each 16kb window the smallest virtual file offset of a record overlapping
+ * this window and is enough to start reading a sorted file at a position.
+ */
+public class TabixIndex {
+
+	private static final int LINEAR_SHIFT = 14;
+
+	private Map<String, long[]> linearIndices = new HashMap<String, long[]>();
+
+	public TabixIndex(String indexFilename) throws IOException {
+
+		InputStream in = ParallelBGzipInputStream.open(indexFilename);
+
+		try {
+
+			byte[] magic = readBytes(in, 4);
+			if (magic[0] != 'T' || magic[1] != 'B' || magic[2] != 'I' || magic[3] != 1) {
+				throw new IOException("File '" + indexFilename + "' is not a tabix index.");
+			}
+
+			int references = readInt(in);
+
+			// format, col_seq, col_beg, col_end, meta and skip
+			readBytes(in, 6 * 4);
+
+			String[] names = new String(readBytes(in, readInt(in)), "UTF-8").split("\0");
+			if (names.length != references) {
+				throw new IOException("File '" + indexFilename + "' has an invalid sequence dictionary.");
+			}
+
+			for (int i = 0; i < references; i++) {
+
+				// binning index, not needed to find the first record
+				int bins = readInt(in);
+				for (int bin = 0; bin < bins; bin++) {
+					readInt(in);
+					int chunks = readInt(in);
+					readBytes(in, chunks * 16);
+				}
+
+				int intervals = readInt(in);
+				long[] offsets = new long[intervals];
+				for (int interval = 0; interval < intervals; interval++) {
+					offsets[interval] = readLong(in);
+				}
+				linearIndices.put(names[i], offsets);
+
+			}
+
+		} finally {
+			in.close();
+		}
+
+	}
+
+	public static String getFilename(String vcfFilename) {
+		return vcfFilename + ".tbi";
+	}
+
+	public boolean hasChromosome(String chromosome) {
+		return linearIndices.containsKey(chromosome);
+	}
+
+	/**
+	 * Returns a virtual file offset at or before the first record with a
+	 * position >= the given 1-based position. Records before the position can
+	 * occur and have to be skipped by the caller.
+	 */
+	public long getOffset(String chromosome, int position) {
+
+		long[] offsets = linearIndices.get(chromosome);
+		if (offsets == null || offsets.length == 0) {
+			return 0;
+		}
+
+		int window = Math.max(0, position - 1) >> LINEAR_SHIFT;
+		window = Math.min(window, offsets.length - 1);
+
+		// empty windows are not always filled by the indexer
+		for (; window >= 0; window--) {
+			if (offsets[window] != 0) {
+				return offsets[window];
+			}
+		}
+
+		return 0;
+
+	}
+
+	private static byte[] readBytes(InputStream in, int length) throws IOException {
+		byte[] buffer = new byte[length];
+		int total = 0;
+		while (total < length) {
+			int read = in.read(buffer, total, length - total);
+			if (read == -1) {
+				throw new IOException("Unexpected end of tabix index.");
+			}
+			total += read;
+		}
+		return buffer;
+	}
+
+	private static int readInt(InputStream in) throws IOException {
+		byte[] buffer = readBytes(in, 4);
+		return (buffer[0] & 0xff) | ((buffer[1] & 0xff) << 8) | ((buffer[2] & 0xff) << 16) | ((buffer[3] & 0xff) << 24);
+	}
+
+	private static long readLong(InputStream in) throws IOException {
+		return (readInt(in) & 0xffffffffL) | ((long) readInt(in) << 32);
+	}
+
+}
@@ -0,0 +1,456 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Builds a tabix (.tbi) index for a sorted, BGZF compressed VCF file while it
+ * is written. Records are added with their virtual file offsets, so the file
+ * does not have to be read again by an external tabix process.
+ */
+public class TabixIndexBuilder {
+
+	// tabix preset for vcf files: format, col_seq, col_beg, col_end, meta, skip
+	private static final int[] VCF_PRESET = { 2, 1, 2, 0, '#', 0 };
+
+	private static final int LINEAR_SHIFT = 14;
+
+	private static final int META_BIN = 37450;
+
+	// linear index window without a record
+	private static final long EMPTY = -1;
+
+	private Map<String, Reference> references = new LinkedHashMap<String, Reference>();
+
+	private Reference current;
+
+	/**
+	 * Adds a record. Start is 0-based, end is exclusive.
+	 */
+	public void addRecord(String chromosome, int start, int end, long offsetStart, long offsetEnd)
+			throws IOException {
+
+		if (current == null || !current.name.equals(chromosome)) {
+			if (current != null) {
+				current.flush();
+			}
+			if (references.containsKey(chromosome)) {
+				throw new IOException("File is not sorted: chromosome '" + chromosome + "' is not contiguous.");
+			}
+			current = new Reference(chromosome);
+			references.put(chromosome, current);
+		}
+
+		if (start < current.lastStart) {
+			throw new IOException("File is not sorted: position " + (start + 1) + " after position "
+					+ (current.lastStart + 1) + " on chromosome '" + chromosome + "'.");
+		}
+
+		current.add(start, Math.max(end, start + 1), offsetStart, offsetEnd);
+
+	}
+
+	/**
+	 * Adds a vcf line. Header lines are ignored.
+	 */
+	public void addLine(String line, long offsetStart, long offsetEnd) throws IOException {
+
+		if (line.isEmpty() || line.charAt(0) == '#') {
+			return;
+		}
+
+		int tab1 = line.indexOf('\t');
+		int tab2 = tab1 != -1 ? line.indexOf('\t', tab1 + 1) : -1;
+		int tab3 = tab2 != -1 ? line.indexOf('\t', tab2 + 1) : -1;
+		int tab4 = tab3 != -1 ? line.indexOf('\t', tab3 + 1) : -1;
+		if (tab4 == -1) {
+			throw new IOException("Invalid vcf line: " + line);
+		}
+
+		int position;
+		try {
+			position = Integer.parseInt(line.substring(tab1 + 1, tab2));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid position in vcf line: " + line);
+		}
+
+		int start = position - 1;
+		addRecord(line.substring(0, tab1), start, start + (tab4 - tab3 - 1), offsetStart, offsetEnd);
+
+	}
+
+	/**
+	 * Appends the records of an index built for the following part of the
+	 * same file. Offsets of the part are mapped to offsets of the whole file.
+	 */
+	public void append(TabixIndexBuilder part, LongUnaryOperator offsets) throws IOException {
+
+		if (current != null) {
+			current.flush();
+		}
+		if (part.current != null) {
+			part.current.flush();
+		}
+
+		for (Reference reference : part.references.values()) {
+
+			if (current == null || !current.name.equals(reference.name)) {
+				if (references.containsKey(reference.name)) {
+					throw new IOException(
+							"File is not sorted: chromosome '" + reference.name + "' is not contiguous.");
+				}
+				current = new Reference(reference.name);
+				references.put(reference.name, current);
+			}
+
+			current.append(reference, offsets);
+
+		}
+
+	}
+
+	/**
+	 * Indexes an existing BGZF compressed vcf file. The lines are scanned on
+	 * several threads, every range builds its own index which are appended
+	 * in file order.
+	 */
+	public static void index(String vcfFilename, String indexFilename, int threads) throws IOException {
+
+		final BGzipLineScanner scanner = new BGzipLineScanner(vcfFilename);
+
+		// offsets of the parts are uncompressed file offsets
+		List<TabixIndexBuilder> parts = scanner.scan(new BGzipLineScanner.ILineHandler<TabixIndexBuilder>() {
+
+			@Override
+			public TabixIndexBuilder createResult() {
+				return new TabixIndexBuilder();
+			}
+
+			@Override
+			public void processLine(TabixIndexBuilder part, byte[] buffer, int offset, int length, long fileOffset)
+					throws IOException {
+				part.addLine(buffer, offset, length, fileOffset, fileOffset + length + 1);
+			}
+
+		}, threads);
+
+		TabixIndexBuilder index = new TabixIndexBuilder();
+		for (TabixIndexBuilder part : parts) {
+			index.append(part, LongUnaryOperator.identity());
+		}
+
+		// the end of the last line can be behind the uncompressed size
+		final long size = scanner.getSize();
+		index.write(indexFilename, (offset) -> scanner.getVirtualOffset(Math.min(offset, size)));
+
+	}
+
+	// adds a vcf line without decoding more than the first columns
+	private void addLine(byte[] buffer, int offset, int length, long offsetStart, long offsetEnd)
+			throws IOException {
+
+		if (length == 0 || buffer[offset] == '#') {
+			return;
+		}
+
+		int[] tabs = new int[4];
+		int found = 0;
+		for (int i = offset; i < offset + length && found < tabs.length; i++) {
+			if (buffer[i] == '\t') {
+				tabs[found++] = i;
+			}
+		}
+		if (found < tabs.length) {
+			throw new IOException("Invalid vcf line: " + new String(buffer, offset, length, StandardCharsets.UTF_8));
+		}
+
+		int position;
+		try {
+			position = Integer.parseInt(new String(buffer, tabs[0] + 1, tabs[1] - tabs[0] - 1, StandardCharsets.US_ASCII));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid position in vcf line: " + new String(buffer, offset, length, StandardCharsets.UTF_8));
+		}
+
+		String chromosome = current != null && current.matches(buffer, offset, tabs[0] - offset) ? current.name
+				: new String(buffer, offset, tabs[0] - offset, StandardCharsets.UTF_8);
+
+		int start = position - 1;
+		addRecord(chromosome, start, start + (tabs[3] - tabs[2] - 1), offsetStart, offsetEnd);
+
+	}
+
+	public void write(String indexFilename) throws IOException {
+		write(indexFilename, LongUnaryOperator.identity());
+	}
+
+	/**
+	 * Writes the index and maps all added offsets to virtual file offsets, e.g.
+	 * block pointers of a ParallelBGzipOutputStream.
+	 */
+	public void write(String indexFilename, LongUnaryOperator offsets) throws IOException {
+
+		if (current != null) {
+			current.flush();
+		}
+
+		OutputStream out = new ParallelBGzipOutputStream(new File(indexFilename));
+
+		try {
+
+			out.write(new byte[] { 'T', 'B', 'I', 1 });
+			writeInt(out, references.size());
+			for (int value : VCF_PRESET) {
+				writeInt(out, value);
+			}
+
+			int namesLength = 0;
+			for (String name : references.keySet()) {
+				namesLength += name.getBytes(StandardCharsets.UTF_8).length + 1;
+			}
+			writeInt(out, namesLength);
+			for (String name : references.keySet()) {
+				out.write(name.getBytes(StandardCharsets.UTF_8));
+				out.write(0);
+			}
+
+			for (Reference reference : references.values()) {
+				reference.write(out, offsets);
+			}
+
+			// records without coordinates
+			writeLong(out, 0);
+
+		} finally {
+			out.close();
+		}
+
+	}
+
+	// UCSC binning scheme, as used by tabix
+	static int reg2bin(int start, int end) {
+		end--;
+		if (start >> 14 == end >> 14) {
+			return ((1 << 15) - 1) / 7 + (start >> 14);
+		}
+		if (start >> 17 == end >> 17) {
+			return ((1 << 12) - 1) / 7 + (start >> 17);
+		}
+		if (start >> 20 == end >> 20) {
+			return ((1 << 9) - 1) / 7 + (start >> 20);
+		}
+		if (start >> 23 == end >> 23) {
+			return ((1 << 6) - 1) / 7 + (start >> 23);
+		}
+		if (start >> 26 == end >> 26) {
+			return ((1 << 3) - 1) / 7 + (start >> 26);
+		}
+		return 0;
+	}
+
+	private static void writeInt(OutputStream out, int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >>> 8) & 0xff);
+		out.write((value >>> 16) & 0xff);
+		out.write((value >>> 24) & 0xff);
+	}
+
+	private static void writeLong(OutputStream out, long value) throws IOException {
+		writeInt(out, (int) value);
+		writeInt(out, (int) (value >>> 32));
+	}
+
+	private static class Reference {
+
+		private String name;
+
+		private Map<Integer, List<long[]>> bins = new TreeMap<Integer, List<long[]>>();
+
+		private long[] linear = new long[0];
+
+		private int firstStart = -1;
+
+		private int lastStart = -1;
+
+		private long firstOffset = -1;
+
+		private long lastOffset = 0;
+
+		private long records = 0;
+
+		// chunk of consecutive records in the same bin
+		private int chunkBin = -1;
+
+		private long chunkStart;
+
+		private long chunkEnd;
+
+		private byte[] nameBytes;
+
+		public Reference(String name) {
+			this.name = name;
+			this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		}
+
+		public boolean matches(byte[] buffer, int offset, int length) {
+			if (length != nameBytes.length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (buffer[offset + i] != nameBytes[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public void add(int start, int end, long offsetStart, long offsetEnd) {
+
+			int bin = reg2bin(start, end);
+			if (bin != chunkBin) {
+				flush();
+				chunkBin = bin;
+				chunkStart = offsetStart;
+			}
+			chunkEnd = offsetEnd;
+
+			int firstWindow = start >> LINEAR_SHIFT;
+			int lastWindow = (end - 1) >> LINEAR_SHIFT;
+			if (lastWindow >= linear.length) {
+				resizeLinear(Math.max(lastWindow + 1, linear.length * 2));
+			}
+			for (int window = firstWindow; window <= lastWindow; window++) {
+				if (linear[window] == EMPTY) {
+					linear[window] = offsetStart;
+				}
+			}
+
+			if (firstOffset == -1) {
+				firstOffset = offsetStart;
+				firstStart = start;
+			}
+			lastOffset = offsetEnd;
+			lastStart = start;
+			records++;
+
+		}
+
+		// new windows are empty, offset 0 is a valid record
+		private void resizeLinear(int length) {
+			int oldLength = linear.length;
+			linear = Arrays.copyOf(linear, length);
+			Arrays.fill(linear, oldLength, length, EMPTY);
+		}
+
+		public void append(Reference reference, LongUnaryOperator offsets) throws IOException {
+
+			if (reference.records == 0) {
+				return;
+			}
+
+			if (reference.firstStart < lastStart) {
+				throw new IOException("File is not sorted: position " + (reference.firstStart + 1) + " after position "
+						+ (lastStart + 1) + " on chromosome '" + name + "'.");
+			}
+
+			for (Map.Entry<Integer, List<long[]>> bin : reference.bins.entrySet()) {
+				for (long[] chunk : bin.getValue()) {
+					chunkBin = bin.getKey();
+					chunkStart = offsets.applyAsLong(chunk[0]);
+					chunkEnd = offsets.applyAsLong(chunk[1]);
+					flush();
+				}
+			}
+
+			if (reference.linear.length > linear.length) {
+				resizeLinear(reference.linear.length);
+			}
+			for (int window = 0; window < reference.linear.length; window++) {
+				if (linear[window] == EMPTY && reference.linear[window] != EMPTY) {
+					linear[window] = offsets.applyAsLong(reference.linear[window]);
+				}
+			}
+
+			if (firstOffset == -1) {
+				firstOffset = offsets.applyAsLong(reference.firstOffset);
+			}
+			lastOffset = offsets.applyAsLong(reference.lastOffset);
+			lastStart = reference.lastStart;
+			records += reference.records;
+
+		}
+
+		public void flush() {
+
+			if (chunkBin == -1) {
+				return;
+			}
+
+			List<long[]> chunks = bins.get(chunkBin);
+			if (chunks == null) {
+				chunks = new Vector<long[]>();
+				bins.put(chunkBin, chunks);
+			}
+
+			// merge with the previous chunk if both touch the same block
+			long[] last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+			if (last != null && (last[1] >>> 16) == (chunkStart >>> 16)) {
+				last[1] = chunkEnd;
+			} else {
+				chunks.add(new long[] { chunkStart, chunkEnd });
+			}
+
+			chunkBin = -1;
+
+		}
+
+		public void write(OutputStream out, LongUnaryOperator offsets) throws IOException {
+
+			writeInt(out, bins.size() + 1);
+
+			for (Map.Entry<Integer, List<long[]>> bin : bins.entrySet()) {
+				writeInt(out, bin.getKey());
+				writeInt(out, bin.getValue().size());
+				for (long[] chunk : bin.getValue()) {
+					writeLong(out, offsets.applyAsLong(chunk[0]));
+					writeLong(out, offsets.applyAsLong(chunk[1]));
+				}
+			}
+
+			// pseudo bin with file offsets and number of records
+			writeInt(out, META_BIN);
+			writeInt(out, 2);
+			writeLong(out, offsets.applyAsLong(firstOffset));
+			writeLong(out, offsets.applyAsLong(lastOffset));
+			writeLong(out, records);
+			writeLong(out, 0);
+
+			// the linear index has no entries behind the last record
+			int windows = linear.length;
+			while (windows > 0 && linear[windows - 1] == EMPTY) {
+				windows--;
+			}
+
+			writeInt(out, windows);
+			long previous = 0;
+			for (int window = 0; window < windows; window++) {
+				// empty windows use the offset of the previous window
+				if (linear[window] != EMPTY) {
+					previous = offsets.applyAsLong(linear[window]);
+				}
+				writeLong(out, previous);
+			}
+
+		}
+
+	}
+
+}
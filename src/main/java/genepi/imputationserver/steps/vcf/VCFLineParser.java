@@ -1,9 +1,34 @@
 package genepi.imputationserver.steps.vcf;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
 public class VCFLineParser {
 
+	// CHROM, POS, ID, REF, ALT, QUAL, FILTER, INFO, FORMAT
+	private static final int FIXED_FIELDS = 9;
+
+	private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+	private static final long ZEROS = 0x3030303030303030L;
+
+	private static final long ONES = 0x3131313131313131L;
+
+	private static final long DOTS = 0x2E2E2E2E2E2E2E2EL;
+
+	private static final long SLASHES = 0x2F2F2F2F2F2F2F2FL;
+
+	private static final long PIPES = 0x7C7C7C7C7C7C7C7CL;
+
+	private static final long TABS = 0x0909090909090909L;
+
+	// high bit of the first allele byte of one or two samples per word
+	private static final long ONE_SAMPLE = 0x80L;
+
+	private static final long TWO_SAMPLES = 0x0000008000000080L;
+
 	private int samplesInLineCount = 0;
 
 	private int noCallCount = 0;
@@ -25,31 +50,71 @@ public class VCFLineParser {
 	private int tile = 0;
 
 	private int tileGT = 0;
-	
+
 	private int j = 0;
-	
+
 	private int k = 0;
 
+	private int allele = 0;
+
+	private long calledWord = 0;
+
+	private long firstAltWord = 0;
+
+	private long secondAltWord = 0;
+
+	private int[] fieldStarts = new int[FIXED_FIELDS + 1];
+
+	private int[] fieldEnds = new int[FIXED_FIELDS];
+
 	private MinimalVariantContext variantContext;
 
+	private ByteBuffer words;
+
 	public VCFLineParser(int samples) {
 		variantContext = new MinimalVariantContext(samples);
 	}
 
 	public MinimalVariantContext parseLine(String line) throws IOException {
 
-		String tiles[] = line.split("\t", 10);
+		byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+		parseLine(bytes, 0, bytes.length);
 
-		if (tiles.length < 10) {
+		// keep the original string, no need to decode it again
+		variantContext.setRawLine(line);
+
+		return variantContext;
+	}
+
+	/**
+	 * Parses one record directly from a (decompressed) byte buffer. Only the
+	 * offsets of the fixed fields are stored, strings are created lazily by
+	 * MinimalVariantContext. The returned object is reused and the buffer must
+	 * not be modified until the record is processed.
+	 */
+	public MinimalVariantContext parseLine(byte[] buffer, int offset, int length) throws IOException {
+
+		int end = offset + length;
+
+		// find the first nine tabs, everything after is sample data
+		int field = 0;
+		int pos = offset;
+		fieldStarts[0] = offset;
+		while (field < FIXED_FIELDS && pos < end) {
+			if (buffer[pos] == '\t') {
+				fieldEnds[field] = pos;
+				field++;
+				fieldStarts[field] = pos + 1;
+			}
+			pos++;
+		}
+
+		if (field < FIXED_FIELDS) {
 			throw new IOException("The provided VCF file is not correct tab-delimited");
 		}
 
-		String chromosome = tiles[0];
-		int position = Integer.parseInt(tiles[1]);
-		String ref = tiles[3];
-		String alt = tiles[4];
+		int position = parseInt(buffer, fieldStarts[1], fieldEnds[1]);
 
-		i = 0;
 		countR = 0;
 		countV = 0;
 
@@ -61,41 +126,81 @@ public class VCFLineParser {
 		samplesInLineCount = 0;
 
 		tileGT = 0;
-		k = tiles[8].indexOf("GT");
-		
-		if (k == -1){
+		k = indexOfGT(buffer, fieldStarts[8], fieldEnds[8]);
+
+		if (k == -1) {
 			throw new IOException("No GT field found in FORMAT column.");
 		}
-		
-		j = 0;
-		while (j < k){
-			if (tiles[8].charAt(j) == ':'){
+
+		j = fieldStarts[8];
+		while (j < k) {
+			if (buffer[j] == ':') {
 				tileGT++;
 			}
 			j++;
 		}
-				
-		while (i < tiles[9].length()) {
+
+		// fast path: FORMAT is GT and all genotypes are diploid with 1-char
+		// alleles
+		if (fieldEnds[8] - fieldStarts[8] != 2 || !parseDiploidGenotypes(buffer, fieldStarts[9], end)) {
+			parseGenotypes(buffer, fieldStarts[9], end);
+		}
+
+		// update variant context
+		variantContext.setRecord(buffer, offset, length, fieldStarts, fieldEnds);
+		variantContext.setStart(position);
+		variantContext.setHetCount(hetCount);
+		variantContext.setHomRefCount(homRefCount);
+		variantContext.setHomVarCount(homVarCount);
+		variantContext.setNoCallCount(noCallCount);
+		variantContext.setNSamples(samplesInLineCount);
+
+		return variantContext;
+	}
+
+	private void parseGenotypes(byte[] buffer, int start, int end) {
+
+		homRefCount = 0;
+		homVarCount = 0;
+		hetCount = 0;
+		noCallCount = 0;
+
+		samplesInLineCount = 0;
+
+		calledWord = 0;
+		firstAltWord = 0;
+		secondAltWord = 0;
+
+		i = start;
+		while (i < end) {
 			countR = 0;
 			countV = 0;
 			countNo = 0;
+			allele = 0;
 			// count genotypes for one sample
 			tile = 0;
-			while (i < tiles[9].length() && tiles[9].charAt(i) != '\t') {
+			while (i < end && buffer[i] != '\t') {
 
-				//count format values 
-				if (tiles[9].charAt(i) == ':') {
+				// count format values
+				if (buffer[i] == ':') {
 					tile++;
 				} else {
-					//find right position
+					// find right position
 					if (tile == tileGT) {
 
-						if (tiles[9].charAt(i) == '1') {
+						if (buffer[i] == '1') {
 							countV++;
-						} else if (tiles[9].charAt(i) == '0') {
+							if (allele == 0) {
+								firstAltWord |= 1L << samplesInLineCount;
+							} else if (allele == 1) {
+								secondAltWord |= 1L << samplesInLineCount;
+							}
+						} else if (buffer[i] == '0') {
 							countR++;
-						} else if (tiles[9].charAt(i) == '.') {
+						} else if (buffer[i] == '.') {
 							countNo++;
+						} else if (buffer[i] == '/' || buffer[i] == '|') {
+							allele++;
 						}
 					}
 				}
@@ -115,33 +220,174 @@ public class VCFLineParser {
 
 			if (countNo == 2 || (countNo == 1 && countV == 0 && countR == 0)) {
 				noCallCount++;
-				variantContext.setCalled(samplesInLineCount, false);
 			} else {
-				variantContext.setCalled(samplesInLineCount, true);
+				calledWord |= 1L << samplesInLineCount;
 			}
 
 			samplesInLineCount++;
+
+			// word complete, store the next 64 samples
+			if ((samplesInLineCount & 63) == 0) {
+				variantContext.setGenotypeWord((samplesInLineCount - 1) >>> 6, calledWord, firstAltWord,
+						secondAltWord);
+				calledWord = 0;
+				firstAltWord = 0;
+				secondAltWord = 0;
+			}
 		}
 
-		// update variant context
-		variantContext.setContig(chromosome);
-		variantContext.setStart(position);
-		variantContext.setReferenceAllele(ref);
-		variantContext.setAlternateAllele(alt);
-		variantContext.setHetCount(hetCount);
-		variantContext.setHomRefCount(homRefCount);
-		variantContext.setHomVarCount(homVarCount);
-		variantContext.setNoCallCount(noCallCount);
-		variantContext.setNSamples(samplesInLineCount);
-		variantContext.setRawLine(line);
+		if ((samplesInLineCount & 63) != 0) {
+			variantContext.setGenotypeWord(samplesInLineCount >>> 6, calledWord, firstAltWord, secondAltWord);
+		}
+
+	}
+
+	/**
+	 * Scans genotypes of the form "a|b" or "a/b" separated by tabs, 8 bytes
+	 * (two samples) at a time. Returns false without side effects on the
+	 * counts if a genotype does not match this layout.
+	 */
+	private boolean parseDiploidGenotypes(byte[] buffer, int start, int end) {
 
-		if (!tiles[6].equals("PASS") && !tiles[6].equals(".")) {
-			variantContext.setFilters(tiles[6]);
-		} else {
-			variantContext.setFilters(null);
+		int length = end - start + 1;
+		if (length < 4 || (length & 3) != 0) {
+			return false;
 		}
 
-		return variantContext;
+		if (words == null || words.array() != buffer) {
+			words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		int samples = length >>> 2;
+		int homRef = 0;
+		int homVar = 0;
+		int het = 0;
+		int noCall = 0;
+		long called = 0;
+		long firstAlt = 0;
+		long secondAlt = 0;
+
+		int sample = 0;
+		int pos = start;
+
+		while (sample < samples) {
+
+			long word;
+			long lanes;
+			if (pos + 8 <= end) {
+				word = words.getLong(pos);
+				lanes = TWO_SAMPLES;
+			} else {
+				// last one or two samples, no tab after the last genotype
+				word = readTail(buffer, pos, end);
+				lanes = samples - sample == 2 ? TWO_SAMPLES : ONE_SAMPLE;
+			}
+
+			long separators = lanes << 8;
+			long tabs = lanes << 24;
+
+			long zero = zeroBytes(word ^ ZEROS);
+			long one = zeroBytes(word ^ ONES);
+			long dot = zeroBytes(word ^ DOTS);
+			long separator = zeroBytes(word ^ SLASHES) | zeroBytes(word ^ PIPES);
+			long tab = zeroBytes(word ^ TABS);
+
+			long alleles = lanes | (lanes << 16);
+			if (((zero | one | dot) & alleles) != alleles || (separator & separators) != separators
+					|| (tab & tabs) != tabs) {
+				return false;
+			}
+
+			// first allele at bit 7 (and 39), second allele aligned to it
+			long z1 = zero & lanes;
+			long z2 = (zero >>> 16) & lanes;
+			long o1 = one & lanes;
+			long o2 = (one >>> 16) & lanes;
+			long d1 = dot & lanes;
+			long d2 = (dot >>> 16) & lanes;
+
+			// same rules as the generic loop
+			homRef += Long.bitCount((z1 & z2) | ((z1 ^ z2) & ~(o1 | o2)));
+			homVar += Long.bitCount((o1 & o2) | ((o1 ^ o2) & ~(z1 | z2)));
+			het += Long.bitCount((o1 & z2) | (z1 & o2));
+			long missing = d1 & d2;
+			noCall += Long.bitCount(missing);
+
+			int bit = sample & 63;
+			called |= toSamples(lanes & ~missing) << bit;
+			firstAlt |= toSamples(o1) << bit;
+			secondAlt |= toSamples(o2) << bit;
+
+			sample += 2;
+			pos += 8;
+
+			// word complete, store the next 64 samples
+			if ((sample & 63) == 0 || sample >= samples) {
+				variantContext.setGenotypeWord((sample - 1) >>> 6, called, firstAlt, secondAlt);
+				called = 0;
+				firstAlt = 0;
+				secondAlt = 0;
+			}
+
+		}
+
+		homRefCount = homRef;
+		homVarCount = homVar;
+		hetCount = het;
+		noCallCount = noCall;
+		samplesInLineCount = samples;
+
+		return true;
+
+	}
+
+	// returns 0x80 in every byte of v that is zero
+	private static long zeroBytes(long v) {
+		return ~(((v & LOW_BITS) + LOW_BITS) | v | LOW_BITS);
+	}
+
+	// moves the lane bits 7 and 39 to bits 0 and 1
+	private static long toSamples(long lanes) {
+		return ((lanes >>> 7) & 1) | ((lanes >>> 38) & 2);
+	}
+
+	private static long readTail(byte[] buffer, int pos, int end) {
+		long word = 0;
+		for (int i = 7; i >= 0; i--) {
+			word = (word << 8) | (pos + i < end ? buffer[pos + i] & 0xff : '\t');
+		}
+		return word;
+	}
+
+	// same semantics as String.indexOf("GT") on the FORMAT column
+	private static int indexOfGT(byte[] buffer, int start, int end) {
+		for (int pos = start; pos < end - 1; pos++) {
+			if (buffer[pos] == 'G' && buffer[pos + 1] == 'T') {
+				return pos;
+			}
+		}
+		return -1;
+	}
+
+	private static int parseInt(byte[] buffer, int start, int end) {
+
+		int length = end - start;
+
+		// fast path for plain positive numbers that cannot overflow
+		if (length > 0 && length < 10) {
+			int value = 0;
+			for (int pos = start; pos < end; pos++) {
+				int digit = buffer[pos] - '0';
+				if (digit < 0 || digit > 9) {
+					return Integer.parseInt(new String(buffer, start, length, StandardCharsets.UTF_8));
+				}
+				value = value * 10 + digit;
+			}
+			return value;
+		}
+
+		return Integer.parseInt(new String(buffer, start, length, StandardCharsets.UTF_8));
+
 	}
 
 }
@@ -19,6 +19,11 @@ public class VcfChunk {
 	private int snps = 0;
 
 	private int inReference = 0;;
+
+	// extended region in a shared region file, -1 for chunk files
+	private long startOffset = -1;
+
+	private long endOffset = -1;
 	
 	public VcfChunk() {
 
@@ -37,6 +42,11 @@ public class VcfChunk {
 			snps = Integer.parseInt(tiles[5]);
 			inReference = Integer.parseInt(tiles[6]);
 		}
+
+		if (tiles.length > 8) {
+			startOffset = Long.parseLong(tiles[7]);
+			endOffset = Long.parseLong(tiles[8]);
+		}
 	}
 
 	public String getChromosome() {
@@ -99,11 +109,41 @@ public class VcfChunk {
 		this.inReference = inReference;
 	}
 
+	/**
+	 * Virtual file offset of the first record of the extended chunk (incl.
+	 * phasing window) in a shared region file.
+	 */
+	public long getStartOffset() {
+		return startOffset;
+	}
+
+	public void setStartOffset(long startOffset) {
+		this.startOffset = startOffset;
+	}
+
+	/**
+	 * Virtual file offset behind the last record of the extended chunk.
+	 */
+	public long getEndOffset() {
+		return endOffset;
+	}
+
+	public void setEndOffset(long endOffset) {
+		this.endOffset = endOffset;
+	}
+
+	/**
+	 * Returns true if the chunk is a region of a file shared with other
+	 * chunks.
+	 */
+	public boolean isShared() {
+		return startOffset != -1;
+	}
 
 	public String serialize() {
 		return chromosome + "\t" + start + "\t" + end + "\t"
 				+ (phased ? "VCF-PHASED" : "VCF-UNPHASED") + "\t" + vcfFilename
-				+ "\t" + snps + "\t" + inReference;
+				+ "\t" + snps + "\t" + inReference + (isShared() ? "\t" + startOffset + "\t" + endOffset : "");
 	}
 
 	public String getId() {
@@ -117,7 +157,7 @@ public class VcfChunk {
 	public int validSnpsChunk = 0;
 	public int foundInLegendChunk = 0;
 	public int notFoundInLegendChunk = 0;
-	public int[] snpsPerSampleCount = null;
+	public SampleCallCounter snpsPerSampleCount = null;
 	public BGzipLineWriter vcfChunkWriter;
 	public 	int lastPos = 0;
 	public boolean empty=true;
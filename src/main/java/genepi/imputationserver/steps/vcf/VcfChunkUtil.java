@@ -5,9 +5,14 @@ import genepi.hadoop.io.HdfsLineWriter;
 import genepi.io.text.LineReader;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Vector;
 
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
 public class VcfChunkUtil {
 
 	public static List<VcfChunk> mergeExcludedChunks(List<VcfChunk> chunks)
@@ -94,4 +99,52 @@ public class VcfChunkUtil {
 		return result;
 
 	}
+
+	/**
+	 * Writes the extended region of a shared chunk from its region file on
+	 * hdfs into an indexed chunk file. Only the header and the blocks of the
+	 * region are read.
+	 */
+	public static void extractChunk(VcfChunk chunk, String output) throws IOException {
+
+		FileSystem fileSystem = FileSystem.get(HdfsUtil.getConfiguration());
+		Path path = new Path(chunk.getVcfFilename());
+
+		try (FSDataInputStream header = fileSystem.open(path); FSDataInputStream records = fileSystem.open(path)) {
+			records.seek(chunk.getStartOffset() >>> 16);
+			extractChunk(header, records, chunk, output);
+		}
+
+	}
+
+	/**
+	 * Writes the header and the records between the virtual file offsets of
+	 * the chunk into an indexed chunk file. The records stream has to be
+	 * positioned at the block of the start offset.
+	 */
+	public static void extractChunk(InputStream header, InputStream records, VcfChunk chunk, String output)
+			throws IOException {
+
+		try (BGzipLineWriter writer = new BGzipLineWriter(output, true);
+				ParallelBGzipInputStream in = ParallelBGzipInputStream.open(header, 0);
+				ParallelBGzipInputStream region = ParallelBGzipInputStream.open(records, chunk.getStartOffset())) {
+
+			String line;
+			while ((line = in.readLine()) != null && line.startsWith("#")) {
+				writer.write(line);
+			}
+
+			if (chunk.getStartOffset() < chunk.getEndOffset()) {
+				do {
+					line = region.readLine();
+					if (line != null) {
+						writer.write(line);
+					}
+				} while (line != null && region.getFilePointer() < chunk.getEndOffset());
+			}
+
+		}
+
+	}
+
 }
@@ -1,11 +1,18 @@
 package genepi.imputationserver.steps.vcf;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class VcfFile {
 
+	// bins per chunk used to count the variant density
+	public static final int DENSITY_BINS = 100;
+
 	private Set<Integer> chunks;
 
+	private Map<Integer, Integer> density;
+
 	private Set<String> chromosomes;
 
 	private Set<String> rawChromosomes;
@@ -27,6 +34,8 @@ public class VcfFile {
 	private int chunkSize;
 	
 	private boolean chrPrefix;
+
+	private List<String> samples;
 	
 	public VcfFile() {
 
@@ -72,6 +81,22 @@ public class VcfFile {
 		this.chunks = chunks;
 	}
 
+	/**
+	 * Returns the number of variants per bin of getDensityBinSize() bases
+	 * (bin b covers b * binSize + 1 to (b + 1) * binSize).
+	 */
+	public Map<Integer, Integer> getDensity() {
+		return density;
+	}
+
+	public void setDensity(Map<Integer, Integer> density) {
+		this.density = density;
+	}
+
+	public static int getDensityBinSize(int chunkSize) {
+		return Math.max(1, chunkSize / DENSITY_BINS);
+	}
+
 	public void setVcfFilename(String vcfFilename) {
 		this.vcfFilename = vcfFilename;
 	}
@@ -155,4 +180,12 @@ public class VcfFile {
 		this.chrX = chrX;
 	}
 
+	public List<String> getSamples() {
+		return samples;
+	}
+
+	public void setSamples(List<String> samples) {
+		this.samples = samples;
+	}
+
 }
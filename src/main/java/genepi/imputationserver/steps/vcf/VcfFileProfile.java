@@ -0,0 +1,209 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+import genepi.io.text.LineReader;
+import genepi.io.text.LineWriter;
+
+/**
+ * Sidecar file with the results of VcfFileUtil.load. It is written during
+ * input validation and reused by the quality control step, as long as the
+ * vcf file and the chunk size are unchanged.
+ */
+public class VcfFileProfile {
+
+	public static final String EXTENSION = ".profile";
+
+	private static final String VERSION = "2";
+
+	// bytes hashed at the beginning and at the end of the file
+	private static final int HASH_BLOCK = 64 * 1024;
+
+	public static String getFilename(String vcfFilename) {
+		return vcfFilename + EXTENSION;
+	}
+
+	public static void write(VcfFile vcfFile) throws IOException {
+
+		String vcfFilename = vcfFile.getVcfFilename();
+		File file = new File(vcfFilename);
+
+		List<Integer> chunks = new Vector<Integer>(vcfFile.getChunks());
+		Collections.sort(chunks);
+
+		LineWriter writer = new LineWriter(getFilename(vcfFilename));
+		writer.write("version\t" + VERSION);
+		writer.write("size\t" + file.length());
+		writer.write("modified\t" + file.lastModified());
+		writer.write("hash\t" + hash(vcfFilename));
+		writer.write("chunksize\t" + vcfFile.getChunkSize());
+		writer.write("snps\t" + vcfFile.getNoSnps());
+		writer.write("phased\t" + vcfFile.isPhased());
+		writer.write("phasedAutodetect\t" + vcfFile.isPhasedAutodetect());
+		writer.write("chrPrefix\t" + vcfFile.hasChrPrefix());
+		writer.write("chromosomes\t" + join(vcfFile.getChromosomes()));
+		writer.write("rawChromosomes\t" + vcfFile.getRawChromosome());
+		writer.write("chunks\t" + join(chunks));
+		writer.write("density\t" + joinDensity(vcfFile.getDensity()));
+		writer.write("samples\t" + vcfFile.getNoSamples());
+		if (vcfFile.getSamples() != null) {
+			writer.write("sampleNames\t" + join(vcfFile.getSamples()));
+		}
+		writer.close();
+
+	}
+
+	/**
+	 * Returns the stored profile or null if no profile exists or if it does
+	 * not match the vcf file or the chunk size.
+	 */
+	public static VcfFile load(String vcfFilename, int chunkSize) throws IOException {
+
+		String profileFilename = getFilename(vcfFilename);
+		if (!new File(profileFilename).exists()) {
+			return null;
+		}
+
+		Map<String, String> values = new HashMap<String, String>();
+		LineReader reader = new LineReader(profileFilename);
+		while (reader.next()) {
+			String line = reader.get();
+			int tab = line.indexOf('\t');
+			if (tab != -1) {
+				values.put(line.substring(0, tab), line.substring(tab + 1));
+			}
+		}
+		reader.close();
+
+		File file = new File(vcfFilename);
+
+		if (!VERSION.equals(values.get("version")) || !String.valueOf(file.length()).equals(values.get("size"))
+				|| !String.valueOf(file.lastModified()).equals(values.get("modified"))
+				|| !String.valueOf(chunkSize).equals(values.get("chunksize"))
+				|| !String.valueOf(hash(vcfFilename)).equals(values.get("hash"))) {
+			return null;
+		}
+
+		if (!VcfFileUtil.isBcf(vcfFilename) && !new File(vcfFilename + ".tbi").exists()) {
+			return null;
+		}
+
+		try {
+
+			VcfFile vcfFile = new VcfFile();
+			vcfFile.setVcfFilename(vcfFilename);
+			vcfFile.setIndexFilename(vcfFilename + ".tbi");
+			vcfFile.setChunkSize(chunkSize);
+			vcfFile.setNoSnps(Integer.parseInt(values.get("snps")));
+			vcfFile.setNoSamples(Integer.parseInt(values.get("samples")));
+			vcfFile.setPhased(Boolean.parseBoolean(values.get("phased")));
+			vcfFile.setPhasedAutodetect(Boolean.parseBoolean(values.get("phasedAutodetect")));
+			vcfFile.setChrPrefix(Boolean.parseBoolean(values.get("chrPrefix")));
+			vcfFile.setChromosomes(split(values.get("chromosomes")));
+			vcfFile.setRawChromosomes(split(values.get("rawChromosomes")));
+
+			Set<Integer> chunks = new HashSet<Integer>();
+			for (String chunk : split(values.get("chunks"))) {
+				chunks.add(Integer.parseInt(chunk));
+			}
+			vcfFile.setChunks(chunks);
+
+			Map<Integer, Integer> density = new HashMap<Integer, Integer>();
+			for (String bin : split(values.get("density"))) {
+				String[] tiles = bin.split(":");
+				density.put(Integer.parseInt(tiles[0]), Integer.parseInt(tiles[1]));
+			}
+			vcfFile.setDensity(density);
+
+			if (values.containsKey("sampleNames")) {
+				vcfFile.setSamples(splitList(values.get("sampleNames")));
+			}
+
+			return vcfFile;
+
+		} catch (NullPointerException | NumberFormatException e) {
+			// incomplete profile, scan the file again
+			return null;
+		}
+
+	}
+
+	/**
+	 * Checksum of the file size and its first and last bytes. Cheap enough to
+	 * be computed on every load and detects replaced or appended files.
+	 */
+	public static long hash(String filename) throws IOException {
+
+		CRC32 crc = new CRC32();
+
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+
+			long length = file.length();
+			byte[] buffer = new byte[(int) Math.min(HASH_BLOCK, length)];
+
+			file.readFully(buffer);
+			crc.update(buffer);
+
+			if (length > HASH_BLOCK) {
+				file.seek(length - buffer.length);
+				file.readFully(buffer);
+				crc.update(buffer);
+			}
+
+			return crc.getValue() ^ (length << 32);
+
+		} finally {
+			file.close();
+		}
+
+	}
+
+	private static String join(Iterable<?> values) {
+		StringBuilder builder = new StringBuilder();
+		for (Object value : values) {
+			if (builder.length() > 0) {
+				builder.append("\t");
+			}
+			builder.append(value);
+		}
+		return builder.toString();
+	}
+
+	// bin:count pairs in bin order
+	private static String joinDensity(Map<Integer, Integer> density) {
+		List<String> bins = new Vector<String>();
+		if (density == null) {
+			return "";
+		}
+		for (Map.Entry<Integer, Integer> bin : new TreeMap<Integer, Integer>(density).entrySet()) {
+			bins.add(bin.getKey() + ":" + bin.getValue());
+		}
+		return join(bins);
+	}
+
+	private static Set<String> split(String value) {
+		return new HashSet<String>(splitList(value));
+	}
+
+	private static List<String> splitList(String value) {
+		List<String> values = new Vector<String>();
+		if (!value.isEmpty()) {
+			values.addAll(Arrays.asList(value.split("\t", -1)));
+		}
+		return values;
+	}
+
+}
@@ -1,13 +1,17 @@
 package genepi.imputationserver.steps.vcf;
 
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 import java.util.zip.GZIPOutputStream;
@@ -36,13 +40,48 @@ public class VcfFileUtil {
 		return TABIX_PATH;
 	}
 	
+	public static boolean isBcf(String filename) {
+		return filename.endsWith(".bcf");
+	}
+
+	/**
+	 * Opens a (compressed) text file. BGZF blocks are inflated in parallel and
+	 * BCF files are provided as VCF text.
+	 */
+	public static LineReader openLineReader(String filename) throws IOException {
+		return new LineReader(new DataInputStream(openInputStream(filename)));
+	}
+
+	/**
+	 * Opens the uncompressed VCF text of a VCF or BCF file.
+	 */
+	public static InputStream openInputStream(String filename) throws IOException {
+		if (isBcf(filename)) {
+			return new BcfTextInputStream(new BcfFileReader(filename));
+		}
+		return ParallelBGzipInputStream.open(filename);
+	}
+
+	/**
+	 * Opens a VCF or BCF file for record based access.
+	 */
+	public static IVcfFileReader openReader(String filename) throws IOException {
+		if (isBcf(filename)) {
+			return new BcfFileReader(filename);
+		}
+		return new FastVCFFileReader(filename);
+	}
+
 	public static VcfFile load(String vcfFilename, int chunksize, boolean createIndex) throws IOException {
 
 		Set<Integer> chunks = new HashSet<Integer>();
+		Map<Integer, Integer> density = new HashMap<Integer, Integer>();
+		int binSize = VcfFile.getDensityBinSize(chunksize);
 		Set<String> chromosomes = new HashSet<String>();
 		Set<String> rawChromosomes = new HashSet<String>();
 		int noSnps = 0;
 		int noSamples = 0;
+		List<String> sampleNames = new Vector<String>();
 
 		try {
 
@@ -52,7 +91,7 @@ public class VcfFileUtil {
 
 			reader.close();
 
-			LineReader lineReader = new LineReader(vcfFilename);
+			LineReader lineReader = openLineReader(vcfFilename);
 
 			boolean phased = true;
 			boolean phasedAutodetect = true;
@@ -116,6 +155,7 @@ public class VcfFileUtil {
 						chunk = chunk - 1;
 					}
 					chunks.add(chunk);
+					density.merge((position - 1) / binSize, 1, Integer::sum);
 					noSnps++;
 
 				} else {
@@ -137,6 +177,10 @@ public class VcfFileUtil {
 							}
 							samples.add(sample);
 						}
+
+						for (int i = 9; i < tiles.length; i++) {
+							sampleNames.add(tiles[i]);
+						}
 					}
 
 				}
@@ -144,24 +188,15 @@ public class VcfFileUtil {
 			}
 			lineReader.close();
 
-			// create index
-			if (createIndex && !new File(vcfFilename + ".tbi").exists()) {
+			// create index, not supported by tabix for bcf files
+			if (createIndex && !isBcf(vcfFilename) && !new File(vcfFilename + ".tbi").exists()) {
 
 				File command = new File(TABIX_PATH);
 				if (!command.canExecute()){
 					command.setExecutable(true, false);
 				}
 				
-				Command tabix = new Command(TABIX_PATH);
-				tabix.setParams("-f", "-p", "vcf", vcfFilename);
-				tabix.saveStdErr("tabix.output");
-				int returnCode = tabix.execute();
-
-				if (returnCode != 0) {
-					throw new IOException(
-							"The provided VCF file is malformed. Error during index creation: "
-									+ FileUtil.readFileAsString("tabix.output"));
-				}
+				createIndex(vcfFilename);
 
 			}
 
@@ -170,7 +205,9 @@ public class VcfFileUtil {
 			pair.setIndexFilename(vcfFilename + ".tbi");
 			pair.setNoSnps(noSnps);
 			pair.setNoSamples(noSamples);
+			pair.setSamples(sampleNames);
 			pair.setChunks(chunks);
+			pair.setDensity(density);
 			pair.setChromosomes(chromosomes);
 			
 			boolean hasChrPrefix = false;
@@ -349,16 +386,22 @@ public class VcfFileUtil {
 
 
 	public static void createIndex(String vcfFilename) throws IOException{
-		Command tabix = new Command(TABIX_PATH);
-		tabix.setParams("-f", "-p", "vcf", vcfFilename);
-		tabix.saveStdErr("tabix.output");
-		int returnCode = tabix.execute();
-
-		if (returnCode != 0) {
-			throw new IOException(
-					"The provided VCF file is malformed. Error during index creation: "
-							+ FileUtil.readFileAsString("tabix.output"));
+		// one output file per call, files can be indexed concurrently
+		File output = File.createTempFile("tabix", ".output");
+		try {
+			Command tabix = new Command(TABIX_PATH);
+			tabix.setParams("-f", "-p", "vcf", vcfFilename);
+			tabix.saveStdErr(output.getAbsolutePath());
+			int returnCode = tabix.execute();
+
+			if (returnCode != 0) {
+				throw new IOException(
+						"The provided VCF file is malformed. Error during index creation: "
+								+ FileUtil.readFileAsString(output.getAbsolutePath()));
+			}
+		} finally {
+			output.delete();
 		}
-		
+
 	}
 }
\ No newline at end of file
@@ -2,9 +2,19 @@ package genepi.imputationserver.steps.vcf;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import genepi.imputationserver.steps.vcf.sort.VcfLine;
 import genepi.imputationserver.steps.vcf.sort.VcfLineSortingCollection;
@@ -17,6 +27,25 @@ public class VcfLiftOverFast {
 
 	private static final int MAX_RECORDS_IN_RAM = 1000;
 
+	// records per batch lifted by one thread
+	public static final int BATCH_SIZE = 10000;
+
+	// parsed chain files kept per process
+	public static final int MAX_CHAINS = 4;
+
+	// parsed chain files by path, size and modification time, least recently
+	// used first
+	private static final Map<String, LiftOver> CHAINS = new LinkedHashMap<String, LiftOver>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, LiftOver> eldest) {
+			return size() > MAX_CHAINS;
+		}
+
+	};
+
 	public static final Map<String, String> ALLELE_SWITCHES = new HashMap<String, String>();
 
 	static {
@@ -28,31 +57,188 @@ public class VcfLiftOverFast {
 
 	public static Vector<String> liftOver(String input, String output, String chainFile, String tempDir)
 			throws IOException {
+		return liftOver(input, output, chainFile, tempDir, 1);
+	}
 
-		System.out.println("Processing file '" + input + "'...");
+	/**
+	 * Returns the parsed chain file. The last MAX_CHAINS chain files are kept
+	 * per process and shared by all files and threads. LiftOver.liftOver only
+	 * reads the chain index, the single field it writes is the counter of
+	 * failed intervals, which is never read here. The instance must not be
+	 * reconfigured after it was returned.
+	 */
+	public static synchronized LiftOver getLiftOver(String chainFile) {
+		File file = new File(chainFile);
+		String key = file.getAbsolutePath() + "\t" + file.length() + "\t" + file.lastModified();
+		LiftOver liftOver = CHAINS.get(key);
+		if (liftOver == null) {
+			liftOver = new LiftOver(file);
+			liftOver.setShouldLogFailedIntervalsBelowThreshold(false);
+			CHAINS.put(key, liftOver);
+		}
+		return liftOver;
+	}
+
+	/**
+	 * Lifts batches of records on the given number of threads. Batches are
+	 * added to the sorter and their errors are collected in input order, so
+	 * the output does not depend on the number of threads.
+	 */
+	public static Vector<String> liftOver(String input, String output, String chainFile, String tempDir,
+			int threads) throws IOException {
 
-		LineReader reader = new LineReader(input);
+		System.out.println("Processing file '" + input + "'...");
 
-		LiftOver liftOver = new LiftOver(new File(chainFile));
-		liftOver.setShouldLogFailedIntervalsBelowThreshold(false);
+		LiftOver liftOver = getLiftOver(chainFile);
 
 		Vector<String> errors = new Vector<String>();
 
-		SortingCollection<VcfLine> sorter = VcfLineSortingCollection.newInstance(MAX_RECORDS_IN_RAM, tempDir);
+		Batch total = new Batch(liftOver);
+
+		LineReader reader = VcfFileUtil.openLineReader(input);
+
+		try (BGzipLineWriter writer = new BGzipLineWriter(output, true)) {
+
+			SortingCollection<VcfLine> sorter = VcfLineSortingCollection.newInstance(MAX_RECORDS_IN_RAM, tempDir);
+
+			try {
+
+				ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+
+				// lifted batches in input order, at most 2 x threads batches are
+				// pending
+				LinkedList<Future<Batch>> pending = new LinkedList<Future<Batch>>();
+
+				try {
+
+					Batch batch = new Batch(liftOver);
+					while (reader.next()) {
+
+						String line = reader.get();
+						if (line.startsWith("#")) {
+							writer.write(line);
+						} else {
+
+							batch.lines.add(line);
+
+							if (batch.lines.size() == BATCH_SIZE) {
+								if (executor == null) {
+									total.add(batch.call(), sorter, errors);
+								} else {
+									pending.add(executor.submit(batch));
+									if (pending.size() > threads * 2) {
+										total.add(get(pending.removeFirst()), sorter, errors);
+									}
+								}
+								batch = new Batch(liftOver);
+							}
+
+						}
+
+					}
+
+					while (!pending.isEmpty()) {
+						total.add(get(pending.removeFirst()), sorter, errors);
+					}
+					total.add(batch.call(), sorter, errors);
+
+				} finally {
+					if (executor != null) {
+						shutdown(executor);
+					}
+				}
+
+				sorter.doneAdding();
+
+				int pos = -1;
+				for (VcfLine vcfLine : sorter) {
+					if (vcfLine.getPosition() < pos) {
+						throw new IOException("Sorting VCF file after Liftover failed.");
+					}
+					writer.write(vcfLine.getLine());
+					pos = vcfLine.getPosition();
+				}
+
+			} finally {
+				sorter.cleanup();
+			}
+
+		} finally {
+			reader.close();
+		}
+
+		// one message, files can be lifted concurrently
+		System.out.println("\n" + "Processed " + total.count + " variants\n" + total.failed
+				+ " variants failed to liftover\n" + total.indels + " variants removed (indels on negative strand)\n"
+				+ total.diffChromosome + " variants removed (different chromosome)\n" + total.successful
+				+ " variants lifted over\n");
+
+		return errors;
+	}
+
+	public static String switchAllel(String allele) {
+		return ALLELE_SWITCHES.get(allele);
+	}
+
+	// running batches are interrupted, they only lift records in memory
+	private static void shutdown(ExecutorService executor) throws IOException {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Lift over interrupted.");
+		}
+	}
+
+	private static Batch get(Future<Batch> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Lift over interrupted.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	// records lifted by one thread. the totals of a file are summed up in the
+	// same fields.
+	private static class Batch implements Callable<Batch> {
+
+		private LiftOver liftOver;
+
+		private List<String> lines = new Vector<String>(BATCH_SIZE);
+
+		private List<VcfLine> lifted = new Vector<VcfLine>();
 
-		int count = 0;
-		int successful = 0;
-		int failed = 0;
-		int diffChromosome = 0;
-		int indels = 0;
+		private List<String> errors = new Vector<String>();
 
-		BGzipLineWriter writer = new BGzipLineWriter(output);
-		while (reader.next()) {
+		private int count = 0;
 
-			String line = reader.get();
-			if (line.startsWith("#")) {
-				writer.write(line);
-			} else {
+		private int successful = 0;
+
+		private int failed = 0;
+
+		private int diffChromosome = 0;
+
+		private int indels = 0;
+
+		public Batch(LiftOver liftOver) {
+			this.liftOver = liftOver;
+		}
+
+		@Override
+		public Batch call() {
+
+			for (String line : lines) {
 
 				count++;
 
@@ -108,7 +294,7 @@ public class VcfLiftOverFast {
 
 								vcfLine.setContig(newContig);
 								vcfLine.setPosition(target.getStart());
-								sorter.add(vcfLine);
+								lifted.add(vcfLine);
 
 							} else {
 
@@ -133,34 +319,24 @@ public class VcfLiftOverFast {
 				}
 			}
 
+			lines = null;
+			return this;
+
 		}
-		reader.close();
-		sorter.doneAdding();
 
-		int pos = -1;
-		for (VcfLine vcfLine : sorter) {
-			if (vcfLine.getPosition() < pos) {
-				throw new IOException("Sorting VCF file after Liftover failed.");
+		// adds the records and errors of a lifted batch
+		public void add(Batch batch, SortingCollection<VcfLine> sorter, List<String> errors) {
+			for (VcfLine vcfLine : batch.lifted) {
+				sorter.add(vcfLine);
 			}
-			writer.write(vcfLine.getLine());
-			pos = vcfLine.getPosition();
+			errors.addAll(batch.errors);
+			count += batch.count;
+			successful += batch.successful;
+			failed += batch.failed;
+			diffChromosome += batch.diffChromosome;
+			indels += batch.indels;
 		}
-		writer.close();
-		sorter.cleanup();
 
-		System.out.println("");
-		System.out.println("Processed " + count + " variants");
-		System.out.println(failed + " variants failed to liftover");
-		System.out.println(indels + " variants removed (indels on negative strand)");
-		System.out.println(diffChromosome + " variants removed (different chromosome)");
-		System.out.println(successful + " variants lifted over");
-		System.out.println("");
-
-		return errors;
-	}
-
-	public static String switchAllel(String allele) {
-		return ALLELE_SWITCHES.get(allele);
 	}
 
 }
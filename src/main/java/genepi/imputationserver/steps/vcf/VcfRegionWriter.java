@@ -0,0 +1,206 @@
+package genepi.imputationserver.steps.vcf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongUnaryOperator;
+
+import genepi.io.FileUtil;
+
+/**
+ * Writes the records of all chunks of a chromosome once into a shared,
+ * indexed BGZF file. Records in the phasing window are not copied into the
+ * files of both neighbouring chunks. Instead, every chunk stores the virtual
+ * file offsets of its extended region (chunk and phasing window). The file
+ * can be written in parts, e.g. one part per chunk, which are concatenated in
+ * position order by merge.
+ */
+public class VcfRegionWriter {
+
+	private String filename;
+
+	private ChunkPlan plan;
+
+	private int phasingWindow;
+
+	private ParallelBGzipOutputStream out;
+
+	private TabixIndexBuilder index = new TabixIndexBuilder();
+
+	// block pointer of the first record at or after a chunk boundary
+	private TreeMap<Integer, Long> boundaries = new TreeMap<Integer, Long>();
+
+	// next chunks whose window start and window end are not yet recorded
+	private int nextStart = 0;
+
+	private int nextEnd = 0;
+
+	// block pointer behind the last record
+	private long endPointer = 0;
+
+	public VcfRegionWriter(String filename, int chunkSize, int phasingWindow) throws IOException {
+		this(filename, new ChunkPlan(chunkSize), phasingWindow);
+	}
+
+	public VcfRegionWriter(String filename, ChunkPlan plan, int phasingWindow) throws IOException {
+		this(filename, plan, phasingWindow, ParallelBGzipOutputStream.DEFAULT_LEVEL);
+	}
+
+	public VcfRegionWriter(String filename, ChunkPlan plan, int phasingWindow, int level) throws IOException {
+		this.filename = filename;
+		this.plan = plan;
+		this.phasingWindow = phasingWindow;
+		out = new ParallelBGzipOutputStream(new File(filename), level);
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public void writeHeader(List<String> header) throws IOException {
+		for (String line : header) {
+			out.write(line.getBytes(StandardCharsets.UTF_8));
+			out.write('\n');
+		}
+	}
+
+	public void write(MinimalVariantContext snp) throws IOException {
+
+		int position = snp.getStart();
+		long offsetStart = out.getBlockPointer();
+
+		addBoundaries(position, offsetStart);
+
+		if (snp.getRawBuffer() != null) {
+			out.write(snp.getRawBuffer(), snp.getRawOffset(), snp.getRawLength());
+		} else {
+			out.write(snp.getRawLine().getBytes(StandardCharsets.UTF_8));
+		}
+		out.write('\n');
+
+		int start = position - 1;
+		index.addRecord(snp.getContig(), start, start + snp.getReferenceAllele().length(), offsetStart,
+				out.getBlockPointer());
+
+	}
+
+	/**
+	 * Closes the part. Parts have no EOF block, it is added by merge.
+	 */
+	public void close() throws IOException {
+		endPointer = out.getBlockPointer();
+		out.close(false);
+	}
+
+	/**
+	 * Concatenates the parts into one file, writes its tabix index and sets
+	 * the virtual file offsets of the extended region of every chunk.
+	 */
+	public static void merge(String filename, List<VcfRegionWriter> parts, List<VcfChunk> chunks)
+			throws IOException {
+
+		TabixIndexBuilder index = new TabixIndexBuilder();
+		TreeMap<Integer, Long> offsets = new TreeMap<Integer, Long>();
+
+		OutputStream out = new FileOutputStream(filename);
+		long address = 0;
+
+		try {
+
+			for (VcfRegionWriter part : parts) {
+
+				final ParallelBGzipOutputStream stream = part.out;
+				final long shift = address << 16;
+				final long endPointer = part.endPointer;
+				final long next = (address + new File(part.filename).length()) << 16;
+
+				// blocks of a part keep their offsets, only their address moves.
+				// The end of a part is the start of the next one, as read by
+				// tabix.
+				LongUnaryOperator offset = (pointer) -> pointer == endPointer ? next
+						: stream.toFilePointer(pointer) + shift;
+
+				index.append(part.index, offset);
+				for (Map.Entry<Integer, Long> boundary : part.boundaries.entrySet()) {
+					if (!offsets.containsKey(boundary.getKey())) {
+						offsets.put(boundary.getKey(), offset.applyAsLong(boundary.getValue()));
+					}
+				}
+
+				address += copy(part.filename, out);
+				FileUtil.deleteFile(part.filename);
+
+			}
+
+			ParallelBGzipOutputStream.writeTerminator(out);
+
+		} finally {
+			out.close();
+		}
+
+		// records behind the last boundary
+		long end = address << 16;
+
+		index.write(TabixIndex.getFilename(filename));
+
+		int phasingWindow = parts.get(0).phasingWindow;
+		for (VcfChunk chunk : chunks) {
+			Long start = offsets.get(getWindowStart(chunk.getStart(), phasingWindow));
+			Long stop = offsets.get(getWindowEnd(chunk.getEnd(), phasingWindow));
+			chunk.setVcfFilename(filename);
+			chunk.setStartOffset(start != null ? start : end);
+			chunk.setEndOffset(stop != null ? stop : end);
+		}
+
+	}
+
+	// first position of the extended region of a chunk
+	private static int getWindowStart(int chunkStart, int phasingWindow) {
+		return chunkStart - phasingWindow;
+	}
+
+	// first position behind the extended region of a chunk
+	private static int getWindowEnd(int chunkEnd, int phasingWindow) {
+		return chunkEnd + phasingWindow + 1;
+	}
+
+	// records the pointer for all boundaries <= position not recorded by an
+	// earlier record
+	private void addBoundaries(int position, long pointer) {
+
+		while (plan.contains(nextStart) && getWindowStart(plan.getStart(nextStart), phasingWindow) <= position) {
+			boundaries.put(getWindowStart(plan.getStart(nextStart), phasingWindow), pointer);
+			nextStart++;
+		}
+
+		while (plan.contains(nextEnd) && getWindowEnd(plan.getEnd(nextEnd), phasingWindow) <= position) {
+			boundaries.put(getWindowEnd(plan.getEnd(nextEnd), phasingWindow), pointer);
+			nextEnd++;
+		}
+
+	}
+
+	private static long copy(String filename, OutputStream out) throws IOException {
+		InputStream in = new FileInputStream(filename);
+		long size = 0;
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+				size += read;
+			}
+		} finally {
+			in.close();
+		}
+		return size;
+	}
+
+}
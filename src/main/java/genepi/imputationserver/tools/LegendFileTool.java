@@ -54,7 +54,7 @@ public class LegendFileTool extends Tool {
 			LegendFileReader legendFileReader = new LegendFileReader(reference, "");
 
 			System.out.println("  Create index...");
-			legendFileReader.createIndex();
+			legendFileReader.createIndex(Runtime.getRuntime().availableProcessors());
 
 			System.out.println("  Init search...");
 			legendFileReader.initSearch();
@@ -0,0 +1,52 @@
+package genepi.imputationserver.tools;
+
+import genepi.base.Tool;
+import genepi.imputationserver.steps.fastqc.legend.BinaryLegendFile;
+
+public class LegendIndexTool extends Tool {
+
+	public LegendIndexTool(String[] args) {
+		super(args);
+	}
+
+	@Override
+	public void createParameters() {
+		addParameter("legend", "input legend file");
+		addOptionalParameter("output", "output file (default: legend file + " + BinaryLegendFile.EXTENSION + ")",
+				Tool.STRING);
+	}
+
+	@Override
+	public void init() {
+		System.out.println("Binary LegendFile Generator for Michigan Imputation Server");
+		System.out.println("");
+	}
+
+	@Override
+	public int run() {
+
+		String legend = getValue("legend").toString();
+		String output = BinaryLegendFile.getFilename(legend);
+		if (getValue("output") != null) {
+			output = getValue("output").toString();
+		}
+
+		try {
+
+			System.out.println("Convert legend file " + legend + "...");
+			int count = BinaryLegendFile.write(legend, output);
+
+			System.out.println("Legend file: " + legend);
+			System.out.println("  Written " + count + " records to " + output + ".");
+
+			return 0;
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			return 1;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,134 @@
+package genepi.imputationserver.util;
+
+import genepi.imputationserver.steps.fastqc.legend.LegendEntry;
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+
+/**
+ * Classifies the alleles of a study SNP against its legend entry with a
+ * single lookup in a precomputed table. The outcomes follow the order of the
+ * checks in the quality control: match, A/T or C/G genotypes, allele switch,
+ * strand flip, strand flip and allele switch and allele mismatch.
+ */
+public class AlleleClassifier {
+
+	public enum Outcome {
+		MATCH, COMPLICATED_GENOTYPES, ALLELE_SWITCH, STRAND_FLIP, STRAND_FLIP_AND_ALLELE_SWITCH, ALLELE_MISMATCH
+	}
+
+	private static final char[] NUCLEOTIDES = { 'A', 'C', 'G', 'T' };
+
+	// code of A, C, G and T; -1 for all other characters
+	private static final byte[] CODES = new byte[128];
+
+	// outcome for every combination of studyRef, studyAlt, legendRef and
+	// legendAlt codes
+	private static final Outcome[] OUTCOMES = new Outcome[4 * 4 * 4 * 4];
+
+	static {
+
+		for (int i = 0; i < CODES.length; i++) {
+			CODES[i] = -1;
+		}
+		for (int i = 0; i < NUCLEOTIDES.length; i++) {
+			CODES[NUCLEOTIDES[i]] = (byte) i;
+		}
+
+		for (char studyRef : NUCLEOTIDES) {
+			for (char studyAlt : NUCLEOTIDES) {
+				for (char legendRef : NUCLEOTIDES) {
+					for (char legendAlt : NUCLEOTIDES) {
+						OUTCOMES[index(code(studyRef), code(studyAlt), code(legendRef), code(legendAlt))] = compute(
+								studyRef, studyAlt, legendRef, legendAlt);
+					}
+				}
+			}
+		}
+
+	}
+
+	public static Outcome classify(MinimalVariantContext snp, LegendEntry refEntry) {
+		return classify(snp.getReferenceAllele().charAt(0), snp.getAlternateAllele().charAt(0),
+				refEntry.getAlleleA(), refEntry.getAlleleB());
+	}
+
+	public static Outcome classify(char studyRef, char studyAlt, char legendRef, char legendAlt) {
+
+		int a = code(studyRef);
+		int b = code(studyAlt);
+		int c = code(legendRef);
+		int d = code(legendAlt);
+
+		if ((a | b | c | d) >= 0) {
+			return OUTCOMES[index(a, b, c, d)];
+		}
+
+		// only A, C, G and T can be complicated genotypes or strand flips
+		if (studyRef == legendRef && studyAlt == legendAlt) {
+			return Outcome.MATCH;
+		} else if (studyRef == legendAlt && studyAlt == legendRef) {
+			return Outcome.ALLELE_SWITCH;
+		} else {
+			return Outcome.ALLELE_MISMATCH;
+		}
+
+	}
+
+	/**
+	 * Returns true for A, C, G and T.
+	 */
+	public static boolean isNucleotide(char allele) {
+		return code(allele) >= 0;
+	}
+
+	private static int code(char allele) {
+		return allele < CODES.length ? CODES[allele] : -1;
+	}
+
+	private static int index(int studyRef, int studyAlt, int legendRef, int legendAlt) {
+		return ((studyRef * 4 + studyAlt) * 4 + legendRef) * 4 + legendAlt;
+	}
+
+	private static Outcome compute(char studyRef, char studyAlt, char legendRef, char legendAlt) {
+
+		if (studyRef == legendRef && studyAlt == legendAlt) {
+			return Outcome.MATCH;
+		}
+
+		// A/T and C/G genotypes can not be distinguished from their strand flip
+		boolean complicated = studyAlt == complement(studyRef);
+
+		if (complicated && legendAlt == complement(legendRef) && (legendRef == studyRef || legendRef == studyAlt)) {
+			return Outcome.COMPLICATED_GENOTYPES;
+		}
+
+		if (studyRef == legendAlt && studyAlt == legendRef) {
+			return Outcome.ALLELE_SWITCH;
+		}
+
+		if (studyRef != studyAlt && !complicated) {
+			if (legendRef == complement(studyRef) && legendAlt == complement(studyAlt)) {
+				return Outcome.STRAND_FLIP;
+			}
+			if (legendRef == complement(studyAlt) && legendAlt == complement(studyRef)) {
+				return Outcome.STRAND_FLIP_AND_ALLELE_SWITCH;
+			}
+		}
+
+		return Outcome.ALLELE_MISMATCH;
+
+	}
+
+	private static char complement(char allele) {
+		switch (allele) {
+		case 'A':
+			return 'T';
+		case 'T':
+			return 'A';
+		case 'C':
+			return 'G';
+		default:
+			return 'C';
+		}
+	}
+
+}
@@ -87,6 +87,17 @@ public class DefaultPreferenceStore {
 		defaults.setProperty("hg38Tohg19", "chains/hg38ToHg19.over.chain.gz");
 		defaults.setProperty("hg19Tohg38", "chains/hg19ToHg38.over.chain.gz");
 		defaults.setProperty("sanitycheck", "yes");
+		defaults.setProperty("validation.threads", "4");
+		defaults.setProperty("qc.threads", "4");
+		defaults.setProperty("qc.file.threads", "2");
+		defaults.setProperty("qc.liftover.threads", "1");
+		defaults.setProperty("qc.liftover.file.threads", "1");
+		defaults.setProperty("qc.legend.cache", "1024");
+		defaults.setProperty("qc.chunks.shared", "false");
+		defaults.setProperty("qc.chunks.adaptive", "false");
+		defaults.setProperty("qc.failfast", "false");
+		defaults.setProperty("bgzip.threads", "4");
+		defaults.setProperty("bgzip.level", "5");
 
 		return defaults;
 	}
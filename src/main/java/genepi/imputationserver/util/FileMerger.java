@@ -1,7 +1,6 @@
 package genepi.imputationserver.util;
 
 import java.io.DataInputStream;
-import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -10,9 +9,10 @@ import java.util.zip.GZIPOutputStream;
 
 import genepi.hadoop.HdfsUtil;
 import genepi.imputationserver.steps.imputation.ImputationPipeline;
+import genepi.imputationserver.steps.vcf.ParallelBGzipOutputStream;
 import genepi.imputationserver.steps.vcf.VcfChunk;
+import genepi.imputationserver.steps.vcf.VcfFileUtil;
 import genepi.io.text.LineReader;
-import htsjdk.samtools.util.BlockCompressedOutputStream;
 
 public class FileMerger {
 
@@ -20,7 +20,7 @@ public class FileMerger {
 
 	public static void splitIntoHeaderAndData(String input, OutputStream outHeader, OutputStream outData,
 			ImputationParameters parameters) throws IOException {
-		LineReader reader = new LineReader(input);
+		LineReader reader = VcfFileUtil.openLineReader(input);
 
 		while (reader.next()) {
 			String line = reader.get();
@@ -52,7 +52,7 @@ public class FileMerger {
 
 	public static void splitPhasedIntoHeaderAndData(String input, OutputStream outHeader, OutputStream outData,
 			VcfChunk chunk, ImputationParameters parameters) throws IOException {
-		LineReader reader = new LineReader(input);
+		LineReader reader = VcfFileUtil.openLineReader(input);
 
 		while (reader.next()) {
 			String line = reader.get();
@@ -85,12 +85,14 @@ public class FileMerger {
 		reader.close();
 	}
 
-	public static class BgzipSplitOutputStream extends BlockCompressedOutputStream {
-
-		public final static File emptyFile = null;
+	public static class BgzipSplitOutputStream extends ParallelBGzipOutputStream {
 
 		public BgzipSplitOutputStream(OutputStream os) {
-			super(os, (File) emptyFile);
+			super(os);
+		}
+
+		public BgzipSplitOutputStream(OutputStream os, int level) {
+			super(os, level);
 		}
 
 		@Override
@@ -20,14 +20,9 @@ public class GenomicTools {
 	private static final String CA = "CA";
 	private static final String TG = "TG";
 	private static final String AC = "AC";
-	private static final String T = "T";
-	private static final String G = "G";
-	private static final String C = "C";
-	private static final String A = "A";
 
 	public static boolean isValid(String allele) {
-		return allele.toUpperCase().equals(A) || allele.toUpperCase().equals(C) || allele.toUpperCase().equals(G)
-				|| allele.toUpperCase().equals(T);
+		return allele.length() == 1 && AlleleClassifier.isNucleotide(Character.toUpperCase(allele.charAt(0)));
 	}
 
 	public static boolean match(MinimalVariantContext snp, LegendEntry refEntry) {
@@ -229,8 +224,8 @@ public class GenomicTools {
 	public static SnpStats calculateAlleleFreq(MinimalVariantContext snp, LegendEntry refSnp, int size)
 			throws IOException, InterruptedException {
 
-		boolean strandSwap = GenomicTools.strandFlipAndAlleleSwitch(snp, refSnp)
-				|| GenomicTools.alleleSwitch(snp, refSnp);
+		boolean strandSwap = GenomicTools.alleleSwitch(snp, refSnp) || AlleleClassifier.classify(snp,
+				refSnp) == AlleleClassifier.Outcome.STRAND_FLIP_AND_ALLELE_SWITCH;
 
 		// calculate allele frequency
 		SnpStats output = new SnpStats();
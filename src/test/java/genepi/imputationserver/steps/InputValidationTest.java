@@ -7,6 +7,8 @@ import java.io.IOException;
 import cloudgene.sdk.internal.WorkflowStep;
 import genepi.imputationserver.steps.vcf.VcfFileUtil;
 import genepi.imputationserver.util.WorkflowTestContext;
+import genepi.io.FileUtil;
+import genepi.io.text.LineWriter;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.tribble.util.TabixUtils;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -426,6 +428,42 @@ public class InputValidationTest extends TestCase {
 
 
 
+	public void testFileOrderWithThreads() throws IOException {
+
+		String configFolder = "test-data/tmp/validation-threads";
+		String inputFolder = "test-data/data/three";
+
+		// files are loaded on several threads
+		FileUtil.deleteDirectory(configFolder);
+		FileUtil.createDirectory(configFolder);
+		FileUtil.copy("test-data/configs/hapmap-chr1/panels.txt", FileUtil.path(configFolder, "panels.txt"));
+		LineWriter writer = new LineWriter(FileUtil.path(configFolder, "job.config"));
+		writer.write("validation.threads=3");
+		writer.close();
+
+		// create workflow context
+		WorkflowTestContext context = buildContext(inputFolder, "hapmap2");
+		context.setInput("phasing", "eagle");
+
+		// create step instance
+		InputValidation inputValidation = new InputValidationMock(configFolder);
+
+		// run and test
+		boolean result = run(context, inputValidation);
+
+		// check if step is failed
+		assertEquals(true, result);
+
+		// every file shows the statistics of the files before it
+		assertTrue(context.hasInMemory("[RUN] Analyze file minimac_test2.50.vcf.gz...\n"));
+		assertTrue(context.hasInMemory("[RUN] Analyze file minimac_test3.50.vcf.gz...\n\nSamples: 41\nChromosomes: 2\n"));
+		assertTrue(context.hasInMemory("[RUN] Analyze file minimac_test4.50.vcf.gz...\n\nSamples: 41\nChromosomes: 2 3\n"));
+		assertTrue(context.hasInMemory("[OK] 3 valid VCF file(s) found.\n\nSamples: 41\nChromosomes: 2 3 4\n"));
+
+		FileUtil.deleteDirectory(configFolder);
+
+	}
+
 	public void testTabixIndexCreationChr20() throws IOException {
 
 		String configFolder = "test-data/configs/hapmap-chr1";
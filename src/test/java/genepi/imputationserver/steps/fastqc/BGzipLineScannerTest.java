@@ -0,0 +1,112 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Vector;
+
+import genepi.imputationserver.steps.fastqc.legend.LegendEntry;
+import genepi.imputationserver.steps.fastqc.legend.LegendFileReader;
+import genepi.imputationserver.steps.vcf.BGzipLineScanner;
+import genepi.imputationserver.steps.vcf.BGzipLineWriter;
+import genepi.io.text.LineReader;
+import junit.framework.TestCase;
+
+public class BGzipLineScannerTest extends TestCase {
+
+	public static final String LEGEND = "test-data/configs/hapmap-chr20/ref-panels/hapmap_r22.chr20.CEU.hg19_impute.legend.gz";
+
+	public void testLinesAndOffsets() throws IOException {
+
+		String filename = createBGzipLegend();
+
+		List<String> expected = new Vector<String>();
+		List<Long> expectedOffsets = new Vector<Long>();
+		long offset = 0;
+		LineReader reader = new LineReader(LEGEND);
+		while (reader.next()) {
+			expected.add(reader.get());
+			expectedOffsets.add(offset);
+			offset += reader.get().length() + 1;
+		}
+		reader.close();
+
+		BGzipLineScanner scanner = new BGzipLineScanner(filename);
+		assertEquals(offset - 1, scanner.getSize());
+
+		for (int threads : new int[] { 1, 3, 8 }) {
+
+			List<List<Object[]>> ranges = scanner.scan(new BGzipLineScanner.ILineHandler<List<Object[]>>() {
+
+				@Override
+				public List<Object[]> createResult() {
+					return new Vector<Object[]>();
+				}
+
+				@Override
+				public void processLine(List<Object[]> result, byte[] buffer, int offset, int length,
+						long fileOffset) {
+					result.add(new Object[] { new String(buffer, offset, length, StandardCharsets.US_ASCII),
+							fileOffset });
+				}
+
+			}, threads);
+
+			int i = 0;
+			for (List<Object[]> range : ranges) {
+				for (Object[] line : range) {
+					assertEquals(expected.get(i), line[0]);
+					assertEquals(expectedOffsets.get(i), line[1]);
+					i++;
+				}
+			}
+			assertEquals(expected.size(), i);
+
+		}
+
+	}
+
+	public void testParallelLegendIndex() throws IOException {
+
+		String filename = createBGzipLegend();
+
+		LegendFileReader expected = new LegendFileReader(filename, "eur");
+		expected.createIndex();
+		expected.initSearch();
+
+		LegendFileReader reader = new LegendFileReader(filename, "eur");
+		reader.createIndex(4);
+		reader.initSearch();
+
+		LineReader lines = new LineReader(LEGEND);
+		lines.next();
+		while (lines.next()) {
+			int position = Integer.parseInt(lines.get().split(" ")[1]);
+			LegendEntry expectedEntry = expected.findByPosition(position);
+			LegendEntry entry = reader.findByPosition(position);
+			assertEquals(expectedEntry.getAlleleA(), entry.getAlleleA());
+			assertEquals(expectedEntry.getAlleleB(), entry.getAlleleB());
+			assertEquals(expectedEntry.getFrequencyB(), entry.getFrequencyB());
+		}
+		lines.close();
+
+		expected.close();
+		reader.close();
+
+	}
+
+	private String createBGzipLegend() throws IOException {
+		File output = File.createTempFile("legend", ".legend.gz");
+		output.deleteOnExit();
+		LineReader reader = new LineReader(LEGEND);
+		BGzipLineWriter writer = new BGzipLineWriter(output.getAbsolutePath());
+		while (reader.next()) {
+			writer.write(reader.get());
+		}
+		reader.close();
+		writer.close();
+		return output.getAbsolutePath();
+	}
+
+}
@@ -0,0 +1,107 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import genepi.imputationserver.steps.vcf.BGzipLineWriter;
+import genepi.imputationserver.steps.vcf.FastVCFFileReader;
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.steps.vcf.ParallelBGzipInputStream;
+import genepi.imputationserver.steps.vcf.TabixIndex;
+import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.io.FileUtil;
+import genepi.io.text.LineReader;
+import junit.framework.TestCase;
+
+public class BGzipLineWriterTest extends TestCase {
+
+	public void testRawRecordsSameAsRawLines() throws IOException {
+
+		String dir = FileUtil.path("test-data", "tmp", "bgzip-raw-records");
+		FileUtil.deleteDirectory(dir);
+		FileUtil.createDirectory(dir);
+
+		// non-ASCII characters at all positions of the reader buffer and of
+		// the bgzf blocks, one line is longer than the reader buffer
+		List<String> lines = new Vector<String>();
+		lines.add("##fileformat=VCFv4.1");
+		lines.add("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tsample1\tsample2");
+		StringBuilder info = new StringBuilder();
+		for (int i = 1; i <= 5000; i++) {
+			info.append(i % 3 == 0 ? "\u00e4" : i % 3 == 1 ? "\u20ac" : "\u65e5");
+			String value = i == 2500 ? repeat("\u00fc\u20ac", 600000) : info.substring(0, info.length() % 701);
+			lines.add("20\t" + (i * 10) + "\trs" + i + "\tA\tG\t.\tPASS\tNOTE=" + value + "\tGT\t0|1\t1|0");
+		}
+
+		String input = FileUtil.path(dir, "input.vcf.gz");
+		BGzipLineWriter writer = new BGzipLineWriter(input);
+		for (String line : lines) {
+			writer.write(line);
+		}
+		writer.close();
+
+		String raw = FileUtil.path(dir, "raw.vcf.gz");
+		String text = FileUtil.path(dir, "text.vcf.gz");
+		BGzipLineWriter rawWriter = new BGzipLineWriter(raw, true);
+		BGzipLineWriter textWriter = new BGzipLineWriter(text, true);
+
+		LineReader header = VcfFileUtil.openLineReader(input);
+		while (header.next() && header.get().startsWith("#")) {
+			rawWriter.write(header.get());
+			textWriter.write(header.get());
+		}
+		header.close();
+
+		FastVCFFileReader reader = new FastVCFFileReader(input);
+		int records = 0;
+		while (reader.next()) {
+			MinimalVariantContext snp = reader.getVariantContext();
+			assertNotNull(snp.getRawBuffer());
+			rawWriter.write(snp);
+			textWriter.write(snp.getRawLine());
+			records++;
+		}
+		reader.close();
+		rawWriter.close();
+		textWriter.close();
+
+		assertEquals(5000, records);
+
+		byte[] expected = readAll(text);
+		assertTrue(Arrays.equals(expected, readAll(raw)));
+		assertTrue(Arrays.equals(readAll(input), expected));
+
+		assertTrue(Arrays.equals(Files.readAllBytes(new File(TabixIndex.getFilename(text)).toPath()),
+				Files.readAllBytes(new File(TabixIndex.getFilename(raw)).toPath())));
+
+		FileUtil.deleteDirectory(dir);
+
+	}
+
+	private String repeat(String value, int count) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			builder.append(value);
+		}
+		return builder.toString();
+	}
+
+	private byte[] readAll(String filename) throws IOException {
+		InputStream in = ParallelBGzipInputStream.open(filename);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+}
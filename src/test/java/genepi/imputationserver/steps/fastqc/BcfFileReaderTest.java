@@ -0,0 +1,79 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.IOException;
+
+import genepi.imputationserver.steps.vcf.BcfFileReader;
+import genepi.imputationserver.steps.vcf.FastVCFFileReader;
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import junit.framework.TestCase;
+
+public class BcfFileReaderTest extends TestCase {
+
+	public static final String BCF = "test-data/configs/hapmap-chr20/ref-panels/hapmap_r22.chr20.CEU.hg19.recode.bcf";
+
+	public static final String VCF = "test-data/data/bcf/hapmap_r22.chr20.CEU.hg19.recode.vcf.gz";
+
+	public void testSameAsTextParser() throws IOException {
+
+		BcfFileReader reader = new BcfFileReader(BCF);
+		assertEquals(60, reader.getSamplesCount());
+		assertEquals("Sample01", reader.getGenotypedSamples().get(0));
+
+		// the first 200 records of the same panel, converted to vcf.gz
+		// independently of BcfFileReader
+		FastVCFFileReader expectedReader = new FastVCFFileReader(VCF);
+		assertEquals(reader.getSamplesCount(), expectedReader.getSamplesCount());
+		assertEquals(expectedReader.getGenotypedSamples(), reader.getGenotypedSamples());
+
+		assertTrue(reader.next());
+		MinimalVariantContext snp = reader.getVariantContext();
+		assertEquals("20", snp.getContig());
+		assertEquals(61795, snp.getStart());
+		assertEquals("G", snp.getReferenceAllele());
+		assertEquals("T", snp.getAlternateAllele());
+		assertEquals(false, snp.isFiltered());
+
+		int records = 0;
+		while (expectedReader.next()) {
+
+			if (records > 0) {
+				assertTrue(reader.next());
+			}
+			records++;
+
+			MinimalVariantContext expected = expectedReader.getVariantContext();
+			snp = reader.getVariantContext();
+
+			String id = expected.getContig() + ":" + expected.getStart();
+			assertEquals(id, expected.getContig(), snp.getContig());
+			assertEquals(id, expected.getStart(), snp.getStart());
+			assertEquals(id, expected.getReferenceAllele(), snp.getReferenceAllele());
+			assertEquals(id, expected.getAlternateAllele(), snp.getAlternateAllele());
+			assertEquals(id, expected.isFiltered(), snp.isFiltered());
+			assertEquals(id, expected.getNSamples(), snp.getNSamples());
+			assertEquals(id, expected.getHetCount(), snp.getHetCount());
+			assertEquals(id, expected.getHomRefCount(), snp.getHomRefCount());
+			assertEquals(id, expected.getHomVarCount(), snp.getHomVarCount());
+			assertEquals(id, expected.getNoCallCount(), snp.getNoCallCount());
+
+			long[] expectedCalled = expected.getCalledWords();
+			long[] called = snp.getCalledWords();
+			int words = MinimalVariantContext.getWords(expected.getNSamples());
+			for (int i = 0; i < words; i++) {
+				assertEquals(id, expectedCalled[i], called[i]);
+			}
+
+		}
+		expectedReader.close();
+		assertEquals(200, records);
+
+		// the remaining records are only counted
+		while (reader.next()) {
+		}
+
+		assertEquals(63407, reader.getSnpsCount());
+		reader.close();
+
+	}
+
+}
@@ -0,0 +1,77 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import genepi.imputationserver.steps.fastqc.legend.BinaryLegendFile;
+import genepi.imputationserver.steps.fastqc.legend.BinaryLegendFileReader;
+import genepi.imputationserver.steps.fastqc.legend.LegendEntry;
+import genepi.imputationserver.steps.fastqc.legend.LegendFileReader;
+import genepi.io.text.LineReader;
+import junit.framework.TestCase;
+
+public class BinaryLegendFileTest extends TestCase {
+
+	public static final String LEGEND = "test-data/configs/hapmap-chr20/ref-panels/hapmap_r22.chr20.CEU.hg19_impute.legend.gz";
+
+	public void testSameEntriesAsLegendFile() throws IOException {
+
+		File output = File.createTempFile("legend", BinaryLegendFile.EXTENSION);
+		output.deleteOnExit();
+
+		int count = BinaryLegendFile.write(LEGEND, output.getAbsolutePath());
+		assertEquals(63402, count);
+
+		for (String population : new String[] { "eur", "super_pop", "afr" }) {
+
+			LegendFileReader legendReader = new LegendFileReader(LEGEND, population);
+			legendReader.createIndex();
+			legendReader.initSearch();
+
+			BinaryLegendFileReader binaryReader = new BinaryLegendFileReader(output.getAbsolutePath(), population);
+			assertEquals(count, binaryReader.getCount());
+
+			// the text reader can only search forward
+			for (int position : getPositions()) {
+				LegendEntry expected = legendReader.findByPosition(position);
+				LegendEntry entry = binaryReader.findByPosition(position);
+				if (expected == null) {
+					assertNull(entry);
+				} else {
+					assertNotNull(entry);
+					assertEquals(expected.getAlleleA(), entry.getAlleleA());
+					assertEquals(expected.getAlleleB(), entry.getAlleleB());
+					assertEquals(expected.hasFrequencies(), entry.hasFrequencies());
+					assertEquals(expected.getFrequencyA(), entry.getFrequencyA());
+					assertEquals(expected.getFrequencyB(), entry.getFrequencyB());
+				}
+			}
+
+			legendReader.close();
+			binaryReader.close();
+
+		}
+
+		assertFalse(BinaryLegendFile.isUpToDate(LEGEND));
+
+	}
+
+	// positions of all records and their neighbours, most of them are not in
+	// the legend file
+	private Set<Integer> getPositions() throws IOException {
+		Set<Integer> positions = new TreeSet<Integer>();
+		LineReader reader = new LineReader(LEGEND);
+		reader.next();
+		while (reader.next()) {
+			int position = Integer.parseInt(reader.get().split(" ")[1]);
+			positions.add(position - 1);
+			positions.add(position);
+			positions.add(position + 1);
+		}
+		reader.close();
+		return positions;
+	}
+
+}
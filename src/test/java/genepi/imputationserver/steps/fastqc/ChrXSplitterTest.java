@@ -0,0 +1,84 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+
+import genepi.imputationserver.steps.vcf.TabixIndex;
+import genepi.io.text.LineReader;
+import genepi.io.text.LineWriter;
+import junit.framework.TestCase;
+
+public class ChrXSplitterTest extends TestCase {
+
+	public void testSplitAndInvalidAlleles() throws IOException {
+
+		File dir = createTempDir();
+		ChrXSplitter splitter = new ChrXSplitter("hg19");
+		List<String> paths = split(splitter, "test-data/data/chrX-phased-invalid/small.chrX.vcf.gz", dir,
+				new HashSet<String>());
+
+		assertEquals(3, paths.size());
+		assertEquals(190, splitter.getInvalidAlleles());
+		assertFalse(splitter.isPloidyError());
+		for (String path : paths) {
+			assertTrue(new File(TabixIndex.getFilename(path)).exists());
+		}
+		for (int mixed : splitter.getMixedGenotypes()) {
+			assertEquals(0, mixed);
+		}
+
+	}
+
+	public void testPloidyError() throws IOException {
+
+		File dir = createTempDir();
+		HashSet<String> hapSamples = new HashSet<String>();
+		ChrXSplitter splitter = new ChrXSplitter("hg19");
+		split(splitter, "test-data/data/chrX-unphased-ploidy/small.chrX.ploidy.vcf.gz", dir, hapSamples);
+
+		assertTrue(splitter.isPloidyError());
+		assertTrue(hapSamples.contains("HG00101"));
+
+		LineReader reader = new LineReader(new File(dir, "info.txt").getAbsolutePath());
+		assertTrue(reader.next());
+		assertEquals("HG00101\tX:2706487", reader.get());
+		reader.close();
+
+	}
+
+	public void testMixedGenotypes() throws IOException {
+
+		File dir = createTempDir();
+		ChrXSplitter splitter = new ChrXSplitter("hg19");
+		split(splitter, "test-data/data/chrX-unphased-mixed/small.chrX.missing.vcf.gz", dir, new HashSet<String>());
+
+		// HG00101 has ./1 in 5 of 6 records
+		assertEquals(6, splitter.getNonParRecords());
+		assertEquals(5, splitter.getMixedGenotypes()[4]);
+		assertEquals(0, splitter.getMixedGenotypes()[0]);
+
+	}
+
+	private List<String> split(ChrXSplitter splitter, String filename, File dir, HashSet<String> hapSamples)
+			throws IOException {
+		LineWriter excludedWriter = new LineWriter(new File(dir, "excluded.txt").getAbsolutePath());
+		LineWriter infoWriter = new LineWriter(new File(dir, "info.txt").getAbsolutePath());
+		List<String> paths = splitter.split(filename, new File(dir, "par1.vcf.gz").getAbsolutePath(),
+				new File(dir, "nonpar.vcf.gz").getAbsolutePath(), new File(dir, "par2.vcf.gz").getAbsolutePath(),
+				excludedWriter, infoWriter, hapSamples);
+		excludedWriter.close();
+		infoWriter.close();
+		return paths;
+	}
+
+	private File createTempDir() throws IOException {
+		File dir = File.createTempFile("chrx", "");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+}
@@ -0,0 +1,106 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import genepi.imputationserver.steps.vcf.ChunkPlan;
+import junit.framework.TestCase;
+
+public class ChunkPlannerTest extends TestCase {
+
+	public static final int CHUNK_SIZE = 1000000;
+
+	// density bins of 10kb
+	public static final int BIN_SIZE = 10000;
+
+	public void testFixedPlan() {
+
+		ChunkPlan plan = new ChunkPlan(CHUNK_SIZE);
+
+		assertTrue(plan.isFixed());
+		assertEquals(0, plan.getChunk(1));
+		assertEquals(0, plan.getChunk(CHUNK_SIZE));
+		assertEquals(1, plan.getChunk(CHUNK_SIZE + 1));
+		assertEquals(CHUNK_SIZE + 1, plan.getStart(1));
+		assertEquals(2 * CHUNK_SIZE, plan.getEnd(1));
+
+	}
+
+	public void testDenseRegionsGetShorterChunks() {
+
+		// 1 variant per bin in the first 2 Mb, 10 variants per bin afterwards
+		Map<Integer, Integer> density = new HashMap<Integer, Integer>();
+		for (int bin = 0; bin < 400; bin++) {
+			density.put(bin, bin < 200 ? 1 : 10);
+		}
+
+		ChunkPlanner planner = new ChunkPlanner(CHUNK_SIZE);
+		planner.setWork(100 * 1000);
+		planner.setMinSpan(0);
+		ChunkPlan plan = planner.plan(density, 1000);
+
+		// 100 variants per chunk
+		assertFalse(plan.isFixed());
+		assertEquals(1, plan.getStart(0));
+		assertEquals(100 * BIN_SIZE, plan.getEnd(0));
+		assertEquals(10 * BIN_SIZE, plan.getEnd(plan.getChunk(2000001)) - plan.getStart(plan.getChunk(2000001)) + 1);
+		assertEquals(2 + 20, plan.size());
+		assertEquals(400 * BIN_SIZE, plan.getEnd(plan.size() - 1));
+		assertEquals(plan.size(), plan.getChunk(400 * BIN_SIZE + 1));
+
+	}
+
+	public void testSpanLimits() {
+
+		Map<Integer, Integer> density = new HashMap<Integer, Integer>();
+		for (int bin = 0; bin < 400; bin++) {
+			density.put(bin, bin < 200 ? 1 : 10);
+		}
+
+		ChunkPlanner planner = new ChunkPlanner(CHUNK_SIZE);
+		planner.setWork(100 * 1000);
+		planner.setMinSpan(500000);
+		planner.setMaxSpan(500000);
+		ChunkPlan plan = planner.plan(density, 1000);
+
+		assertEquals(8, plan.size());
+		for (int i = 0; i < plan.size(); i++) {
+			assertEquals(500000, plan.getEnd(i) - plan.getStart(i) + 1);
+		}
+
+	}
+
+	public void testSmallChunksAreCoalesced() {
+
+		// a sparse region between two dense regions
+		Map<Integer, Integer> density = new HashMap<Integer, Integer>();
+		for (int bin = 0; bin < 100; bin++) {
+			density.put(bin, 10);
+		}
+		density.put(150, 2);
+		for (int bin = 200; bin < 300; bin++) {
+			density.put(bin, 10);
+		}
+
+		ChunkPlanner planner = new ChunkPlanner(CHUNK_SIZE);
+		planner.setWork(1000);
+		planner.setMinSpan(0);
+		planner.setMaxSpan(500000);
+		planner.setMinSnps(3);
+		ChunkPlan plan = planner.plan(density, 1);
+
+		// the sparse bin is merged into a dense chunk
+		int chunk = plan.getChunk(150 * BIN_SIZE + 1);
+		assertTrue(plan.getEnd(chunk) - plan.getStart(chunk) + 1 > BIN_SIZE);
+		assertTrue(plan.getStart(chunk) <= 100 * BIN_SIZE || plan.getEnd(chunk) > 200 * BIN_SIZE);
+
+	}
+
+	public void testNoDensity() {
+
+		ChunkPlanner planner = new ChunkPlanner(CHUNK_SIZE);
+		assertTrue(planner.plan(null, 10).isFixed());
+
+	}
+
+}
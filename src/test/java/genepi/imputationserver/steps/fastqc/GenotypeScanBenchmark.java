@@ -0,0 +1,69 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import genepi.imputationserver.steps.vcf.VCFLineParser;
+import genepi.imputationserver.util.Benchmark;
+
+/**
+ * Parses synthetic wide records with VCFLineParser. Records with FORMAT GT
+ * take the word-at-a-time path, the same samples with FORMAT GT:DS the
+ * generic loop. Arguments: samples, records (default 100000 and 100).
+ */
+public class GenotypeScanBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int records = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+		for (boolean phased : new boolean[] { true, false }) {
+			run("GT " + (phased ? "phased" : "unphased"), createRecords(samples, records, "GT", phased), samples);
+			run("GT:DS " + (phased ? "phased" : "unphased"), createRecords(samples, records, "GT:DS", phased),
+					samples);
+		}
+
+	}
+
+	private static void run(String name, final byte[][] records, int samples) throws Exception {
+		final VCFLineParser parser = new VCFLineParser(samples);
+		Benchmark.run(name + " " + samples + " samples", records.length, 5, 20, new Benchmark.Task() {
+			@Override
+			public long run() throws Exception {
+				long sum = 0;
+				for (byte[] record : records) {
+					sum += parser.parseLine(record, 0, record.length).getHetCount();
+				}
+				return sum;
+			}
+		});
+	}
+
+	// diploid genotypes with 1-char alleles and some missing calls
+	private static byte[][] createRecords(int samples, int records, String format, boolean phased) {
+
+		char separator = phased ? '|' : '/';
+		Random random = new Random(42);
+
+		byte[][] result = new byte[records][];
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < records; i++) {
+			line.setLength(0);
+			line.append("20\t").append((i + 1) * 100).append("\t.\tA\tG\t.\tPASS\t.\t").append(format);
+			for (int j = 0; j < samples; j++) {
+				int genotype = random.nextInt(100);
+				if (genotype < 2) {
+					line.append("\t.").append(separator).append('.');
+				} else {
+					line.append('\t').append(genotype < 60 ? '0' : '1').append(separator)
+							.append(genotype % 3 == 0 ? '1' : '0');
+				}
+			}
+			result[i] = line.toString().getBytes(StandardCharsets.UTF_8);
+		}
+		return result;
+
+	}
+
+}
@@ -0,0 +1,89 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.IOException;
+
+import genepi.imputationserver.steps.fastqc.legend.ILegendReader;
+import genepi.imputationserver.steps.fastqc.legend.LegendCache;
+import genepi.imputationserver.steps.fastqc.legend.LegendEntry;
+import genepi.imputationserver.steps.fastqc.legend.LegendFileCursor;
+import genepi.io.text.LineReader;
+import junit.framework.TestCase;
+
+public class LegendCacheTest extends TestCase {
+
+	public static final String LEGEND = "test-data/configs/hapmap-chr20/ref-panels/hapmap_r22.chr20.CEU.hg19_impute.legend.gz";
+
+	public static final String LEGEND_HG38 = "test-data/configs/hapmap-chr20-hg38/ref-panels/hapmap_r22.chr20.CEU.hg38_impute.legend.gz";
+
+	public void testSharedAndEvicted() throws IOException {
+
+		LegendCache cache = LegendCache.getInstance();
+		cache.setMaxMemory(1024 * 1024);
+
+		try {
+
+			ILegendReader reader1 = cache.open(LEGEND, "eur");
+			ILegendReader reader2 = cache.open(LEGEND, "eur");
+			assertEquals(1, cache.getSize());
+			long memory = cache.getMemory();
+			assertEquals(63402 * 10, memory);
+
+			checkEntries(reader2);
+
+			// both legend files exceed the budget, but are in use
+			ILegendReader reader3 = cache.open(LEGEND_HG38, "eur");
+			assertEquals(2, cache.getSize());
+
+			reader1.close();
+			reader2.close();
+			assertEquals(1, cache.getSize());
+
+			reader3.close();
+			assertEquals(1, cache.getSize());
+
+			cache.setMaxMemory(1);
+			assertEquals(0, cache.getSize());
+			assertEquals(0, cache.getMemory());
+
+		} finally {
+			cache.setMaxMemory(0);
+		}
+
+	}
+
+	public void testConfiguredOnce() {
+
+		LegendCache cache = LegendCache.getInstance();
+		int threads = cache.getThreads();
+		long maxMemory = cache.getMaxMemory();
+
+		// the first job configures the cache, other jobs keep its settings
+		cache.configure(threads, maxMemory);
+		cache.configure(threads + 1, maxMemory + 1024 * 1024);
+		assertEquals(threads, cache.getThreads());
+		assertEquals(maxMemory, cache.getMaxMemory());
+
+	}
+
+	private void checkEntries(ILegendReader reader) throws IOException {
+
+		LegendFileCursor cursor = new LegendFileCursor(LEGEND, "eur");
+
+		LineReader lines = new LineReader(LEGEND);
+		lines.next();
+		while (lines.next()) {
+			int position = Integer.parseInt(lines.get().split(" ")[1]);
+			LegendEntry expected = cursor.findByPosition(position);
+			LegendEntry entry = reader.findByPosition(position);
+			assertEquals(expected.getAlleleA(), entry.getAlleleA());
+			assertEquals(expected.getAlleleB(), entry.getAlleleB());
+			assertEquals(expected.hasFrequencies(), entry.hasFrequencies());
+			assertEquals(expected.getFrequencyB(), entry.getFrequencyB());
+		}
+		lines.close();
+
+		cursor.close();
+
+	}
+
+}
@@ -0,0 +1,80 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.io.IOException;
+
+import genepi.imputationserver.steps.fastqc.legend.LegendEntry;
+import genepi.imputationserver.steps.fastqc.legend.LegendFileCursor;
+import genepi.imputationserver.steps.fastqc.legend.LegendFileReader;
+import genepi.io.text.LineReader;
+import genepi.io.text.LineWriter;
+import junit.framework.TestCase;
+
+public class LegendFileCursorTest extends TestCase {
+
+	public static final String LEGEND = "test-data/configs/hapmap-chr20/ref-panels/hapmap_r22.chr20.CEU.hg19_impute.legend.gz";
+
+	public void testSameEntriesAsLegendFile() throws IOException {
+
+		LegendFileReader legendReader = new LegendFileReader(LEGEND, "eur");
+		legendReader.createIndex();
+		legendReader.initSearch();
+
+		LegendFileCursor cursor = new LegendFileCursor(LEGEND, "eur");
+
+		LineReader reader = new LineReader(LEGEND);
+		reader.next();
+		int found = 0;
+		while (reader.next()) {
+			int position = Integer.parseInt(reader.get().split(" ")[1]);
+			LegendEntry expected = legendReader.findByPosition(position);
+			LegendEntry entry = cursor.findByPosition(position);
+			assertEquals(expected.getAlleleA(), entry.getAlleleA());
+			assertEquals(expected.getAlleleB(), entry.getAlleleB());
+			assertEquals(expected.hasFrequencies(), entry.hasFrequencies());
+			assertEquals(expected.getFrequencyB(), entry.getFrequencyB());
+			found++;
+		}
+		reader.close();
+		assertEquals(63402, found);
+
+		// restarts at the beginning
+		assertNotNull(cursor.findByPosition(61795));
+
+		legendReader.close();
+		cursor.close();
+
+	}
+
+	public void testDuplicatePositions() throws IOException {
+
+		File legend = File.createTempFile("duplicates", ".legend");
+		legend.deleteOnExit();
+
+		LineWriter writer = new LineWriter(legend.getAbsolutePath());
+		writer.write("id position a0 a1 eur.aaf");
+		writer.write("snp1 100 A C 0.1");
+		writer.write("snp2 200 A G 0.2");
+		writer.write("snp3 200 A T 0.3");
+		writer.write("snp4 300 C T .");
+		writer.close();
+
+		LegendFileCursor cursor = new LegendFileCursor(legend.getAbsolutePath(), "eur");
+
+		assertEquals("snp1", cursor.findByPosition(100, 'A', 'C').getRsId());
+		assertEquals("snp2", cursor.findByPosition(200, 'A', 'G').getRsId());
+		assertEquals("snp3", cursor.findByPosition(200, 'T', 'A').getRsId());
+		assertEquals("snp2", cursor.findByPosition(200, 'G', 'A').getRsId());
+		// no allele match, last entry as the indexed reader
+		assertEquals("snp3", cursor.findByPosition(200, 'C', 'G').getRsId());
+		assertNull(cursor.findByPosition(250, 'A', 'C'));
+		LegendEntry entry = cursor.findByPosition(300, 'C', 'T');
+		assertEquals("snp4", entry.getRsId());
+		assertFalse(entry.hasFrequencies());
+		assertNull(cursor.findByPosition(400, 'A', 'C'));
+
+		cursor.close();
+
+	}
+
+}
@@ -0,0 +1,129 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Vector;
+
+import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.imputationserver.steps.vcf.VcfLiftOverFast;
+import genepi.io.FileUtil;
+import genepi.io.text.LineReader;
+import genepi.io.text.LineWriter;
+import htsjdk.samtools.liftover.LiftOver;
+import junit.framework.TestCase;
+
+public class LiftOverTaskTest extends TestCase {
+
+	public static final String CHAIN = "test-data/configs/hapmap-chrX-hg38/hg19ToHg38.over.chain.gz";
+
+	// more records than one batch
+	public static final String[] VCFS = { "test-data/data/chrX-phased/small.chrX.vcf.gz",
+			"test-data/data/chr22.hg19/chr22.hg19.vcf.gz" };
+
+	public void testSameOutputOnAllThreads() throws Exception {
+
+		String serial = liftOver("liftover-serial", 1, 1);
+		String parallel = liftOver("liftover-parallel", 4, 2);
+
+		assertEquals(readLines(FileUtil.path(serial, "excluded.txt")),
+				readLines(FileUtil.path(parallel, "excluded.txt")));
+
+		for (String vcf : VCFS) {
+			String name = FileUtil.getFilename(vcf) + ".lifted.vcf.gz";
+			List<String> lines = readLines(FileUtil.path(serial, name));
+			assertTrue(lines.size() > VcfLiftOverFast.BATCH_SIZE);
+			assertEquals(lines, readLines(FileUtil.path(parallel, name)));
+		}
+
+		FileUtil.deleteDirectory(serial);
+		FileUtil.deleteDirectory(parallel);
+
+	}
+
+	public void testInvalidThreads() throws Exception {
+
+		String output = FileUtil.path("test-data", "tmp", "liftover-threads");
+		FileUtil.deleteDirectory(output);
+		FileUtil.createDirectory(output);
+
+		// without files and with threads below 1
+		LiftOverTask task = new LiftOverTask();
+		task.setVcfFilenames(new String[0]);
+		task.setChainFile(CHAIN);
+		task.setChunksDir(output);
+		task.setThreads(0);
+		task.setFileThreads(-1);
+		assertTrue(task.run(null).isSuccess());
+		assertEquals(0, task.getNewVcfFilenames().length);
+
+		FileUtil.deleteDirectory(output);
+
+	}
+
+	public void testChainIsParsedOnce() {
+
+		assertSame(VcfLiftOverFast.getLiftOver(CHAIN), VcfLiftOverFast.getLiftOver(CHAIN));
+
+	}
+
+	public void testChainCacheIsBounded() throws IOException {
+
+		String output = FileUtil.path("test-data", "tmp", "liftover-chains");
+		FileUtil.deleteDirectory(output);
+		FileUtil.createDirectory(output);
+
+		// copies are cached as different chain files
+		List<String> chains = new Vector<String>();
+		for (int i = 0; i <= VcfLiftOverFast.MAX_CHAINS; i++) {
+			String chain = FileUtil.path(output, "chain" + i + ".over.chain.gz");
+			Files.copy(new File(CHAIN).toPath(), new File(chain).toPath());
+			chains.add(chain);
+		}
+
+		LiftOver first = VcfLiftOverFast.getLiftOver(chains.get(0));
+		for (String chain : chains) {
+			VcfLiftOverFast.getLiftOver(chain);
+		}
+		assertNotSame(first, VcfLiftOverFast.getLiftOver(chains.get(0)));
+
+		FileUtil.deleteDirectory(output);
+
+	}
+
+	private String liftOver(String name, int threads, int fileThreads) throws Exception {
+
+		String output = FileUtil.path("test-data", "tmp", name);
+		FileUtil.deleteDirectory(output);
+		FileUtil.createDirectory(output);
+
+		LineWriter excludedSnpsWriter = new LineWriter(FileUtil.path(output, "excluded.txt"));
+
+		LiftOverTask task = new LiftOverTask();
+		task.setVcfFilenames(VCFS);
+		task.setChainFile(CHAIN);
+		task.setChunksDir(output);
+		task.setExcludedSnpsWriter(excludedSnpsWriter);
+		task.setThreads(threads);
+		task.setFileThreads(fileThreads);
+		assertTrue(task.run(null).isSuccess());
+
+		excludedSnpsWriter.close();
+
+		return output;
+
+	}
+
+	private List<String> readLines(String filename) throws IOException {
+		assertTrue(new File(filename).exists());
+		List<String> lines = new Vector<String>();
+		LineReader reader = VcfFileUtil.openLineReader(filename);
+		while (reader.next()) {
+			lines.add(reader.get());
+		}
+		reader.close();
+		return lines;
+	}
+
+}
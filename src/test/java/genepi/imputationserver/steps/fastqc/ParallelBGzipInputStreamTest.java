@@ -0,0 +1,74 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import genepi.imputationserver.steps.vcf.ParallelBGzipInputStream;
+import junit.framework.TestCase;
+
+public class ParallelBGzipInputStreamTest extends TestCase {
+
+	public void testSameContentAsGzip() throws IOException {
+
+		String filename = "test-data/data/chr20-phased/chr20.R50.merged.1.330k.recode.small.vcf.gz";
+
+		InputStream in = ParallelBGzipInputStream.open(filename);
+		assertTrue(in instanceof ParallelBGzipInputStream);
+		byte[] parallel = readAll(in);
+
+		byte[] expected = readAll(new GZIPInputStream(new FileInputStream(filename)));
+
+		assertTrue(parallel.length > 0);
+		assertTrue(Arrays.equals(expected, parallel));
+
+	}
+
+	public void testReadLine() throws IOException {
+
+		String filename = "test-data/data/chr20-phased/chr20.R50.merged.1.330k.recode.small.vcf.gz";
+
+		BufferedReader expected = new BufferedReader(
+				new InputStreamReader(new GZIPInputStream(new FileInputStream(filename)), StandardCharsets.UTF_8));
+		ParallelBGzipInputStream in = ParallelBGzipInputStream.open(filename, 0);
+
+		// every line can be read again from the file pointer before it
+		int lines = 0;
+		String line;
+		long pointer = in.getFilePointer();
+		while ((line = in.readLine()) != null) {
+			assertEquals(expected.readLine(), line);
+			if (lines % 100 == 0) {
+				ParallelBGzipInputStream seek = ParallelBGzipInputStream.open(filename, pointer);
+				assertEquals(line, seek.readLine());
+				seek.close();
+			}
+			pointer = in.getFilePointer();
+			lines++;
+		}
+		assertNull(expected.readLine());
+		assertTrue(lines > 0);
+
+		expected.close();
+		in.close();
+
+	}
+
+	private byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,176 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import genepi.imputationserver.steps.vcf.ParallelBGzipInputStream;
+import genepi.imputationserver.steps.vcf.ParallelBGzipOutputStream;
+import genepi.imputationserver.util.FileMerger.BgzipSplitOutputStream;
+import junit.framework.TestCase;
+
+public class ParallelBGzipOutputStreamTest extends TestCase {
+
+	public void testRoundTrip() throws IOException {
+
+		byte[] data = createData(1000000);
+
+		for (int level : new int[] { 0, 1, 5, 9 }) {
+
+			File output = File.createTempFile("parallel", ".gz");
+			output.deleteOnExit();
+
+			ParallelBGzipOutputStream out = new ParallelBGzipOutputStream(new FileOutputStream(output), level);
+			// mix of single bytes and large writes
+			out.write(data, 0, 10);
+			for (int i = 10; i < 1000; i++) {
+				out.write(data[i]);
+			}
+			out.write(data, 1000, data.length - 1000);
+			out.close();
+
+			assertTrue(Arrays.equals(data, readAll(new GZIPInputStream(new FileInputStream(output)))));
+			assertTrue(Arrays.equals(data, readAll(ParallelBGzipInputStream.open(output.getAbsolutePath()))));
+
+		}
+
+	}
+
+	public void testSetThreadsWhileWriting() throws IOException {
+
+		byte[] data = createData(1000000);
+		int threads = ParallelBGzipOutputStream.getThreads();
+
+		File output = File.createTempFile("threads", ".gz");
+		output.deleteOnExit();
+
+		try {
+
+			// other jobs resize the shared pool while the stream is open
+			ParallelBGzipOutputStream out = new ParallelBGzipOutputStream(output);
+			out.write(data, 0, 300000);
+			ParallelBGzipOutputStream.setThreads(threads + 2);
+			out.write(data, 300000, 300000);
+			ParallelBGzipOutputStream.setThreads(1);
+			out.write(data, 600000, data.length - 600000);
+			out.close();
+
+			InputStream in = ParallelBGzipInputStream.open(output.getAbsolutePath());
+			ParallelBGzipInputStream.setThreads(ParallelBGzipInputStream.getThreads() + 1);
+			assertTrue(Arrays.equals(data, readAll(in)));
+
+		} finally {
+			ParallelBGzipOutputStream.setThreads(threads);
+		}
+
+	}
+
+	public void testConfiguredOnce() {
+
+		int threads = ParallelBGzipOutputStream.getThreads();
+
+		// the first job sizes the pool, other jobs keep it
+		ParallelBGzipOutputStream.configure(threads);
+		ParallelBGzipOutputStream.configure(threads + 2);
+		assertEquals(threads, ParallelBGzipOutputStream.getThreads());
+
+	}
+
+	public void testVirtualOffsets() throws IOException {
+
+		byte[] data = createData(500000);
+
+		File output = File.createTempFile("offsets", ".gz");
+		output.deleteOnExit();
+
+		ParallelBGzipOutputStream out = new ParallelBGzipOutputStream(output);
+		int[] positions = { 0, 1, 65279, 65280, 65281, 200000, 499999 };
+		long[] pointers = new long[positions.length];
+		int written = 0;
+		for (int i = 0; i < positions.length; i++) {
+			out.write(data, written, positions[i] - written);
+			written = positions[i];
+			pointers[i] = out.getBlockPointer();
+		}
+		out.write(data, written, data.length - written);
+
+		// waits for pending blocks
+		long end = out.getFilePointer();
+		long endPointer = out.getBlockPointer();
+		out.close();
+
+		assertEquals(end, out.toFilePointer(endPointer));
+
+		for (int i = 0; i < positions.length; i++) {
+			InputStream in = ParallelBGzipInputStream.open(output.getAbsolutePath(), out.toFilePointer(pointers[i]));
+			assertEquals(data[positions[i]] & 0xff, in.read());
+			in.close();
+		}
+
+	}
+
+	public void testConcatenateSplitFiles() throws IOException {
+
+		byte[] header = "##fileformat=VCFv4.1\n".getBytes();
+		byte[] data = createData(300000);
+
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+		BgzipSplitOutputStream outHeader = new BgzipSplitOutputStream(file);
+		outHeader.write(header);
+		outHeader.close();
+
+		// no terminator, so the data file can be appended
+		BgzipSplitOutputStream outData = new BgzipSplitOutputStream(file);
+		outData.write(data);
+		outData.close();
+
+		ParallelBGzipOutputStream terminator = new ParallelBGzipOutputStream(file);
+		terminator.close();
+
+		File output = File.createTempFile("merged", ".gz");
+		output.deleteOnExit();
+		FileOutputStream stream = new FileOutputStream(output);
+		stream.write(file.toByteArray());
+		stream.close();
+
+		byte[] expected = new byte[header.length + data.length];
+		System.arraycopy(header, 0, expected, 0, header.length);
+		System.arraycopy(data, 0, expected, header.length, data.length);
+
+		assertTrue(Arrays.equals(expected, readAll(ParallelBGzipInputStream.open(output.getAbsolutePath()))));
+
+	}
+
+	// vcf like lines followed by random bytes that do not compress
+	private byte[] createData(int length) {
+		byte[] data = new byte[length];
+		Random random = new Random(42);
+		int i = 0;
+		for (; i < length / 2; i++) {
+			data[i] = (byte) (i % 80 == 79 ? '\n' : "ACGT\t01|".charAt(random.nextInt(8)));
+		}
+		byte[] noise = new byte[length - i];
+		random.nextBytes(noise);
+		System.arraycopy(noise, 0, data, i, noise.length);
+		return data;
+	}
+
+	private byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,79 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.io.IOException;
+
+import genepi.imputationserver.steps.fastqc.legend.LegendFileReader;
+import genepi.imputationserver.steps.fastqc.legend.PositionIndex;
+import genepi.io.text.LineWriter;
+import junit.framework.TestCase;
+
+public class PositionIndexTest extends TestCase {
+
+	public void testIndex() {
+
+		PositionIndex index = new PositionIndex(4);
+		for (int i = 0; i < 100000; i++) {
+			int position = 1000 + i * 3;
+			index.add(position, 10L * i);
+			// every 10th position is duplicated
+			if (i % 10 == 0) {
+				index.add(position, 10L * i + 5);
+				index.add(position, 10L * i + 7);
+			}
+		}
+
+		assertEquals(100000, index.size());
+		assertEquals(20000, index.getDuplicates());
+
+		assertEquals(3, index.getCount(1000));
+		assertEquals(0L, index.getOffset(1000, 0));
+		assertEquals(5L, index.getOffset(1000, 1));
+		assertEquals(7L, index.getOffset(1000, 2));
+		assertEquals(-1L, index.getOffset(1000, 3));
+
+		assertEquals(1, index.getCount(1003));
+		assertEquals(10L, index.getOffset(1003, 0));
+		assertEquals(-1L, index.getOffset(1003, 1));
+
+		assertFalse(index.contains(1001));
+		assertEquals(0, index.getCount(1001));
+		assertEquals(-1L, index.getOffset(1001, 0));
+
+		try {
+			index.add(1003, 1);
+			fail("unsorted duplicate accepted");
+		} catch (IllegalArgumentException e) {
+		}
+
+	}
+
+	public void testDuplicatePositionsInLegendFile() throws IOException {
+
+		File legend = File.createTempFile("duplicates", ".legend");
+		legend.deleteOnExit();
+
+		LineWriter writer = new LineWriter(legend.getAbsolutePath());
+		writer.write("id position a0 a1 eur.aaf");
+		writer.write("snp1 100 A C 0.1");
+		writer.write("snp2 200 A G 0.2");
+		writer.write("snp3 200 A T 0.3");
+		writer.write("snp4 300 C T .");
+		writer.close();
+
+		LegendFileReader reader = new LegendFileReader(legend.getAbsolutePath(), "eur");
+		reader.createIndex();
+		reader.initSearch();
+
+		assertEquals("snp1", reader.findByPosition(100, 'A', 'C').getRsId());
+		assertEquals("snp2", reader.findByPosition(200, 'G', 'A').getRsId());
+		assertEquals("snp3", reader.findByPosition(200, 'A', 'T').getRsId());
+		assertEquals("snp3", reader.findByPosition(200).getRsId());
+		assertNull(reader.findByPosition(250, 'A', 'C'));
+		assertEquals("snp4", reader.findByPosition(300, 'C', 'T').getRsId());
+
+		reader.close();
+
+	}
+
+}
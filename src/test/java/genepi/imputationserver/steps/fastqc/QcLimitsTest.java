@@ -0,0 +1,70 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class QcLimitsTest extends TestCase {
+
+	public void testStrandFlips() throws IOException {
+
+		QcLimits limits = new QcLimits();
+		limits.setStrandFlips(2);
+
+		limits.addStrandFlip();
+		limits.addStrandFlip();
+		limits.check();
+		assertFalse(limits.isExceeded());
+
+		try {
+			limits.addStrandFlip();
+			fail("limit not detected");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("More than 2 obvious strand flips"));
+		}
+		assertTrue(limits.isExceeded());
+
+		// all other shards stop at their next check
+		try {
+			limits.check();
+			fail("limit not detected");
+		} catch (IOException e) {
+			assertEquals(limits.getError(), e.getMessage());
+		}
+
+	}
+
+	public void testFirstErrorIsKept() throws IOException {
+
+		QcLimits limits = new QcLimits();
+		limits.setAlleleSwitches(0);
+
+		try {
+			limits.addAlleleSwitch();
+			fail("limit not detected");
+		} catch (IOException e) {
+		}
+
+		try {
+			limits.checkChrX(false, true);
+			fail("limit not detected");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("More than 0 allele switches"));
+		}
+
+	}
+
+	public void testNoLimits() throws IOException {
+
+		QcLimits limits = new QcLimits();
+		for (int i = 0; i < 1000; i++) {
+			limits.addStrandFlip();
+			limits.addAlleleSwitch();
+		}
+		limits.checkChrX(false, false);
+		limits.check();
+		assertFalse(limits.isExceeded());
+
+	}
+
+}
@@ -0,0 +1,124 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+
+import genepi.io.text.LineReader;
+import junit.framework.TestCase;
+
+public class QcReportDataTest extends TestCase {
+
+	public void testHistograms() {
+
+		QcReportData data = new QcReportData();
+		data.add("rs1", createStats("20", 1, 0.255f, 0.26f, 5.5));
+		data.add("rs2", createStats("20", 2, 1.0f, 0.0f, 299.9));
+		data.add("rs3", createStats("20", 3, 0.5f, Float.NaN, 1000));
+
+		assertEquals(1, data.getFrequencyCount(25, 26));
+		// frequency 1.0 belongs to the last bin
+		assertEquals(1, data.getFrequencyCount(99, 0));
+
+		assertEquals(1, data.getChisqCount(0));
+		assertEquals(1, data.getChisqCount(29));
+		assertEquals(1, data.getChisqCount(QcReportData.CHISQ_BINS - 1));
+
+		assertEquals(1, data.getMismatchCount());
+		assertEquals("rs3\t20:3\tA\tC\t0.5\t0.5\tNA\tNA\tNA\tNA\t1000.0\tfalse\tnull", data.getMismatches().get(0));
+
+	}
+
+	public void testMismatchLimit() {
+
+		QcReportData data = new QcReportData();
+		for (int i = 0; i < QcReportData.MAX_MISMATCHES + 10; i++) {
+			data.add("rs" + i, createStats("1", i, 0.1f, 0.9f, 500));
+		}
+
+		assertEquals(QcReportData.MAX_MISMATCHES + 10, data.getMismatchCount());
+		assertEquals(QcReportData.MAX_MISMATCHES, data.getMismatches().size());
+
+	}
+
+	public void testMergeShards() throws IOException {
+
+		QcReportData all = new QcReportData();
+		QcReportData merged = new QcReportData();
+		QcReportData shard = null;
+
+		for (int i = 0; i < 100; i++) {
+			if (i % 30 == 0) {
+				if (shard != null) {
+					merged.add(shard);
+				}
+				shard = new QcReportData();
+			}
+			SnpStats stats = createStats(i < 50 ? "1" : "2", i, i / 100f, 1 - i / 100f, i * 5);
+			all.add("rs" + i, stats);
+			shard.add("rs" + i, stats);
+		}
+		merged.add(shard);
+
+		// sums are equal, as all values are added in the same order
+		assertEquals(readLines(write(all)), readLines(write(merged)));
+
+	}
+
+	public void testWrite() throws IOException {
+
+		QcReportData data = new QcReportData();
+		data.add("rs1", createStats("1", 1, 0.5f, 0.5f, 400));
+		data.add("rs2", createStats("2", 2, 0.25f, 0.75f, 20));
+
+		List<String> lines = readLines(write(data));
+
+		assertEquals("#qc-report-data\t" + QcReportData.VERSION, lines.get(0));
+		assertEquals("freq\t25\t75\t1", lines.get(1));
+		assertEquals("freq\t50\t50\t1", lines.get(2));
+		assertEquals("chisq\t0\t0", lines.get(3));
+		assertEquals("chisq\t20\t1", lines.get(5));
+		assertEquals("chisq\t300\t1", lines.get(3 + QcReportData.CHISQ_BINS - 1));
+
+		int index = 3 + QcReportData.CHISQ_BINS;
+		assertEquals("chromosome\t1\t1\t0.5\t0.5\t0.25\t0.25\t0.25\t1", lines.get(index));
+		assertEquals("chromosome\t2\t1\t0.25\t0.75\t0.0625\t0.5625\t0.1875\t0", lines.get(index + 1));
+		assertEquals("mismatches\t1", lines.get(index + 2));
+		assertTrue(lines.get(index + 3).startsWith("mismatch\trs1\t1:1\t"));
+		assertEquals(index + 4, lines.size());
+
+	}
+
+	private SnpStats createStats(String chromosome, int position, float frequency, float refFrequency,
+			double chisq) {
+		SnpStats stats = new SnpStats();
+		stats.setChromosome(chromosome);
+		stats.setPosition(position);
+		stats.setAlleleA('A');
+		stats.setAlleleB('C');
+		stats.setFrequencyA(frequency);
+		stats.setFrequencyB(1 - frequency);
+		stats.setRefFrequencyA(refFrequency);
+		stats.setChisq(chisq);
+		return stats;
+	}
+
+	private String write(QcReportData data) throws IOException {
+		File file = File.createTempFile("report", ".txt");
+		file.deleteOnExit();
+		data.write(file.getAbsolutePath());
+		return file.getAbsolutePath();
+	}
+
+	private List<String> readLines(String filename) throws IOException {
+		List<String> lines = new Vector<String>();
+		LineReader reader = new LineReader(filename);
+		while (reader.next()) {
+			lines.add(reader.get());
+		}
+		reader.close();
+		return lines;
+	}
+
+}
@@ -0,0 +1,54 @@
+package genepi.imputationserver.steps.fastqc;
+
+import junit.framework.TestCase;
+
+public class RangeIndexTest extends TestCase {
+
+	public void testContains() {
+
+		RangeIndex index = RangeIndex.parse("6:100-200, 6:500-600,1:10-20");
+
+		assertTrue(index.hasChromosome("6"));
+		assertTrue(index.hasChromosome("1"));
+		assertFalse(index.hasChromosome("2"));
+
+		assertFalse(index.contains("6", 99));
+		assertTrue(index.contains("6", 100));
+		assertTrue(index.contains("6", 200));
+		assertFalse(index.contains("6", 201));
+		assertFalse(index.contains("6", 499));
+		assertTrue(index.contains("6", 550));
+		assertFalse(index.contains("6", 601));
+		assertTrue(index.contains("1", 15));
+		assertFalse(index.contains("1", 150));
+		assertFalse(index.contains("2", 150));
+
+	}
+
+	public void testOverlappingRangesAreMerged() {
+
+		RangeIndex index = RangeIndex.parse("6:300-400,6:100-200,6:150-350,6:401-450");
+
+		RangeIndex.Intervals intervals = index.getIntervals("6");
+		assertEquals(1, intervals.size());
+		assertEquals(100, intervals.getStart(0));
+		assertEquals(450, intervals.getEnd(0));
+
+	}
+
+	public void testOverlaps() {
+
+		RangeIndex index = RangeIndex.parse("6:100-200,6:500-600");
+
+		assertTrue(index.overlaps("6", 1, 100));
+		assertTrue(index.overlaps("6", 150, 160));
+		assertTrue(index.overlaps("6", 200, 499));
+		assertTrue(index.overlaps("6", 1, 1000));
+		assertFalse(index.overlaps("6", 1, 99));
+		assertFalse(index.overlaps("6", 201, 499));
+		assertFalse(index.overlaps("6", 601, 1000));
+		assertFalse(index.overlaps("1", 1, 1000));
+
+	}
+
+}
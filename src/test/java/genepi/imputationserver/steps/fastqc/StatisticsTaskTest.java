@@ -0,0 +1,362 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.function.BiConsumer;
+
+import genepi.imputationserver.steps.fastqc.legend.LegendCache;
+import genepi.imputationserver.steps.vcf.BGzipLineWriter;
+import genepi.imputationserver.steps.vcf.TabixIndex;
+import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.io.FileUtil;
+import genepi.io.text.LineReader;
+import genepi.io.text.LineWriter;
+import junit.framework.TestCase;
+
+public class StatisticsTaskTest extends TestCase {
+
+	public static final String CHR20 = "test-data/data/chr20-phased/chr20.R50.merged.1.330k.recode.small.vcf.gz";
+
+	// indexed input files of different chromosomes
+	public static final String[] VCFS = {
+			"test-data/data/simulated-chip-3chr-imputation/1000genomes.chr1.HumanHap550.small.recode.vcf.gz",
+			"test-data/data/simulated-chip-3chr-imputation/1000genomes.chr3.HumanHap550.small.recode.vcf.gz" };
+
+	public static final String LEGEND = "test-data/configs/hapmap-3chr/ref-panels/hapmap_r22.chr$chr.CEU.hg19_impute.legend.gz";
+
+	public static final String[] COUNTERS = { "getOverallSnps", "getNotFoundInLegend", "getFoundInLegend",
+			"getAlleleMismatch", "getAlleleSwitch", "getStrandFlipSimple", "getComplicatedGenotypes",
+			"getStrandFlipAndAlleleSwitch", "getMatch", "getLowCallRate", "getFiltered", "getMonomorphic",
+			"getAlternativeAlleles", "getNoSnps", "getDuplicates", "getFilterFlag", "getInvalidAlleles",
+			"getRemovedChunksSnps", "getRemovedChunksOverlap", "getRemovedChunksCallRate", "getOverallChunks",
+			"getMultiallelicSites" };
+
+	public static final String CHRX = "test-data/data/chrX-phased/small.chrX.vcf.gz";
+
+	public static final String LEGEND_CHR20 = "test-data/configs/hapmap-chr20/ref-panels/hapmap_r22.chr20.CEU.hg19_impute.legend.gz";
+
+	public void testSameOutputOnAllFileThreads() throws Exception {
+
+		String serial = createDirectory("statistics-files-serial");
+		String parallel = createDirectory("statistics-files-parallel");
+
+		StatisticsTask serialTask = createTask(serial, VCFS, LEGEND);
+		assertTrue(run(serialTask, serial).isSuccess());
+
+		StatisticsTask parallelTask = createTask(parallel, VCFS, LEGEND);
+		parallelTask.setFileThreads(2);
+		assertTrue(run(parallelTask, parallel).isSuccess());
+
+		assertSameOutput(serialTask, serial, parallelTask, parallel);
+
+		FileUtil.deleteDirectory(serial);
+		FileUtil.deleteDirectory(parallel);
+
+	}
+
+	public void testSameOutputOnAllThreads() throws Exception {
+
+		String input = createDirectory("statistics-shards-input");
+		String serial = createDirectory("statistics-shards-serial");
+		String parallel = createDirectory("statistics-shards-parallel");
+		String[] inputs = copyInputs(input);
+
+		StatisticsTask serialTask = createTask(serial, inputs, LEGEND);
+		assertTrue(run(serialTask, serial).isSuccess());
+
+		StatisticsTask parallelTask = createTask(parallel, inputs, LEGEND);
+		parallelTask.setThreads(4);
+		assertTrue(run(parallelTask, parallel).isSuccess());
+
+		assertSameOutput(serialTask, serial, parallelTask, parallel);
+
+		FileUtil.deleteDirectory(input);
+		FileUtil.deleteDirectory(serial);
+		FileUtil.deleteDirectory(parallel);
+
+	}
+
+	public void testStaleIndex() throws Exception {
+
+		String input = createDirectory("statistics-stale-input");
+		String serial = createDirectory("statistics-stale-serial");
+		String parallel = createDirectory("statistics-stale-parallel");
+		String[] inputs = copyInputs(input);
+
+		// the index of the same chromosome, but of another compressed file
+		String[] staleInputs = { inputs[0] };
+		FileUtil.copy(TabixIndex.getFilename(VCFS[0]), TabixIndex.getFilename(inputs[0]));
+
+		StatisticsTask serialTask = createTask(serial, staleInputs, LEGEND);
+		assertTrue(run(serialTask, serial).isSuccess());
+
+		StatisticsTask parallelTask = createTask(parallel, staleInputs, LEGEND);
+		parallelTask.setThreads(4);
+		assertTrue(run(parallelTask, parallel).isSuccess());
+
+		assertSameOutput(serialTask, serial, parallelTask, parallel);
+
+		FileUtil.deleteDirectory(input);
+		FileUtil.deleteDirectory(serial);
+		FileUtil.deleteDirectory(parallel);
+
+	}
+
+	public void testShardsDeletedOnFailure() throws Exception {
+
+		String dir = createDirectory("statistics-shards-failed");
+
+		// a legend with an invalid position in a later chunk
+		String legend = FileUtil.path(dir, "chr1.legend");
+		LineReader reader = new LineReader(LEGEND.replaceAll("\\$chr", "1"));
+		LineWriter writer = new LineWriter(legend);
+		while (reader.next()) {
+			String line = reader.get();
+			if (line.startsWith("rs") && Integer.parseInt(line.split(" ")[1]) == 150000165) {
+				line = line.replace("150000165", "invalid");
+			}
+			writer.write(line);
+		}
+		reader.close();
+		writer.close();
+
+		String[] inputs = copyInputs(dir);
+
+		StatisticsTask task = createTask(dir, new String[] { inputs[0] }, FileUtil.path(dir, "chr$chr.legend"));
+		task.setThreads(4);
+		try {
+			run(task, dir);
+			fail("legend has an invalid position");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("invalid position"));
+		}
+
+		for (String name : new File(dir).list()) {
+			assertFalse(name, name.startsWith("shard_"));
+		}
+
+		FileUtil.deleteDirectory(dir);
+
+	}
+
+	public void testFilesDeletedOnFailure() throws Exception {
+
+		String dir = createDirectory("statistics-files-failed");
+
+		// the panel has no legend for chrX, which fails during the merge
+		StatisticsTask task = createTask(dir, new String[] { CHRX, VCFS[0] }, LEGEND);
+		task.setFileThreads(2);
+		try {
+			run(task, dir);
+			fail("chrX is not supported");
+		} catch (InterruptedException e) {
+			assertTrue(e.getMessage().contains("chromosome X"));
+		}
+
+		for (String name : new File(dir).list()) {
+			assertFalse(name, name.startsWith("file_"));
+		}
+
+		FileUtil.deleteDirectory(dir);
+
+	}
+
+	public void testEmptyAlleles() throws Exception {
+
+		String dir = createDirectory("statistics-empty-alleles");
+
+		// one record with an empty REF and one with an empty ALT
+		String input = FileUtil.path(dir, "input.vcf.gz");
+		writeInput(input, 50, (record, tiles) -> {
+			if (record == 10) {
+				tiles[3] = "";
+			} else if (record == 20) {
+				tiles[4] = "";
+			}
+		});
+
+		StatisticsTask task = createTask(dir, new String[] { input }, LEGEND_CHR20);
+		assertTrue(run(task, dir).isSuccess());
+
+		assertEquals(2, task.getInvalidAlleles());
+
+		FileUtil.deleteDirectory(dir);
+
+	}
+
+	public void testLegendReleasedOnFailure() throws Exception {
+
+		String dir = createDirectory("statistics-legend-released");
+
+		// strand flip of a T/C record
+		String input = FileUtil.path(dir, "input.vcf.gz");
+		writeInput(input, 50, (record, tiles) -> {
+			if (record == 1) {
+				tiles[3] = "A";
+				tiles[4] = "G";
+			}
+		});
+
+		LegendCache cache = LegendCache.getInstance();
+		cache.setMaxMemory(64 * 1024 * 1024);
+
+		try {
+
+			QcLimits limits = new QcLimits();
+			limits.setStrandFlips(0);
+
+			StatisticsTask task = createTask(dir, new String[] { input }, LEGEND_CHR20);
+			task.setLimits(limits);
+			assertFalse(run(task, dir).isSuccess());
+			assertEquals(1, cache.getSize());
+
+			// unused entries are evicted
+			cache.setMaxMemory(1);
+			assertEquals(0, cache.getSize());
+
+		} finally {
+			cache.setMaxMemory(0);
+		}
+
+		FileUtil.deleteDirectory(dir);
+
+	}
+
+	// compares the counters and all output files, chunks are compared by their
+	// records
+	private void assertSameOutput(StatisticsTask expectedTask, String expectedDir, StatisticsTask actualTask,
+			String actualDir) throws Exception {
+
+		assertTrue(expectedTask.getOverallChunks() > 1);
+		for (String counter : COUNTERS) {
+			Method method = StatisticsTask.class.getMethod(counter);
+			assertEquals(counter, method.invoke(expectedTask), method.invoke(actualTask));
+		}
+
+		String[] expectedFiles = new File(expectedDir).list();
+		String[] actualFiles = new File(actualDir).list();
+		Arrays.sort(expectedFiles);
+		Arrays.sort(actualFiles);
+		assertEquals(Arrays.asList(expectedFiles), Arrays.asList(actualFiles));
+
+		for (String name : expectedFiles) {
+			if (name.endsWith(".tbi")) {
+				continue;
+			}
+			List<String> expected = readLines(FileUtil.path(expectedDir, name), expectedDir);
+			List<String> actual = readLines(FileUtil.path(actualDir, name), actualDir);
+			assertEquals(name, expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				if (expected.get(i).startsWith("chromosome\t")) {
+					assertEqualSums(expected.get(i), actual.get(i));
+				} else {
+					assertEquals(name, expected.get(i), actual.get(i));
+				}
+			}
+		}
+
+	}
+
+	// regression sums of the report data depend on the summation order
+	private void assertEqualSums(String expected, String actual) {
+		String[] expectedTiles = expected.split("\t");
+		String[] actualTiles = actual.split("\t");
+		assertEquals(expectedTiles.length, actualTiles.length);
+		assertEquals(expectedTiles[1], actualTiles[1]);
+		for (int i = 2; i < expectedTiles.length; i++) {
+			double value = Double.parseDouble(expectedTiles[i]);
+			assertEquals(expected, value, Double.parseDouble(actualTiles[i]), Math.abs(value) * 1e-12);
+		}
+	}
+
+	private List<String> readLines(String filename, String dir) throws IOException {
+		List<String> lines = new Vector<String>();
+		LineReader reader = VcfFileUtil.openLineReader(filename);
+		while (reader.next()) {
+			// metafiles contain the chunk filenames
+			lines.add(reader.get().replace(dir, ""));
+		}
+		reader.close();
+		return lines;
+	}
+
+	// copies of the input files with an up-to-date index
+	private String[] copyInputs(String dir) throws IOException {
+		String inputDir = FileUtil.path(dir, "input");
+		FileUtil.createDirectory(inputDir);
+		String[] inputs = new String[VCFS.length];
+		for (int i = 0; i < VCFS.length; i++) {
+			inputs[i] = FileUtil.path(inputDir, FileUtil.getFilename(VCFS[i]));
+			writeInput(VCFS[i], inputs[i], Integer.MAX_VALUE, (record, tiles) -> {
+			});
+		}
+		return inputs;
+	}
+
+	private void writeInput(String filename, int records, BiConsumer<Integer, String[]> editor) throws IOException {
+		writeInput(CHR20, filename, records, editor);
+	}
+
+	private void writeInput(String source, String filename, int records, BiConsumer<Integer, String[]> editor)
+			throws IOException {
+		LineReader reader = VcfFileUtil.openLineReader(source);
+		BGzipLineWriter writer = new BGzipLineWriter(filename, true);
+		int record = 0;
+		while (reader.next() && record < records) {
+			String line = reader.get();
+			if (!line.startsWith("#")) {
+				record++;
+				String[] tiles = line.split("\t", -1);
+				editor.accept(record, tiles);
+				line = String.join("\t", tiles);
+			}
+			writer.write(line);
+		}
+		reader.close();
+		writer.close();
+	}
+
+	private StatisticsTask createTask(String dir, String[] vcfFilenames, String legendFile) {
+		StatisticsTask task = new StatisticsTask();
+		task.setVcfFilenames(vcfFilenames);
+		task.setLegendFile(legendFile);
+		task.setRefSamples(100);
+		task.setPopulation("eur");
+		task.setChunkSize(20000000);
+		task.setPhasingWindow(5000000);
+		task.setBuild("hg19");
+		task.setMinSnps(3);
+		task.setReferenceOverlap(0.5);
+		task.setSampleCallrate(0.5);
+		task.setThreads(1);
+		task.setFileThreads(1);
+		task.setChunkFileDir(dir);
+		task.setChunksDir(dir);
+		task.setStatDir(dir);
+		task.setMafFile(FileUtil.path(dir, "maf.txt"));
+		return task;
+	}
+
+	private TaskResults run(StatisticsTask task, String dir) throws Exception {
+		LineWriter excludedSnpsWriter = new LineWriter(FileUtil.path(dir, "snps-excluded.txt"));
+		excludedSnpsWriter.write("#Position" + "\t" + "FilterType" + "\t" + " Info", false);
+		task.setExcludedSnpsWriter(excludedSnpsWriter);
+		try {
+			return task.run(null);
+		} finally {
+			excludedSnpsWriter.close();
+		}
+	}
+
+	private String createDirectory(String name) throws IOException {
+		String dir = FileUtil.path("test-data", "tmp", name);
+		FileUtil.deleteDirectory(dir);
+		FileUtil.createDirectory(dir);
+		return dir;
+	}
+
+}
@@ -0,0 +1,142 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import genepi.imputationserver.steps.vcf.BGzipLineWriter;
+import genepi.imputationserver.steps.vcf.FastVCFFileReader;
+import genepi.imputationserver.steps.vcf.ParallelBGzipInputStream;
+import genepi.imputationserver.steps.vcf.TabixIndex;
+import genepi.imputationserver.steps.vcf.TabixIndexBuilder;
+import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.io.text.LineReader;
+import junit.framework.TestCase;
+
+public class TabixIndexTest extends TestCase {
+
+	public static final String VCF = "test-data/data/chr20-phased/chr20.R50.merged.1.330k.recode.small.vcf.gz";
+
+	public void testStartAtPosition() throws IOException {
+
+		TabixIndex index = new TabixIndex(TabixIndex.getFilename(VCF));
+		assertTrue(index.hasChromosome("20"));
+		assertFalse(index.hasChromosome("chr20"));
+
+		checkPositions(VCF, index);
+
+	}
+
+	public void testIndexWrittenOnTheFly() throws IOException {
+
+		File output = File.createTempFile("indexed", ".vcf.gz");
+		output.deleteOnExit();
+		File indexFile = new File(TabixIndex.getFilename(output.getAbsolutePath()));
+		indexFile.deleteOnExit();
+
+		LineReader reader = VcfFileUtil.openLineReader(VCF);
+		BGzipLineWriter writer = new BGzipLineWriter(output.getAbsolutePath(), true);
+		while (reader.next()) {
+			writer.write(reader.get());
+		}
+		reader.close();
+		writer.close();
+
+		assertTrue(indexFile.exists());
+
+		TabixIndex index = new TabixIndex(indexFile.getAbsolutePath());
+		assertTrue(index.hasChromosome("20"));
+
+		checkPositions(output.getAbsolutePath(), index);
+
+	}
+
+	public void testIndexExistingFile() throws IOException {
+
+		File indexFile = File.createTempFile("existing", ".vcf.gz.tbi");
+		indexFile.deleteOnExit();
+
+		TabixIndexBuilder.index(VCF, indexFile.getAbsolutePath(), 4);
+
+		TabixIndex index = new TabixIndex(indexFile.getAbsolutePath());
+		assertTrue(index.hasChromosome("20"));
+
+		checkPositions(VCF, index);
+
+	}
+
+	public void testFileWithoutHeader() throws IOException {
+
+		File output = File.createTempFile("headerless", ".vcf.gz");
+		output.deleteOnExit();
+		File indexFile = new File(TabixIndex.getFilename(output.getAbsolutePath()));
+		indexFile.deleteOnExit();
+
+		// the first record starts at virtual offset 0
+		BGzipLineWriter writer = new BGzipLineWriter(output.getAbsolutePath(), true);
+		writer.write("20\t100\t.\tA\tC\t.\t.\t.");
+		writer.write("20\t200\t.\tA\tC\t.\t.\t.");
+		writer.close();
+
+		TabixIndex index = new TabixIndex(indexFile.getAbsolutePath());
+		assertEquals(0, index.getOffset("20", 1));
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				ParallelBGzipInputStream.open(output.getAbsolutePath(), index.getOffset("20", 1))));
+		assertTrue(reader.readLine().startsWith("20\t100\t"));
+		reader.close();
+
+	}
+
+	public void testUnsortedFile() throws IOException {
+
+		File output = File.createTempFile("unsorted", ".vcf.gz");
+		output.deleteOnExit();
+
+		BGzipLineWriter writer = new BGzipLineWriter(output.getAbsolutePath(), true);
+		writer.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+		writer.write("20\t200\t.\tA\tC\t.\t.\t.");
+		try {
+			writer.write("20\t100\t.\tA\tC\t.\t.\t.");
+			fail("unsorted position not detected");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("not sorted"));
+		}
+		writer.close();
+
+	}
+
+	private void checkPositions(String filename, TabixIndex index) throws IOException {
+
+		for (int position : new int[] { 1, 10000000, 30000001, 62000000 }) {
+
+			// first record at or after position by scanning the whole file
+			FastVCFFileReader reader = new FastVCFFileReader(filename);
+			int expected = -1;
+			while (reader.next() && expected == -1) {
+				if (reader.getVariantContext().getStart() >= position) {
+					expected = reader.getVariantContext().getStart();
+				}
+			}
+			reader.close();
+
+			long offset = index.getOffset("20", position);
+			reader = new FastVCFFileReader(filename, offset);
+			assertTrue(reader.next());
+			assertTrue(reader.getVariantContext().getStart() <= expected);
+			int found = -1;
+			do {
+				if (reader.getVariantContext().getStart() >= position) {
+					found = reader.getVariantContext().getStart();
+				}
+			} while (found == -1 && reader.next());
+			reader.close();
+
+			assertEquals(expected, found);
+
+		}
+
+	}
+
+}
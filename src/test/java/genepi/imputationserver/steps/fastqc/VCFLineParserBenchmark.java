@@ -0,0 +1,78 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import genepi.imputationserver.steps.vcf.FastVCFFileReader;
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.util.Benchmark;
+
+/**
+ * Reads a synthetic vcf file with FastVCFFileReader, as done by the quality
+ * control for every record. Arguments: samples, records (default 1000 and
+ * 5000).
+ */
+public class VCFLineParserBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		int samples = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		final int records = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+		final File file = File.createTempFile("benchmark", ".vcf.gz");
+		file.deleteOnExit();
+		writeFile(file, samples, records);
+
+		Benchmark.run("FastVCFFileReader " + samples + " samples", records, 3, 10, new Benchmark.Task() {
+			@Override
+			public long run() throws Exception {
+				long sum = 0;
+				FastVCFFileReader reader = new FastVCFFileReader(file.getAbsolutePath());
+				while (reader.next()) {
+					MinimalVariantContext snp = reader.getVariantContext();
+					sum += snp.getStart() + snp.getHetCount() + snp.getNoCallCount();
+				}
+				reader.close();
+				return sum;
+			}
+		});
+
+	}
+
+	// unphased diploid genotypes with some missing calls
+	static void writeFile(File file, int samples, int records) throws IOException {
+
+		String[] genotypes = { "0/0", "0/1", "1/1", "./." };
+		Random random = new Random(42);
+
+		Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)),
+				StandardCharsets.UTF_8);
+		writer.write("##fileformat=VCFv4.1\n");
+		writer.write("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+		for (int i = 0; i < samples; i++) {
+			writer.write("\tsample" + i);
+		}
+		writer.write("\n");
+
+		StringBuilder line = new StringBuilder();
+		for (int i = 1; i <= records; i++) {
+			line.setLength(0);
+			line.append("20\t").append(i * 100).append("\trs").append(i).append("\tA\tG\t.\tPASS\t.\tGT");
+			for (int j = 0; j < samples; j++) {
+				int genotype = random.nextInt(100);
+				line.append('\t').append(genotypes[genotype < 60 ? 0 : genotype < 90 ? 1 : genotype < 98 ? 2 : 3]);
+			}
+			line.append('\n');
+			writer.write(line.toString());
+		}
+		writer.close();
+
+	}
+
+}
@@ -1,8 +1,10 @@
 package genepi.imputationserver.steps.fastqc;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.steps.vcf.SampleCallCounter;
 import genepi.imputationserver.steps.vcf.VCFLineParser;
 import junit.framework.TestCase;
 
@@ -208,6 +210,122 @@ public class VCFLineParserTest extends TestCase {
 		assertEquals(true, variantContext.isIndel());
 	}
 	
+	public void testParseFromBuffer() throws IOException {
+
+		int samples = 3;
+		String line = "20	14370	rs6054257	G	A	29	PASS	NS=3;DP=14;AF=0.5;DB;H2	GT:GQ:DP:HQ	0|0:48:1:51,51	1|0:48:8:51,51	./.:43:5:.,.";
+		byte[] buffer = ("##header\n" + line + "\n").getBytes(StandardCharsets.UTF_8);
+
+		VCFLineParser parser = new VCFLineParser(samples);
+		MinimalVariantContext variantContext = parser.parseLine(buffer, 9, line.length());
+
+		assertEquals(samples, variantContext.getNSamples());
+		assertEquals(1, variantContext.getHetCount());
+		assertEquals(1, variantContext.getHomRefCount());
+		assertEquals(0, variantContext.getHomVarCount());
+		assertEquals(1, variantContext.getNoCallCount());
+		assertEquals(true, variantContext.isCalled(0));
+		assertEquals(false, variantContext.isCalled(2));
+		assertEquals("20", variantContext.getContig());
+		assertEquals(14370, variantContext.getStart());
+		assertEquals("G", variantContext.getReferenceAllele());
+		assertEquals("A", variantContext.getAlternateAllele());
+		assertEquals(false, variantContext.isFiltered());
+		assertEquals(line, variantContext.getRawLine());
+
+	}
+
+	public void testGenotypeFromBuffer() throws IOException {
+
+		String line = "20	14370	rs6054257	G	A	29	PASS	.	GT	0|0	1|0";
+		byte[] buffer = (line + "\n").getBytes(StandardCharsets.UTF_8);
+
+		VCFLineParser parser = new VCFLineParser(2);
+		MinimalVariantContext variantContext = parser.parseLine(buffer, 0, line.length());
+
+		// alleles are not accessed before
+		assertEquals("GA", variantContext.getGenotype());
+
+	}
+
+	public void testManySamples() throws IOException {
+
+		int samples = 150;
+		String[] genotypes = { "0|0", "0|1", "1|0", "1|1", ".|." };
+
+		VCFLineParser parser = new VCFLineParser(samples);
+		SampleCallCounter counter = new SampleCallCounter(samples);
+		int[] expected = new int[samples];
+
+		for (int snp = 0; snp < 10; snp++) {
+
+			StringBuilder line = new StringBuilder("20\t" + (1000 + snp) + "\t.\tG\tA\t.\tPASS\t.\tGT");
+			for (int i = 0; i < samples; i++) {
+				line.append("\t" + genotypes[(i * 7 + snp) % genotypes.length]);
+			}
+
+			MinimalVariantContext variantContext = parser.parseLine(line.toString());
+			counter.add(variantContext);
+
+			int calls = 0;
+			int alt = 0;
+			for (int i = 0; i < samples; i++) {
+				String genotype = genotypes[(i * 7 + snp) % genotypes.length];
+				boolean called = !genotype.equals(".|.");
+				assertEquals(called, variantContext.isCalled(i));
+				if (called) {
+					expected[i]++;
+					calls++;
+					alt += (genotype.charAt(0) == '1' ? 1 : 0) + (genotype.charAt(2) == '1' ? 1 : 0);
+				}
+			}
+
+			assertEquals(samples, variantContext.getNSamples());
+			assertEquals(calls, variantContext.getCalledCount());
+			assertEquals(samples - calls, variantContext.getNoCallCount());
+			assertEquals(alt, variantContext.getAltAlleleCount());
+
+		}
+
+		for (int i = 0; i < samples; i++) {
+			assertEquals(expected[i], counter.get(i));
+		}
+
+	}
+
+	public void testDiploidFastPath() throws IOException {
+
+		String[] genotypes = { "0|0", "0|1", "1|0", "1|1", ".|.", "0/1", "1/1", "./.", ".|0", "1|." };
+
+		for (int samples = 1; samples <= 130; samples++) {
+
+			// GT only uses the fast path, GT:DS the generic loop
+			StringBuilder fast = new StringBuilder("20\t1000\t.\tG\tA\t.\tPASS\t.\tGT");
+			StringBuilder generic = new StringBuilder("20\t1000\t.\tG\tA\t.\tPASS\t.\tGT:DS");
+			for (int i = 0; i < samples; i++) {
+				String genotype = genotypes[(i * 7 + samples) % genotypes.length];
+				fast.append("\t" + genotype);
+				generic.append("\t" + genotype + ":0");
+			}
+
+			MinimalVariantContext expected = new VCFLineParser(samples).parseLine(generic.toString());
+			MinimalVariantContext actual = new VCFLineParser(samples).parseLine(fast.toString());
+
+			assertEquals(expected.getNSamples(), actual.getNSamples());
+			assertEquals(expected.getHetCount(), actual.getHetCount());
+			assertEquals(expected.getHomRefCount(), actual.getHomRefCount());
+			assertEquals(expected.getHomVarCount(), actual.getHomVarCount());
+			assertEquals(expected.getNoCallCount(), actual.getNoCallCount());
+			for (int i = 0; i < MinimalVariantContext.getWords(samples); i++) {
+				assertEquals(expected.getCalledWords()[i], actual.getCalledWords()[i]);
+				assertEquals(expected.getFirstAltWords()[i], actual.getFirstAltWords()[i]);
+				assertEquals(expected.getSecondAltWords()[i], actual.getSecondAltWords()[i]);
+			}
+
+		}
+
+	}
+
 	//TODO: check / and | and no 0 and 1
 
 }
@@ -0,0 +1,106 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import genepi.imputationserver.steps.vcf.TabixIndex;
+import genepi.imputationserver.steps.vcf.VcfFile;
+import genepi.imputationserver.steps.vcf.VcfFileProfile;
+import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.io.FileUtil;
+import junit.framework.TestCase;
+
+public class VcfFileProfileTest extends TestCase {
+
+	public static final String VCF = "test-data/data/chr20-phased/chr20.R50.merged.1.330k.recode.small.vcf.gz";
+
+	public static final int CHUNK_SIZE = 10000000;
+
+	public void testWriteAndLoad() throws IOException {
+
+		String dir = createDirectory("vcf-profile");
+		String vcfFilename = copyInput(dir);
+
+		VcfFile expected = VcfFileUtil.load(vcfFilename, CHUNK_SIZE, false);
+		VcfFileProfile.write(expected);
+		assertTrue(new File(VcfFileProfile.getFilename(vcfFilename)).exists());
+
+		VcfFile actual = VcfFileProfile.load(vcfFilename, CHUNK_SIZE);
+		assertNotNull(actual);
+		assertEquals(vcfFilename, actual.getVcfFilename());
+		assertEquals(CHUNK_SIZE, actual.getChunkSize());
+		assertEquals(expected.getNoSnps(), actual.getNoSnps());
+		assertEquals(expected.getNoSamples(), actual.getNoSamples());
+		assertEquals(expected.isPhased(), actual.isPhased());
+		assertEquals(expected.isPhasedAutodetect(), actual.isPhasedAutodetect());
+		assertEquals(expected.hasChrPrefix(), actual.hasChrPrefix());
+		assertEquals(expected.getChromosomes(), actual.getChromosomes());
+		assertEquals(expected.getRawChromosome(), actual.getRawChromosome());
+		assertEquals(expected.getChunks(), actual.getChunks());
+		assertEquals(expected.getDensity(), actual.getDensity());
+		assertEquals(expected.getSamples(), actual.getSamples());
+
+		// another chunk size needs other chunks
+		assertNull(VcfFileProfile.load(vcfFilename, CHUNK_SIZE * 2));
+
+		FileUtil.deleteDirectory(dir);
+
+	}
+
+	public void testRejectedWhenVcfChanges() throws IOException {
+
+		String dir = createDirectory("vcf-profile-changed");
+		String vcfFilename = copyInput(dir);
+
+		VcfFileProfile.write(VcfFileUtil.load(vcfFilename, CHUNK_SIZE, false));
+		assertNotNull(VcfFileProfile.load(vcfFilename, CHUNK_SIZE));
+
+		// same size and modification time, other bytes at the end
+		File file = new File(vcfFilename);
+		long modified = file.lastModified();
+		RandomAccessFile data = new RandomAccessFile(file, "rw");
+		data.seek(file.length() - 1);
+		int last = data.read();
+		data.seek(file.length() - 1);
+		data.write(last ^ 0xff);
+		data.close();
+		file.setLastModified(modified);
+
+		assertNull(VcfFileProfile.load(vcfFilename, CHUNK_SIZE));
+
+		// a new file with the old profile
+		copyInput(dir);
+		assertTrue(file.setLastModified(modified + 1000));
+		assertNull(VcfFileProfile.load(vcfFilename, CHUNK_SIZE));
+
+		FileUtil.deleteDirectory(dir);
+
+	}
+
+	public void testMissingProfile() throws IOException {
+
+		String dir = createDirectory("vcf-profile-missing");
+		String vcfFilename = copyInput(dir);
+
+		assertNull(VcfFileProfile.load(vcfFilename, CHUNK_SIZE));
+
+		FileUtil.deleteDirectory(dir);
+
+	}
+
+	private String copyInput(String dir) {
+		String vcfFilename = FileUtil.path(dir, FileUtil.getFilename(VCF));
+		FileUtil.copy(VCF, vcfFilename);
+		FileUtil.copy(TabixIndex.getFilename(VCF), TabixIndex.getFilename(vcfFilename));
+		return vcfFilename;
+	}
+
+	private String createDirectory(String name) {
+		String dir = FileUtil.path("test-data", "tmp", name);
+		FileUtil.deleteDirectory(dir);
+		FileUtil.createDirectory(dir);
+		return dir;
+	}
+
+}
@@ -0,0 +1,129 @@
+package genepi.imputationserver.steps.fastqc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.steps.vcf.TabixIndex;
+import genepi.imputationserver.steps.vcf.VcfChunk;
+import genepi.imputationserver.steps.vcf.VcfChunkUtil;
+import genepi.imputationserver.steps.vcf.VcfFileUtil;
+import genepi.imputationserver.steps.vcf.VcfRegionWriter;
+import genepi.io.text.LineReader;
+import junit.framework.TestCase;
+
+public class VcfRegionWriterTest extends TestCase {
+
+	public static final String VCF = "test-data/data/chr20-phased/chr20.R50.merged.1.330k.recode.small.vcf.gz";
+
+	public static final int CHUNK_SIZE = 10000000;
+
+	public static final int PHASING_WINDOW = 500000;
+
+	public void testExtractChunksFromMergedParts() throws IOException {
+
+		File output = File.createTempFile("region", ".vcf.gz");
+		output.deleteOnExit();
+		new File(TabixIndex.getFilename(output.getAbsolutePath())).deleteOnExit();
+
+		List<String> header = new Vector<String>();
+		List<String> records = new Vector<String>();
+		LineReader reader = VcfFileUtil.openLineReader(VCF);
+		while (reader.next()) {
+			if (reader.get().startsWith("#")) {
+				header.add(reader.get());
+			} else {
+				records.add(reader.get());
+			}
+		}
+		reader.close();
+
+		// one part per chunk, the header is written by the first part
+		List<VcfRegionWriter> parts = new Vector<VcfRegionWriter>();
+		List<VcfChunk> chunks = new Vector<VcfChunk>();
+		VcfRegionWriter part = null;
+		int chunk = -1;
+		for (String record : records) {
+			int position = getPosition(record);
+			if ((position - 1) / CHUNK_SIZE != chunk) {
+				if (part != null) {
+					part.close();
+				}
+				chunk = (position - 1) / CHUNK_SIZE;
+				part = new VcfRegionWriter(output.getAbsolutePath() + "." + chunk, CHUNK_SIZE, PHASING_WINDOW);
+				if (parts.isEmpty()) {
+					part.writeHeader(header);
+				}
+				parts.add(part);
+				chunks.add(createChunk(chunk));
+			}
+			String[] tiles = record.split("\t", 5);
+			MinimalVariantContext snp = new MinimalVariantContext(0);
+			snp.setContig(tiles[0]);
+			snp.setStart(position);
+			snp.setReferenceAllele(tiles[3]);
+			snp.setRawLine(record);
+			part.write(snp);
+		}
+		part.close();
+
+		VcfRegionWriter.merge(output.getAbsolutePath(), parts, chunks);
+
+		assertTrue(chunks.size() > 1);
+
+		for (VcfChunk vcfChunk : chunks) {
+
+			assertTrue(vcfChunk.isShared());
+
+			File chunkFile = File.createTempFile("chunk", ".vcf.gz");
+			chunkFile.deleteOnExit();
+			new File(TabixIndex.getFilename(chunkFile.getAbsolutePath())).deleteOnExit();
+
+			FileInputStream in = new FileInputStream(output);
+			in.getChannel().position(vcfChunk.getStartOffset() >>> 16);
+			VcfChunkUtil.extractChunk(new FileInputStream(output), in, vcfChunk, chunkFile.getAbsolutePath());
+
+			List<String> expected = new Vector<String>();
+			for (String record : records) {
+				int position = getPosition(record);
+				if (position >= vcfChunk.getStart() - PHASING_WINDOW
+						&& position <= vcfChunk.getEnd() + PHASING_WINDOW) {
+					expected.add(record);
+				}
+			}
+
+			List<String> extracted = new Vector<String>();
+			LineReader chunkReader = VcfFileUtil.openLineReader(chunkFile.getAbsolutePath());
+			while (chunkReader.next()) {
+				if (!chunkReader.get().startsWith("#")) {
+					extracted.add(chunkReader.get());
+				}
+			}
+			chunkReader.close();
+
+			assertEquals(expected, extracted);
+
+		}
+
+		// index of the merged file
+		TabixIndex index = new TabixIndex(TabixIndex.getFilename(output.getAbsolutePath()));
+		assertTrue(index.hasChromosome("20"));
+
+	}
+
+	private VcfChunk createChunk(int chunk) {
+		VcfChunk vcfChunk = new VcfChunk();
+		vcfChunk.setChromosome("20");
+		vcfChunk.setStart(chunk * CHUNK_SIZE + 1);
+		vcfChunk.setEnd((chunk + 1) * CHUNK_SIZE);
+		return vcfChunk;
+	}
+
+	private int getPosition(String record) {
+		return Integer.parseInt(record.split("\t", 3)[1]);
+	}
+
+}
@@ -0,0 +1,142 @@
+package genepi.imputationserver.util;
+
+import java.util.Random;
+
+import genepi.imputationserver.steps.fastqc.legend.LegendEntry;
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.util.AlleleClassifier.Outcome;
+
+/**
+ * Classifies a realistic mix of study and legend alleles with the outcome
+ * table and with the former chain of GenomicTools checks. Argument: number
+ * of sites (default 1000000).
+ */
+public class AlleleClassifierBenchmark {
+
+	private static final char[] NUCLEOTIDES = { 'A', 'C', 'G', 'T' };
+
+	public static void main(String[] args) throws Exception {
+
+		int sites = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		final String[] studyRefs = new String[sites];
+		final String[] studyAlts = new String[sites];
+		final char[] legendRefs = new char[sites];
+		final char[] legendAlts = new char[sites];
+		createSites(studyRefs, studyAlts, legendRefs, legendAlts);
+
+		// like the quality control, one record and one legend entry are
+		// reused for all sites
+		final MinimalVariantContext snp = new MinimalVariantContext(1);
+		final LegendEntry entry = new LegendEntry();
+
+		Benchmark.run("AlleleClassifier", sites, 5, 20, new Benchmark.Task() {
+			@Override
+			public long run() {
+				long sum = 0;
+				for (int i = 0; i < studyRefs.length; i++) {
+					set(snp, entry, studyRefs[i], studyAlts[i], legendRefs[i], legendAlts[i]);
+					sum += AlleleClassifier.classify(snp, entry).ordinal();
+				}
+				return sum;
+			}
+		});
+
+		Benchmark.run("GenomicTools chain", sites, 5, 20, new Benchmark.Task() {
+			@Override
+			public long run() {
+				long sum = 0;
+				for (int i = 0; i < studyRefs.length; i++) {
+					set(snp, entry, studyRefs[i], studyAlts[i], legendRefs[i], legendAlts[i]);
+					sum += classify(snp, entry).ordinal();
+				}
+				return sum;
+			}
+		});
+
+	}
+
+	private static void set(MinimalVariantContext snp, LegendEntry entry, String studyRef, String studyAlt,
+			char legendRef, char legendAlt) {
+		snp.setReferenceAllele(studyRef);
+		snp.setAlternateAllele(studyAlt);
+		entry.setAlleleA(legendRef);
+		entry.setAlleleB(legendAlt);
+	}
+
+	// mostly matches, some allele switches, strand flips, A/T and C/G sites
+	// and mismatches
+	private static void createSites(String[] studyRefs, String[] studyAlts, char[] legendRefs, char[] legendAlts) {
+
+		Random random = new Random(42);
+
+		for (int i = 0; i < studyRefs.length; i++) {
+
+			char ref = NUCLEOTIDES[random.nextInt(4)];
+			char alt = NUCLEOTIDES[random.nextInt(4)];
+			while (alt == ref) {
+				alt = NUCLEOTIDES[random.nextInt(4)];
+			}
+			char legendRef = ref;
+			char legendAlt = alt;
+
+			int type = random.nextInt(100);
+			if (type < 5) {
+				legendRef = alt;
+				legendAlt = ref;
+			} else if (type < 8) {
+				legendRef = complement(ref);
+				legendAlt = complement(alt);
+			} else if (type < 10) {
+				legendRef = complement(alt);
+				legendAlt = complement(ref);
+			} else if (type < 12) {
+				for (char allele : NUCLEOTIDES) {
+					if (allele != ref && allele != alt) {
+						legendAlt = allele;
+					}
+				}
+			}
+
+			// alleles are new strings for every record
+			studyRefs[i] = new String(new char[] { ref });
+			studyAlts[i] = new String(new char[] { alt });
+			legendRefs[i] = legendRef;
+			legendAlts[i] = legendAlt;
+
+		}
+
+	}
+
+	private static char complement(char allele) {
+		switch (allele) {
+		case 'A':
+			return 'T';
+		case 'T':
+			return 'A';
+		case 'C':
+			return 'G';
+		default:
+			return 'C';
+		}
+	}
+
+	// the former chain of checks in StatisticsTask
+	private static Outcome classify(MinimalVariantContext snp, LegendEntry refEntry) {
+		if (GenomicTools.match(snp, refEntry)) {
+			return Outcome.MATCH;
+		} else if (GenomicTools.complicatedGenotypes(snp, refEntry)) {
+			return Outcome.COMPLICATED_GENOTYPES;
+		} else if (GenomicTools.alleleSwitch(snp, refEntry)) {
+			return Outcome.ALLELE_SWITCH;
+		} else if (GenomicTools.strandFlip(snp, refEntry)) {
+			return Outcome.STRAND_FLIP;
+		} else if (GenomicTools.strandFlipAndAlleleSwitch(snp, refEntry)) {
+			return Outcome.STRAND_FLIP_AND_ALLELE_SWITCH;
+		} else if (GenomicTools.alleleMismatch(snp, refEntry)) {
+			return Outcome.ALLELE_MISMATCH;
+		}
+		return null;
+	}
+
+}
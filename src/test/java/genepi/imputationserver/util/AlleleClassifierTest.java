@@ -0,0 +1,85 @@
+package genepi.imputationserver.util;
+
+import genepi.imputationserver.steps.fastqc.legend.LegendEntry;
+import genepi.imputationserver.steps.vcf.MinimalVariantContext;
+import genepi.imputationserver.util.AlleleClassifier.Outcome;
+import junit.framework.TestCase;
+
+public class AlleleClassifierTest extends TestCase {
+
+	// nucleotides, lower case, unknown and missing alleles
+	public static final char[] ALLELES = { 'A', 'C', 'G', 'T', 'a', 't', 'N', '-', '0' };
+
+	public void testEquivalentToGenomicTools() {
+
+		MinimalVariantContext snp = new MinimalVariantContext(1);
+		LegendEntry refEntry = new LegendEntry();
+
+		int combinations = 0;
+
+		for (char studyRef : ALLELES) {
+			for (char studyAlt : ALLELES) {
+				for (char legendRef : ALLELES) {
+					for (char legendAlt : ALLELES) {
+
+						snp.setReferenceAllele(studyRef + "");
+						snp.setAlternateAllele(studyAlt + "");
+						refEntry.setAlleleA(legendRef);
+						refEntry.setAlleleB(legendAlt);
+
+						assertEquals(snp.getGenotype() + " vs " + refEntry.getGenotype(), classify(snp, refEntry),
+								AlleleClassifier.classify(snp, refEntry));
+						combinations++;
+
+					}
+				}
+			}
+		}
+
+		assertEquals(ALLELES.length * ALLELES.length * ALLELES.length * ALLELES.length, combinations);
+
+	}
+
+	public void testOutcomes() {
+
+		assertEquals(Outcome.MATCH, AlleleClassifier.classify('A', 'T', 'A', 'T'));
+		assertEquals(Outcome.COMPLICATED_GENOTYPES, AlleleClassifier.classify('A', 'T', 'T', 'A'));
+		assertEquals(Outcome.ALLELE_SWITCH, AlleleClassifier.classify('A', 'C', 'C', 'A'));
+		assertEquals(Outcome.STRAND_FLIP, AlleleClassifier.classify('A', 'C', 'T', 'G'));
+		assertEquals(Outcome.STRAND_FLIP_AND_ALLELE_SWITCH, AlleleClassifier.classify('A', 'C', 'G', 'T'));
+		assertEquals(Outcome.ALLELE_MISMATCH, AlleleClassifier.classify('A', 'C', 'A', 'G'));
+		assertEquals(Outcome.ALLELE_MISMATCH, AlleleClassifier.classify('A', 'C', 'a', 'c'));
+
+	}
+
+	public void testIsValid() {
+
+		String[] alleles = { "A", "C", "G", "T", "a", "c", "g", "t", "N", "-", "0", "", "AC", "ac", "<DEL>", "*" };
+
+		for (String allele : alleles) {
+			boolean expected = allele.toUpperCase().equals("A") || allele.toUpperCase().equals("C")
+					|| allele.toUpperCase().equals("G") || allele.toUpperCase().equals("T");
+			assertEquals(allele, expected, GenomicTools.isValid(allele));
+		}
+
+	}
+
+	// the former chain of checks in StatisticsTask
+	private Outcome classify(MinimalVariantContext snp, LegendEntry refEntry) {
+		if (GenomicTools.match(snp, refEntry)) {
+			return Outcome.MATCH;
+		} else if (GenomicTools.complicatedGenotypes(snp, refEntry)) {
+			return Outcome.COMPLICATED_GENOTYPES;
+		} else if (GenomicTools.alleleSwitch(snp, refEntry)) {
+			return Outcome.ALLELE_SWITCH;
+		} else if (GenomicTools.strandFlip(snp, refEntry)) {
+			return Outcome.STRAND_FLIP;
+		} else if (GenomicTools.strandFlipAndAlleleSwitch(snp, refEntry)) {
+			return Outcome.STRAND_FLIP_AND_ALLELE_SWITCH;
+		} else if (GenomicTools.alleleMismatch(snp, refEntry)) {
+			return Outcome.ALLELE_MISMATCH;
+		}
+		return null;
+	}
+
+}
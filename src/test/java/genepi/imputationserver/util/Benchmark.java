@@ -0,0 +1,63 @@
+package genepi.imputationserver.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Minimal timing harness for the benchmark classes, which are started with
+ * their main method and not run by the test suite. Every task runs warm-up
+ * iterations first, then the median time and the bytes allocated by the
+ * calling thread are reported per operation.
+ */
+public class Benchmark {
+
+	public static interface Task {
+
+		/**
+		 * Runs one iteration. The result is consumed, so the work cannot be
+		 * removed by the compiler.
+		 */
+		public long run() throws Exception;
+
+	}
+
+	private static long sink = 0;
+
+	public static void run(String name, long operations, int warmups, int iterations, Task task) throws Exception {
+
+		for (int i = 0; i < warmups; i++) {
+			sink += task.run();
+		}
+
+		long[] times = new long[iterations];
+		long allocated = 0;
+		for (int i = 0; i < iterations; i++) {
+			long bytes = getAllocatedBytes();
+			long start = System.nanoTime();
+			sink += task.run();
+			times[i] = System.nanoTime() - start;
+			allocated += getAllocatedBytes() - bytes;
+		}
+		Arrays.sort(times);
+		long median = times[iterations / 2];
+
+		System.out.println(String.format("%-40s %10.2f ms %12.1f ns/op %12.1f bytes/op", name, median / 1e6,
+				median / (double) operations, allocated / (double) iterations / operations));
+
+	}
+
+	public static long getSink() {
+		return sink;
+	}
+
+	// -1 if the jvm does not count allocations per thread
+	private static long getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+}